@@ -2,12 +2,14 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStreamReader;
 import java.io.StringReader;
+import java.util.Arrays;
 import java.util.Scanner;
 
 import controller.ImageController;
 import gui.GUIController;
 import gui.GUIView;
 import gui.IView;
+import model.TileScheduler;
 
 /**
  * This class is so that the program can be run in the terminal and the user can input commands
@@ -16,11 +18,13 @@ import gui.IView;
 public final class ImageProcessor {
 
   /**
-   * This is the main method that allows the program to be run in the terminal.
+   * This is the main method that allows the program to be run in the terminal. The arguments
+   * can start with -threads followed by how many threads operations should run on.
    *
    * @param args The incoming arguments.
    */
   public static void main(String[] args) {
+    args = setThreads(args);
     Readable rd = new InputStreamReader(System.in);
     Appendable ap = System.out;
 
@@ -54,4 +58,22 @@ public final class ImageProcessor {
     }
 
   }
+
+  /**
+   * Sets the number of threads from a -threads count at the start of the arguments.
+   *
+   * @param args The incoming arguments.
+   * @return The rest of the arguments.
+   */
+  private static String[] setThreads(String[] args) {
+    if (args.length > 1 && args[0].equals("-threads")) {
+      try {
+        TileScheduler.setParallelism(Integer.parseInt(args[1]));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Sorry " + args[1] + " is not a number of threads.");
+      }
+      return Arrays.copyOfRange(args, 2, args.length);
+    }
+    return args;
+  }
 }
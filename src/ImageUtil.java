@@ -1,6 +1,7 @@
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+
+import model.PPMReader;
+import model.PixelBuffer;
 
 
 /**
@@ -15,46 +16,28 @@ public class ImageUtil {
    * @param filename the path of the file.
    */
   public static void readPPM(String filename) {
-    Scanner sc;
-
-    try {
-      sc = new Scanner(new FileInputStream(filename));
-    } catch (FileNotFoundException e) {
-      System.out.println("File " + filename + " not found!");
-      return;
-    }
-    StringBuilder builder = new StringBuilder();
-    //read the file line by line, and populate a string. This will throw away any comment lines
-    while (sc.hasNextLine()) {
-      String s = sc.nextLine();
-      if (s.charAt(0) != '#') {
-        builder.append(s + System.lineSeparator());
-      }
-    }
-
-    //now set up the scanner to read from the string we just built
-    sc = new Scanner(builder.toString());
-
-    String token;
-
-    token = sc.next();
-    if (!token.equals("P3")) {
-      System.out.println("Invalid PPM file: plain RAW file should begin with P3");
-    }
-    int width = sc.nextInt();
-    System.out.println("Width of image: " + width);
-    int height = sc.nextInt();
-    System.out.println("Height of image: " + height);
-    int maxValue = sc.nextInt();
-    System.out.println("Maximum value of a color in this file (usually 255): " + maxValue);
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int r = sc.nextInt();
-        int g = sc.nextInt();
-        int b = sc.nextInt();
-        System.out.println("Color of pixel (" + j + "," + i + "): " + r + "," + g + "," + b);
+    try (PPMReader reader = new PPMReader(filename)) {
+      int width = reader.getWidth();
+      System.out.println("Width of image: " + width);
+      int height = reader.getHeight();
+      System.out.println("Height of image: " + height);
+      int maxValue = reader.getMaxValue();
+      System.out.println("Maximum value of a color in this file (usually 255): " + maxValue);
+
+      PixelBuffer pixels = reader.readPixels();
+      for (int i = 0; i < height; i++) {
+        for (int j = 0; j < width; j++) {
+          int p = i * width + j;
+          int r = pixels.getRed(p);
+          int g = pixels.getGreen(p);
+          int b = pixels.getBlue(p);
+          System.out.println("Color of pixel (" + j + "," + i + "): " + r + "," + g + "," + b);
+        }
       }
+    } catch (IllegalArgumentException e) {
+      System.out.println("Invalid PPM file " + filename + ": " + e.getMessage());
+    } catch (IOException e) {
+      System.out.println("File " + filename + " could not be read!");
     }
   }
 
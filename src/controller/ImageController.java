@@ -1,25 +1,38 @@
 package controller;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.InputMismatchException;
+import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.TreeMap;
 
 import javax.imageio.ImageIO;
 
+import model.ColorMatrix;
+import model.Convolution;
+import model.DeferredImageModel;
 import model.ImageModel;
-import operations.BrightenImage;
+import model.Kernel;
+import model.LazyImageModel;
+import model.PPMWriter;
+import model.PercentileFilter;
+import model.PixelBuffer;
+import model.TileScheduler;
+import operations.BoxBlurImage;
 import operations.ColorTransformImage;
 import operations.FilterImage;
-import operations.GreyImage;
-import operations.HorizontalFlipImage;
+import operations.GaussianBlurImage;
 import operations.ImageCommand;
 import operations.LoadImage;
 import operations.MosaicImage;
-import operations.VerticalFlipImage;
+import operations.PercentileImage;
+import operations.PlanImage;
+import operations.Step;
 
 /**
  * This is the controller for our image processing program, it interacts between the users inputs
@@ -34,6 +47,27 @@ public class ImageController {
    */
   private TreeMap<String, ImageModel> bank;
 
+  /**
+   * The loaded images whose pixels have not been read yet, which a save over their file would
+   * change.
+   */
+  private List<LazyImageModel> unread;
+
+  /**
+   * Whether commands only record what to do, to be run when an image that needs them is saved.
+   */
+  private boolean lazy;
+
+  /**
+   * Whether chains of point and geometric commands are rewritten into shorter plans.
+   */
+  private boolean optimize;
+
+  /**
+   * Whether the rewritten plan is printed each time a command adds to one.
+   */
+  private boolean showPlans;
+
   /**
    * This is the constructor for the controller, checks that the inputs aren't null and initializes
    * the "bank".
@@ -48,6 +82,7 @@ public class ImageController {
     this.appendable = appendable;
     this.readable = readable;
     this.bank = new TreeMap<String, ImageModel>();
+    this.unread = new ArrayList<LazyImageModel>();
 
   }
 
@@ -69,7 +104,15 @@ public class ImageController {
       if (userCommand.equals("quit") || userCommand.equals("q")) {
         quit = true;
       } else {
-        processCommand(userCommand, sc);
+        try {
+          processCommand(userCommand, sc);
+        } catch (IllegalArgumentException e) {
+          // images are decoded on first use, so a bad file can show up in any command
+          writeMessage("Error: " + e.getMessage() + System.lineSeparator());
+        } catch (UncheckedIOException e) {
+          // in lazy mode a file is only read when an image that needs it is saved
+          writeMessage("Error: " + e.getCause().getMessage() + System.lineSeparator());
+        }
       }
     }
 
@@ -88,6 +131,9 @@ public class ImageController {
           ImageCommand cmd = new LoadImage(filename, givenname);
           ImageModel img_to_load = cmd.command();
           bank.put(givenname, img_to_load);
+          if (img_to_load instanceof LazyImageModel) {
+            unread.add((LazyImageModel) img_to_load);
+          }
           writeMessage("Loaded image " + givenname + System.lineSeparator());
         } catch (IllegalArgumentException e) {
           writeMessage("Error: " + e.getMessage() + System.lineSeparator());
@@ -98,10 +144,15 @@ public class ImageController {
       case "save": //saves an ImageModel as a file
         try {
           String filename = sc.next();
+          boolean binary = false;
+          if (filename.equals("-p6") || filename.equals("-p3")) {
+            binary = filename.equals("-p6");
+            filename = sc.next();
+          }
           String givenname = sc.next();
           try {
             ImageModel img_to_save = bank.get(givenname);
-            this.saveFile(filename, img_to_save);
+            this.saveFile(filename, img_to_save, binary);
             writeMessage("Saved image " + givenname + " to " + filename +
                     System.lineSeparator());
           } catch (NullPointerException e) {
@@ -120,8 +171,8 @@ public class ImageController {
           String givenname = sc.next();
           String newname = sc.next();
           ImageModel img_to_brighten = bank.get(givenname);
-          ImageCommand cmd = new BrightenImage(img_to_brighten, brighten_value);
-          bank.put(newname, img_to_brighten.runCommand(cmd));
+          bank.put(newname, this.plan(newname, img_to_brighten,
+                  Step.brighten(brighten_value)));
           writeMessage("Brightened image " + givenname + " by " + brighten_value +
                   " and named it " + newname + System.lineSeparator());
         } catch (InputMismatchException e) {
@@ -132,6 +183,11 @@ public class ImageController {
         break;
       case "mosaic":
         try {
+          Long seed = null;
+          if (sc.hasNext("-seed")) {
+            sc.next();
+            seed = sc.nextLong();
+          }
           int value = sc.nextInt();
           String givenname = sc.next();
           String newname = sc.next();
@@ -140,9 +196,9 @@ public class ImageController {
             writeMessage("Invalid seed number, please try again!\n");
             break;
           }
-          ImageCommand cmd = new MosaicImage(img_to_brighten, value,
-                  new Random(), new Random());
-          bank.put(newname, img_to_brighten.runCommand(cmd));
+          ImageCommand cmd = seed == null ? new MosaicImage(img_to_brighten, value,
+                  new Random(), new Random()) : new MosaicImage(img_to_brighten, value, seed);
+          bank.put(newname, this.run(img_to_brighten, cmd));
           writeMessage("Mosaic'd image " + givenname + " with " + value +
                   " seeds and named it " + newname + System.lineSeparator());
         } catch (InputMismatchException e) {
@@ -151,6 +207,36 @@ public class ImageController {
           throw new RuntimeException(e);
         }
         break;
+      case "threads": //sets how many threads operations run on
+        try {
+          int threads = sc.nextInt();
+          TileScheduler.setParallelism(threads);
+          writeMessage("Operations will run on " + threads + " threads" + System.lineSeparator());
+        } catch (InputMismatchException e) {
+          writeMessage("That was not valid, try again.");
+        }
+        break;
+      case "lazy": //turns deferred running of commands on or off
+        String mode = sc.next();
+        if (!mode.equals("on") && !mode.equals("off")) {
+          writeMessage("Lazy mode is either on or off" + System.lineSeparator());
+          break;
+        }
+        lazy = mode.equals("on");
+        writeMessage((lazy ? "Commands will run when an image that needs them is saved"
+                : "Commands will run right away") + System.lineSeparator());
+        break;
+      case "optimize": //turns rewriting of command chains on or off
+        String setting = sc.next();
+        if (!setting.equals("on") && !setting.equals("off") && !setting.equals("show")) {
+          writeMessage("Optimize is either on, off or show" + System.lineSeparator());
+          break;
+        }
+        optimize = !setting.equals("off");
+        showPlans = setting.equals("show");
+        writeMessage((optimize ? "Chains of commands will be rewritten before they run"
+                : "Commands will run as they are written") + System.lineSeparator());
+        break;
       case "menu": //print the menu of supported instructions
         welcomeMessage();
         break;
@@ -159,8 +245,7 @@ public class ImageController {
           String givenname = sc.next();
           String newname = sc.next();
           ImageModel img_to_flip = bank.get(givenname);
-          ImageCommand cmd = new HorizontalFlipImage(img_to_flip);
-          bank.put(newname, img_to_flip.runCommand(cmd));
+          bank.put(newname, this.plan(newname, img_to_flip, Step.horizontalFlip()));
           writeMessage("Flipped image " + givenname + " horizontally and named it "
                   + newname + System.lineSeparator());
         } catch (InputMismatchException e) {
@@ -169,13 +254,47 @@ public class ImageController {
           throw new RuntimeException(e);
         }
         break;
+      case "rotate":
+        try {
+          int degrees = sc.nextInt();
+          String givenname = sc.next();
+          String newname = sc.next();
+          ImageModel img = bank.get(givenname);
+          if (img == null) {
+            writeMessage("There is no image named " + givenname + System.lineSeparator());
+            break;
+          }
+          bank.put(newname, this.plan(newname, img, Step.rotate(degrees)));
+          writeMessage("Rotated image " + givenname + " " + degrees + " degrees and named it "
+                  + newname + System.lineSeparator());
+        } catch (InputMismatchException e) {
+          writeMessage("That was not valid, try again.");
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        break;
+      case "transpose":
+        try {
+          String givenname = sc.next();
+          String newname = sc.next();
+          ImageModel img = bank.get(givenname);
+          if (img == null) {
+            writeMessage("There is no image named " + givenname + System.lineSeparator());
+            break;
+          }
+          bank.put(newname, this.plan(newname, img, Step.transpose()));
+          writeMessage("Transposed image " + givenname + " and named it "
+                  + newname + System.lineSeparator());
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        break;
       case "vertical-flip":
         try {
           String givenname = sc.next();
           String newname = sc.next();
           ImageModel img_to_flip = bank.get(givenname);
-          ImageCommand cmd = new VerticalFlipImage(img_to_flip);
-          bank.put(newname, cmd.command());
+          bank.put(newname, this.plan(newname, img_to_flip, Step.verticalFlip()));
           writeMessage("Flipped image " + givenname + " vertically and named it "
                   + newname + System.lineSeparator());
         } catch (InputMismatchException e) {
@@ -190,8 +309,7 @@ public class ImageController {
           String givenname = sc.next();
           String newname = sc.next();
           ImageModel img = bank.get(givenname);
-          ImageCommand cmd = new GreyImage(img, component);
-          bank.put(newname, cmd.command());
+          bank.put(newname, this.plan(newname, img, Step.component(component)));
           writeMessage("Made " + givenname + " greyscale using " + component +
                   " and named it " + newname + System.lineSeparator());
         } catch (InputMismatchException e) {
@@ -206,7 +324,7 @@ public class ImageController {
           String newname = sc.next();
           ImageModel img = bank.get(givenname);
           ImageCommand cmd = new FilterImage(img, "blur");
-          bank.put(newname, cmd.command());
+          bank.put(newname, this.run(img, cmd));
           writeMessage("Blurred " + givenname +
                   " and named it " + newname + System.lineSeparator());
         } catch (IOException e) {
@@ -219,20 +337,165 @@ public class ImageController {
           String newname = sc.next();
           ImageModel img = bank.get(givenname);
           ImageCommand cmd = new FilterImage(img, "sharpen");
-          bank.put(newname, cmd.command());
+          bank.put(newname, this.run(img, cmd));
           writeMessage("Sharpened " + givenname +
                   " and named it " + newname + System.lineSeparator());
         } catch (IOException e) {
           throw new RuntimeException(e);
         }
         break;
+      case "filter":
+        try {
+          String option = sc.next();
+          Convolution.Border border = Convolution.Border.ZERO;
+          if (option.equals("-clamp")) {
+            border = Convolution.Border.CLAMP;
+            option = sc.next();
+          }
+          Kernel kernel = this.readKernel(option, sc);
+          String givenname = sc.next();
+          String newname = sc.next();
+          ImageModel img = bank.get(givenname);
+          if (img == null) {
+            writeMessage("There is no image named " + givenname + System.lineSeparator());
+            break;
+          }
+          ImageCommand cmd = new FilterImage(img, kernel, border);
+          bank.put(newname, this.run(img, cmd));
+          writeMessage("Filtered " + givenname + " with a " + kernel.getSize() + "x"
+                  + kernel.getSize() + " kernel and named it " + newname
+                  + System.lineSeparator());
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        break;
+      case "box-blur":
+        try {
+          Convolution.Border border = Convolution.Border.ZERO;
+          if (sc.hasNext("-clamp")) {
+            sc.next();
+            border = Convolution.Border.CLAMP;
+          }
+          int radius = sc.nextInt();
+          String givenname = sc.next();
+          String newname = sc.next();
+          ImageModel img = bank.get(givenname);
+          if (img == null) {
+            writeMessage("There is no image named " + givenname + System.lineSeparator());
+            break;
+          }
+          ImageCommand cmd = new BoxBlurImage(img, radius, border);
+          bank.put(newname, this.run(img, cmd));
+          writeMessage("Box blurred " + givenname + " with radius " + radius + " and named it "
+                  + newname + System.lineSeparator());
+        } catch (InputMismatchException e) {
+          writeMessage("That was not valid, try again.");
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        break;
+      case "gaussian":
+        try {
+          Convolution.Border border = Convolution.Border.ZERO;
+          if (sc.hasNext("-clamp")) {
+            sc.next();
+            border = Convolution.Border.CLAMP;
+          }
+          double sigma = sc.nextDouble();
+          String givenname = sc.next();
+          String newname = sc.next();
+          ImageModel img = bank.get(givenname);
+          if (img == null) {
+            writeMessage("There is no image named " + givenname + System.lineSeparator());
+            break;
+          }
+          ImageCommand cmd = new GaussianBlurImage(img, sigma, border);
+          bank.put(newname, this.run(img, cmd));
+          writeMessage("Gaussian blurred " + givenname + " with sigma " + sigma
+                  + " and named it " + newname + System.lineSeparator());
+        } catch (InputMismatchException e) {
+          writeMessage("That was not valid, try again.");
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        break;
+      case "median":
+      case "percentile":
+        try {
+          Convolution.Border border = Convolution.Border.ZERO;
+          if (sc.hasNext("-clamp")) {
+            sc.next();
+            border = Convolution.Border.CLAMP;
+          }
+          double percentile = PercentileFilter.MEDIAN;
+          if (userCommand.equals("percentile")) {
+            percentile = sc.nextDouble();
+          }
+          int radius = sc.nextInt();
+          String givenname = sc.next();
+          String newname = sc.next();
+          ImageModel img = bank.get(givenname);
+          if (img == null) {
+            writeMessage("There is no image named " + givenname + System.lineSeparator());
+            break;
+          }
+          ImageCommand cmd = new PercentileImage(img, radius, percentile, border);
+          bank.put(newname, this.run(img, cmd));
+          if (userCommand.equals("median")) {
+            writeMessage("Median filtered " + givenname + " with radius " + radius
+                    + " and named it " + newname + System.lineSeparator());
+          } else {
+            writeMessage("Took the " + percentile + " percentile of " + givenname
+                    + " with radius " + radius + " and named it " + newname
+                    + System.lineSeparator());
+          }
+        } catch (InputMismatchException e) {
+          writeMessage("That was not valid, try again.");
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        break;
+      case "color-matrix":
+        try {
+          String option = sc.next();
+          double[] offsets = new double[3];
+          if (option.equals("-offset")) {
+            for (int i = 0; i < 3; i++) {
+              offsets[i] = Kernel.parseWeight(sc.next());
+            }
+            option = sc.next();
+          }
+          ColorMatrix matrix = ColorMatrix.named(option);
+          if (matrix == null) {
+            double[] weights = new double[9];
+            weights[0] = Kernel.parseWeight(option);
+            for (int i = 1; i < weights.length; i++) {
+              weights[i] = Kernel.parseWeight(sc.next());
+            }
+            matrix = new ColorMatrix(weights, offsets);
+          }
+          String givenname = sc.next();
+          String newname = sc.next();
+          ImageModel img = bank.get(givenname);
+          if (img == null) {
+            writeMessage("There is no image named " + givenname + System.lineSeparator());
+            break;
+          }
+          ImageCommand cmd = new ColorTransformImage(img, matrix);
+          bank.put(newname, this.run(img, cmd));
+          writeMessage("Transformed " + givenname + " with a color matrix and named it "
+                  + newname + System.lineSeparator());
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        break;
       case "sepia":
         try {
           String givenname = sc.next();
           String newname = sc.next();
           ImageModel img = bank.get(givenname);
           ImageCommand cmd = new ColorTransformImage(img, "sepia");
-          bank.put(newname, cmd.command());
+          bank.put(newname, this.run(img, cmd));
           writeMessage("Made " + givenname + " sepia" +
                   " and named it " + newname + System.lineSeparator());
         } catch (IOException e) {
@@ -244,8 +507,7 @@ public class ImageController {
           String givenname = sc.next();
           String newname = sc.next();
           ImageModel img = bank.get(givenname);
-          ImageCommand cmd = new ColorTransformImage(img, "greyscale");
-          bank.put(newname, cmd.command());
+          bank.put(newname, this.plan(newname, img, Step.greyscale()));
           writeMessage("Made " + givenname + " greyscale" +
                   " and named it " + newname + System.lineSeparator());
         } catch (IOException e) {
@@ -258,40 +520,146 @@ public class ImageController {
   }
 
   /**
-   * Saves the image by determining what kind of file it is and what kind of file it is being
-   * saved as.
+   * Runs a command, or in lazy mode makes a node that will run it when its image is needed.
+   *
+   * @param img the image the command reads from.
+   * @param cmd the command to run, which makes an image the same size.
+   * @return the image the command makes, or will make.
+   * @throws IOException if the command fails.
+   */
+  private ImageModel run(ImageModel img, ImageCommand cmd) throws IOException {
+    return this.run(img, cmd, false);
+  }
+
+  /**
+   * Runs a command, or in lazy mode makes a node that will run it when its image is needed.
+   *
+   * @param img     the image the command reads from.
+   * @param cmd     the command to run.
+   * @param swapped whether the command swaps the width and height of the image.
+   * @return the image the command makes, or will make.
+   * @throws IOException if the command fails.
+   */
+  private ImageModel run(ImageModel img, ImageCommand cmd, boolean swapped) throws IOException {
+    if (lazy) {
+      return new DeferredImageModel(img, cmd, swapped);
+    }
+    return img.runCommand(cmd);
+  }
+
+  /**
+   * Runs a point or geometric step, or with optimize on adds it to the plan of the image it reads
+   * from and rewrites that plan. A plan starts at the last image that is not a plan, so images
+   * made by other commands are still only worked out once, and runs when its image is needed.
+   *
+   * @param newname the name the image will be stored under, for printing the plan.
+   * @param img     the image the step reads from.
+   * @param step    the step to run.
+   * @return the image the step makes, or will make.
+   * @throws IOException if the step fails.
+   */
+  private ImageModel plan(String newname, ImageModel img, Step step) throws IOException {
+    ImageCommand cmd = step.on(img);
+    if (!optimize) {
+      return this.run(img, cmd, step.swapsSides());
+    }
+    PlanImage plan = new PlanImage(img, Collections.emptyList());
+    if (img instanceof DeferredImageModel
+            && ((DeferredImageModel) img).getCommand() instanceof PlanImage) {
+      plan = (PlanImage) ((DeferredImageModel) img).getCommand();
+    }
+    plan = plan.then(step);
+    if (showPlans) {
+      writeMessage("Plan for " + newname + ": " + plan + System.lineSeparator());
+    }
+    if (plan.getSteps().isEmpty()) {
+      return plan.getRoot();
+    }
+    return new DeferredImageModel(plan.getRoot(), plan, plan.swapsSides());
+  }
+
+  /**
+   * Reads the kernel of a filter command, which is either the name of a built in filter, the
+   * path of a kernel file, or a size followed by that many rows of weights.
+   *
+   * @param first the first word of the kernel.
+   * @param sc    the scanner the rest of the weights are read from.
+   * @return the kernel.
+   * @throws IOException if a kernel file can not be read.
+   */
+  private Kernel readKernel(String first, Scanner sc) throws IOException {
+    Kernel named = Kernel.named(first);
+    if (named != null) {
+      return named;
+    }
+    if (!first.matches("\\d+")) {
+      return Kernel.fromFile(first);
+    }
+    int size = Integer.parseInt(first);
+    if (size % 2 == 0 || size > 99) {
+      throw new IllegalArgumentException("The kernel size must be odd, not " + size);
+    }
+    double[] weights = new double[size * size];
+    for (int i = 0; i < weights.length; i++) {
+      weights[i] = Kernel.parseWeight(sc.next());
+    }
+    return new Kernel(weights);
+  }
+
+  /**
+   * Saves the image by determining what kind of file it is being saved as. Every ImageModel keeps
+   * its pixels the same way, so any image can be written as any file type without converting it.
    *
    * @param filepath The filepath that the image will be saved to.
    * @param model    The ImageModel being saved.
+   * @param binary   Whether a ppm should be written as binary P6 instead of plain P3.
    * @throws IOException if inputs are invalid.
    */
-  private void saveFile(String filepath, ImageModel model) throws IOException {
-    boolean convert = true;
-    if (filepath.endsWith("ppm") && model.checkType().equals("ppm")) {
+  private void saveFile(String filepath, ImageModel model, boolean binary) throws IOException {
+    this.readBeforeWriting(filepath);
+    if (filepath.endsWith("ppm")) {
       try {
-        FileWriter myWriter = new FileWriter(filepath);
-        myWriter.write("P3" + "\n");
-        myWriter.write(model.getWidth() + " " + model.getHeight() + "\n");
-        myWriter.write(255 + "\n");
-        for (int i = 0; i < model.getImage().size(); i++) {
-          myWriter.write(model.getImage().get(i) + " ");
+        PPMWriter writer = new PPMWriter(model.getMaxValue());
+        PixelBuffer pixels = model.getPixels();
+        if (model.getMaxValue() > 255 && !pixels.isWide()) {
+          writeMessage("Warning: edits are made at 8 bits per channel, so this image is saved "
+                  + "with a maxValue of 255 instead of " + model.getMaxValue()
+                  + System.lineSeparator());
+        }
+        if (binary) {
+          writer.writeBinary(pixels, filepath);
+        } else {
+          writer.writePlain(pixels, filepath);
         }
-        myWriter.close();
         System.out.println("Successfully wrote to the file.");
       } catch (IOException e) {
         System.out.println("An error occurred.");
         e.printStackTrace();
       }
-      convert = false;
-    }
-    if (!(filepath.endsWith("ppm")) && model.checkType().equals("file")) {
+    } else {
       String format = this.getFormat(filepath);
       ImageIO.write(model.getBuffImage(), format, new File(filepath));
       System.out.println("Successfully wrote to the file.");
-      convert = false;
-    } else if (convert) {
-      ImageModel converted = model.convertBetween();
-      this.saveFile(filepath, converted);
+    }
+  }
+
+  /**
+   * Decodes every loaded image that still reads its pixels from the given path, so that it, and
+   * every image made from it, keeps the pixels it was loaded with once the file is written over.
+   * An image whose file can not be decoded is left to report that when it is used.
+   *
+   * @param filepath the path about to be written.
+   */
+  private void readBeforeWriting(String filepath) {
+    unread.removeIf(LazyImageModel::isDecoded);
+    for (LazyImageModel loaded : unread) {
+      if (loaded.readsFrom(filepath)) {
+        try {
+          loaded.getPixels();
+        } catch (IllegalArgumentException e) {
+          // after the save it no longer matches its file, so it fails the next time it is used
+        }
+      }
     }
   }
 
@@ -329,6 +697,8 @@ public class ImageController {
     writeMessage("save image-path image-name: Save the image with the given name to" +
             " the specified path which should include the name of the file."
             + System.lineSeparator());
+    writeMessage("save -p6 image-path image-name: Save the image as a binary (P6) ppm file " +
+            "instead of a plain text (P3) one." + System.lineSeparator());
     writeMessage("blur image-name dest-image-name: Blur the image with the given name and" +
             " save it as the designated name"
             + System.lineSeparator());
@@ -358,7 +728,48 @@ public class ImageController {
     writeMessage("mosaic seed-no image-name dest-image-name: mosaics the " +
             "image by the given number of seeds to create a new image, referred to henceforth " +
             "by the given destination name. The seed number must be positive (brightening)" +
+            ". Add -seed and a number first to get the same mosaic every time." +
             System.lineSeparator());
+    writeMessage("filter kernel image-name dest-image-name: Filter the image with the given " +
+            "name using blur, sharpen, a kernel file, or an odd size n followed by n*n weights, " +
+            "and save it as the designated name. Add -clamp before the kernel to repeat the " +
+            "edge pixels instead of treating the outside of the image as black."
+            + System.lineSeparator());
+    writeMessage("threads count: Run the operations on the given number of threads, "
+            + "1 runs them one pixel at a time on the main thread." + System.lineSeparator());
+    writeMessage("color-matrix weights image-name dest-image-name: Transform the image with the "
+            + "given name using sepia, greyscale, or nine weights, one row each for red, green "
+            + "and blue, and save it as the designated name. Add -offset r g b before the "
+            + "weights to add an offset to each channel." + System.lineSeparator());
+    writeMessage("rotate degrees image-name dest-image-name: Rotate an image clockwise by 90, 180 "
+            + "or 270 degrees to create a new image, referred to henceforth by the given "
+            + "destination name." + System.lineSeparator());
+    writeMessage("transpose image-name dest-image-name: Swap the rows and columns of an image "
+            + "to create a new image, referred to henceforth by the given destination name."
+            + System.lineSeparator());
+    writeMessage("lazy on|off: With lazy on, commands only record what to do and run when an "
+            + "image that needs them is saved, so images that are never saved are never made."
+            + System.lineSeparator());
+    writeMessage("optimize on|off|show: With optimize on, chains of brightens, components, "
+            + "greyscales, flips, rotations and transposes are rewritten into the shortest plan "
+            + "that makes the same image, run when it is needed. Show also prints each plan."
+            + System.lineSeparator());
+    writeMessage("box-blur radius image-name dest-image-name: Blur the image with the given "
+            + "name by averaging the square of pixels within the radius of each pixel, and save "
+            + "it as the designated name. Add -clamp before the radius to repeat the edge pixels "
+            + "instead of treating the outside of the image as black." + System.lineSeparator());
+    writeMessage("gaussian sigma image-name dest-image-name: Blur the image with the given name "
+            + "with a Gaussian whose standard deviation is sigma pixels, and save it as the "
+            + "designated name. Add -clamp before sigma to repeat the edge pixels instead of "
+            + "treating the outside of the image as black." + System.lineSeparator());
+    writeMessage("median radius image-name dest-image-name: Set each pixel of the image with the "
+            + "given name to the median of the square of pixels within the radius of it, which "
+            + "takes out specks of noise without blurring edges, and save it as the designated "
+            + "name. Add -clamp before the radius to repeat the edge pixels instead of treating "
+            + "the outside of the image as black." + System.lineSeparator());
+    writeMessage("percentile p radius image-name dest-image-name: Like median, but take the p "
+            + "percentile of the square, from 0 for the darkest to 100 for the brightest. Add "
+            + "-clamp before p to repeat the edge pixels." + System.lineSeparator());
     writeMessage("menu (Print supported instruction list)" + System.lineSeparator());
     writeMessage("q or quit (quit the program) " + System.lineSeparator());
   }
@@ -68,4 +68,9 @@ public interface Features {
    */
   void mosaic() throws IOException;
 
+  /**
+   * Asks how many threads operations should run on and sets it.
+   */
+  void setThreads();
+
 }
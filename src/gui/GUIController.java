@@ -6,14 +6,15 @@ import java.util.Random;
 
 import javax.imageio.ImageIO;
 
-import model.FileModel;
 import model.ImageModel;
+import model.TileScheduler;
 import operations.BrightenImage;
 import operations.ColorTransformImage;
 import operations.FilterImage;
 import operations.GreyImage;
 import operations.HorizontalFlipImage;
 import operations.ImageCommand;
+import operations.LoadImage;
 import operations.MosaicImage;
 import operations.VerticalFlipImage;
 
@@ -49,7 +50,7 @@ public class GUIController implements Features {
   public void loadImage() throws IOException {
     String file_path = view.chooseFile();
     System.out.println(file_path);
-    this.image = new FileModel(file_path);
+    this.image = new LoadImage(file_path, file_path).command();
     view.displayImage(image.getBuffImage());
     view.updateHistogram(image);
     view.updateResponse("Loaded image " + file_path + "!");
@@ -166,6 +167,18 @@ public class GUIController implements Features {
     view.updateResponse("Mosaic'd using " + ret + " seeds!");
   }
 
+  @Override
+  public void setThreads() {
+    String input = view.getInput("How many threads should the operations run on? It is "
+            + TileScheduler.getParallelism() + " right now.");
+    try {
+      TileScheduler.setParallelism(Integer.parseInt(input));
+    } catch (IllegalArgumentException e) {
+      view.updateResponse("That was not a valid value, try again!");
+      return;
+    }
+    view.updateResponse("Operations will run on " + input + " threads!");
+  }
 
   private String getFormat(String filepath) {
 
@@ -37,6 +37,7 @@ public class GUIView extends JFrame implements IView {
   private JButton filterButton;
   private JButton transformButton;
   private JButton mosaicButton;
+  private JButton threadsButton;
   private JPanel histogram;
 
   /**
@@ -116,6 +117,11 @@ public class GUIView extends JFrame implements IView {
     transformButton.setActionCommand("Transform Button");
     mainPanel.add(transformButton);
 
+    //threads button
+    threadsButton = new JButton("Threads");
+    threadsButton.setActionCommand("Threads Button");
+    mainPanel.add(threadsButton);
+
     //displays the image that is currently being worked on
     display = new JLabel("Image to be displayed");
     imagePanel.add(display);
@@ -178,6 +184,7 @@ public class GUIView extends JFrame implements IView {
         throw new RuntimeException(e);
       }
     });
+    threadsButton.addActionListener(evt -> features.setThreads());
     loadButton.addActionListener(evt -> {
       try {
         features.loadImage();
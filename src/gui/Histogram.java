@@ -13,6 +13,7 @@ import java.awt.Point;
 import javax.swing.JPanel;
 
 
+import model.Histograms;
 import model.ImageModel;
 
 /**
@@ -25,29 +26,26 @@ public class Histogram extends JPanel {
   private static final int point_width = 12;
   private static final int y_line_count = 10;
   private static int max_value = 0;
-  private List<Integer> red;
+  private int[] red;
 
-  private List<Integer> green;
+  private int[] green;
 
-  private List<Integer> blue;
+  private int[] blue;
 
-  private List<Integer> intensity;
+  private int[] intensity;
 
   /**
-   * This is the constructor for the Histogram, it takes in an ImageModel and takes the necessary
-   * information about the RGB values and uses it to make a Line Chart.
+   * This is the constructor for the Histogram, it takes in an ImageModel and takes the counts of
+   * the RGB and intensity values from its Histograms and uses them to make a Line Chart.
    *
    * @param image the Image Model that is being used to make the Histogram.
    */
   public Histogram(ImageModel image) {
-    List<Integer> red_init = image.makeComponentList("red");
-    List<Integer> blue_init = image.makeComponentList("blue");
-    List<Integer> green_init = image.makeComponentList("green");
-    List<Integer> int_init = image.makeComponentList("intensity");
-    this.red = this.getCount(red_init);
-    this.blue = this.getCount(blue_init);
-    this.green = this.getCount(green_init);
-    this.intensity = this.getCount(int_init);
+    Histograms counts = image.histograms();
+    this.red = counts.getRed();
+    this.blue = counts.getBlue();
+    this.green = counts.getGreen();
+    this.intensity = counts.getIntensity();
     this.max_value = this.calculateMax(red, green, blue);
   }
 
@@ -57,38 +55,38 @@ public class Histogram extends JPanel {
     Graphics2D g2 = (Graphics2D) g;
     g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-    double xScale = ((double) getWidth() - 2 * gap) / (red.size() - 1);
+    double xScale = ((double) getWidth() - 2 * gap) / (red.length - 1);
     double yScale = ((double) getHeight() - 2 * gap) / (max_value - 1);
 
     // graph points for red
     List<Point> graphPoints = new ArrayList<Point>();
-    for (int i = 0; i < red.size(); i++) {
+    for (int i = 0; i < red.length; i++) {
       int x1 = (int) (i * xScale + gap);
-      int y1 = (int) ((max_value - red.get(i)) * yScale + gap);
+      int y1 = (int) ((max_value - red[i]) * yScale + gap);
       graphPoints.add(new Point(x1, y1));
     }
 
     // graph points for blue
     List<Point> graphPointsblue = new ArrayList<Point>();
-    for (int i = 0; i < blue.size(); i++) {
+    for (int i = 0; i < blue.length; i++) {
       int x1 = (int) (i * xScale + gap);
-      int y1 = (int) ((max_value - blue.get(i)) * yScale + gap);
+      int y1 = (int) ((max_value - blue[i]) * yScale + gap);
       graphPointsblue.add(new Point(x1, y1));
     }
 
     // graph points for green
     List<Point> graphPointsgreen = new ArrayList<Point>();
-    for (int i = 0; i < green.size(); i++) {
+    for (int i = 0; i < green.length; i++) {
       int x1 = (int) (i * xScale + gap);
-      int y1 = (int) ((max_value - green.get(i)) * yScale + gap);
+      int y1 = (int) ((max_value - green[i]) * yScale + gap);
       graphPointsgreen.add(new Point(x1, y1));
     }
 
     // graph points for intensity
     List<Point> graphPointsint = new ArrayList<Point>();
-    for (int i = 0; i < intensity.size(); i++) {
+    for (int i = 0; i < intensity.length; i++) {
       int x1 = (int) (i * xScale + gap);
-      int y1 = (int) ((max_value - intensity.get(i)) * yScale + gap);
+      int y1 = (int) ((max_value - intensity[i]) * yScale + gap);
       graphPointsint.add(new Point(x1, y1));
     }
 
@@ -106,8 +104,8 @@ public class Histogram extends JPanel {
     }
 
     // and for x axis
-    for (int i = 0; i < red.size() - 1; i++) {
-      int x0 = (i + 1) * (getWidth() - gap * 2) / (red.size() - 1) + gap;
+    for (int i = 0; i < red.length - 1; i++) {
+      int x0 = (i + 1) * (getWidth() - gap * 2) / (red.length - 1) + gap;
       int x1 = x0;
       int y0 = getHeight() - gap;
       int y1 = y0 - point_width;
@@ -158,22 +156,7 @@ public class Histogram extends JPanel {
     return new Dimension(pref_width, pref_height);
   }
 
-  private List<Integer> getCount(List<Integer> bruh) {
-    List<Integer> red_count = new ArrayList<>();
-    int count = 0;
-    for (int i = 0; i < 256; i++) {
-      for (int j = 0; j < bruh.size(); j++) {
-        if (i == bruh.get(j)) {
-          count = count + 1;
-        }
-      }
-      red_count.add(count);
-      count = 0;
-    }
-    return red_count;
-  }
-
-  private int calculateMax(List<Integer> r, List<Integer> g, List<Integer> b) {
+  private int calculateMax(int[] r, int[] g, int[] b) {
     int bruh = 0;
     for (int i : r) {
       if (i > bruh) {
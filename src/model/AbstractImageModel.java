@@ -0,0 +1,248 @@
+package model;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import operations.ImageCommand;
+
+/**
+ * This is the shared implementation of every ImageModel operation. All images are held in one
+ * PixelBuffer no matter what file type they came from, so each operation is a single pass over
+ * that buffer and the file type only matters when loading and saving. Point operations give back a
+ * FusedImageModel instead, so a chain of them is done in one pass when the pixels are needed.
+ */
+public abstract class AbstractImageModel implements ImageModel {
+
+  protected PixelBuffer pixels;
+
+  /**
+   * This is the constructor for subclasses that fill in the pixels themselves.
+   */
+  protected AbstractImageModel() {
+    this.pixels = null;
+  }
+
+  /**
+   * This is the constructor for a model around an existing PixelBuffer, which is not copied.
+   *
+   * @param pixels the pixels of the image.
+   */
+  protected AbstractImageModel(PixelBuffer pixels) {
+    this.pixels = pixels;
+  }
+
+  /**
+   * Makes a new model of the same kind as this one around the result of an operation.
+   *
+   * @param result the pixels of the new image.
+   * @return the new ImageModel.
+   */
+  protected abstract ImageModel create(PixelBuffer result);
+
+  @Override
+  public PixelBuffer getPixels() {
+    return pixels;
+  }
+
+  @Override
+  public int getMaxValue() {
+    return 255;
+  }
+
+  @Override
+  public ImageModel runCommand(ImageCommand cmd) throws IOException {
+    return cmd.command();
+  }
+
+  @Override
+  public List<Integer> getImage() {
+    return pixels.asList();
+  }
+
+  @Override
+  public int getHeight() {
+    return pixels.getHeight();
+  }
+
+  @Override
+  public int getWidth() {
+    return pixels.getWidth();
+  }
+
+  @Override
+  public BufferedImage getBuffImage() {
+    return pixels.toBufferedImage();
+  }
+
+  @Override
+  public ImageModel mosaic(int value, Random rx, Random ry) {
+    int width = this.getWidth();
+    int height = this.getHeight();
+    if (value == 0 || value == width * height) {
+      return this;
+    }
+    int[] seeds = Mosaic.sample(width, height, value, rx, ry);
+    return this.create(new Mosaic(width, height, seeds).apply(pixels));
+  }
+
+  @Override
+  public ImageModel mosaic(int value, long seed) {
+    int width = this.getWidth();
+    int height = this.getHeight();
+    if (value == 0 || value == width * height) {
+      return this;
+    }
+    int[] seeds = Mosaic.sample(width, height, value, seed);
+    return this.create(new Mosaic(width, height, seeds).apply(pixels));
+  }
+
+  @Override
+  public ImageModel brighten(int value) {
+    return new FusedImageModel(this, PointOp.brighten(value));
+  }
+
+
+  @Override
+  public ImageModel horizontalFlip() {
+    return OrientedImageModel.of(this, Orientation.IDENTITY.horizontalFlip());
+  }
+
+  @Override
+  public ImageModel verticalFlip() {
+    return OrientedImageModel.of(this, Orientation.IDENTITY.verticalFlip());
+  }
+
+  @Override
+  public ImageModel rotate(int degrees) {
+    return OrientedImageModel.of(this, Orientation.IDENTITY.rotate(degrees));
+  }
+
+  @Override
+  public ImageModel transpose() {
+    return OrientedImageModel.of(this, Orientation.IDENTITY.transpose());
+  }
+
+
+  @Override
+  public ImageModel compGrey(String comp) {
+    return new FusedImageModel(this, PointOp.component(comp));
+  }
+
+  @Override
+  public ImageModel colorTransform(String type) throws IOException {
+    if (!type.equals("sepia")) {
+      return new FusedImageModel(this, PointOp.greyscale());
+    }
+    return this.colorMatrix(ColorMatrix.SEPIA);
+  }
+
+  @Override
+  public ImageModel colorMatrix(ColorMatrix matrix) {
+    return this.create(this.pointOp(matrix::apply));
+  }
+
+  /**
+   * Something done to each pixel on its own, in place, to a run of BGR bytes.
+   */
+  private interface PixelLoop {
+    void apply(byte[] dest, int from, int to);
+  }
+
+  /**
+   * Copies the pixels into a new buffer a tile at a time and runs the given operation on each row
+   * of the tile right after it is copied, while it is still in cache.
+   *
+   * @param op the operation to run on every pixel.
+   * @return the new pixels.
+   */
+  private PixelBuffer pointOp(PixelLoop op) {
+    int width = this.getWidth();
+    PixelBuffer result = new PixelBuffer(width, this.getHeight());
+    byte[] dest = result.getData();
+    TileScheduler.forEachTile(width, this.getHeight(), (x0, y0, x1, y1) -> {
+      for (int y = y0; y < y1; y++) {
+        int from = (y * width + x0) * 3;
+        pixels.readRegion(y, x0, x1 - x0, dest, from);
+        op.apply(dest, from, from + (x1 - x0) * 3);
+      }
+    });
+    return result;
+  }
+
+
+  @Override
+  public ImageModel filterImage(String filter) throws IOException {
+    Kernel kernel = filter.equals("blur") ? Kernel.BLUR : Kernel.SHARPEN;
+    return this.convolve(kernel, Convolution.Border.ZERO);
+  }
+
+  @Override
+  public ImageModel convolve(Kernel kernel, Convolution.Border border) {
+    return this.create(new Convolution(kernel, border).apply(pixels));
+  }
+
+  @Override
+  public ImageModel percentileFilter(int radius, double percentile, Convolution.Border border) {
+    PercentileFilter filter = new PercentileFilter(radius, percentile, border);
+    if (radius == 0) {
+      return this;
+    }
+    return this.create(filter.apply(pixels));
+  }
+
+  @Override
+  public ImageModel gaussianBlur(double sigma, Convolution.Border border) {
+    return this.create(new GaussianBlur(sigma, border).apply(pixels));
+  }
+
+  @Override
+  public ImageModel boxBlur(int radius, Convolution.Border border) {
+    BoxBlur blur = new BoxBlur(radius, border);
+    if (radius == 0) {
+      return this;
+    }
+    return this.create(blur.apply(pixels));
+  }
+
+
+  @Override
+  public List<Integer> makeComponentList(String component) {
+    int width = this.getWidth();
+    List<Integer> bruh = new ArrayList<>();
+    for (int i = 0; i < width; i++) {
+      for (int j = 0; j < this.getHeight(); j++) {
+        int p = j * width + i;
+        int blue = pixels.getBlue(p);
+        int green = pixels.getGreen(p);
+        int red = pixels.getRed(p);
+        switch (component) {
+          case "red":
+            bruh.add(red);
+            break;
+          case "green":
+            bruh.add(green);
+            break;
+          case "blue":
+            bruh.add(blue);
+            break;
+          case "intensity":
+            bruh.add((blue + green + red) / 3);
+            break;
+          default:
+            bruh.add(0xFF000000 | red << 16 | green << 8 | blue);
+            break;
+        }
+      }
+    }
+    return bruh;
+  }
+
+  @Override
+  public Histograms histograms() {
+    return new Histograms(pixels);
+  }
+
+}
@@ -0,0 +1,164 @@
+package model;
+
+/**
+ * This class blurs an image by setting every pixel to the average of the square of pixels within
+ * a radius of it, truncated like a Convolution. The sums are kept running instead of being added
+ * up again for every pixel: each column keeps the sum of the rows in the square, which moves down
+ * a row by adding the row that comes in and taking away the row that goes out, and each row of
+ * the result slides across those column sums the same way. That costs the same per pixel for any
+ * radius.
+ *
+ * <p>The image is split into bands of rows on the TileScheduler. Each band works out its column
+ * sums for its first row and slides down from there, so bands are made at least as tall as the
+ * square to keep that start up small next to the rest of the work. The sums are whole numbers, so
+ * the result is the same however the bands are split.
+ */
+public final class BoxBlur {
+
+  /**
+   * The largest radius there can be, which keeps the sum of a whole square in a long.
+   */
+  public static final int MAX_RADIUS = 1 << 20;
+
+  private final int radius;
+
+  private final Convolution.Border border;
+
+  /**
+   * This is the constructor for a box blur of the given radius and edge handling.
+   *
+   * @param radius how many pixels the square reaches out on each side of the one it blurs.
+   * @param border how pixels past the edge are filled in, black or a copy of the edge.
+   * @throws IllegalArgumentException if the radius is negative or more than MAX_RADIUS.
+   */
+  public BoxBlur(int radius, Convolution.Border border) {
+    if (radius < 0 || radius > MAX_RADIUS) {
+      throw new IllegalArgumentException("The radius must be between 0 and " + MAX_RADIUS
+          + ", not " + radius);
+    }
+    this.radius = radius;
+    this.border = border;
+  }
+
+  /**
+   * Blurs the given pixels into a new buffer.
+   *
+   * @param source the pixels to blur, which are not changed.
+   * @return the blurred pixels.
+   */
+  public PixelBuffer apply(PixelBuffer source) {
+    PixelBuffer result = new PixelBuffer(source.getWidth(), source.getHeight());
+    byte[] dest = result.getData();
+    TileScheduler.forEachBand(source.getHeight(), 2 * radius + 1,
+        (y0, y1) -> this.applyBand(source, dest, y0, y1));
+    return result;
+  }
+
+  /**
+   * Blurs the rows from y0 up to but not including y1.
+   */
+  private void applyBand(PixelBuffer source, byte[] dest, int y0, int y1) {
+    int width = source.getWidth();
+    int height = source.getHeight();
+    long[] columns = new long[width * 3];
+    byte[] row = new byte[width * 3];
+
+    // the column sums of the square around the first row, where a CLAMP border counts the edge
+    // row once for every row past it
+    int top = y0 - radius;
+    int bottom = y0 + radius;
+    for (int sy = Math.max(0, top); sy <= Math.min(height - 1, bottom); sy++) {
+      addRow(source, sy, row, columns, 1);
+    }
+    if (border == Convolution.Border.CLAMP && top < 0) {
+      addRow(source, 0, row, columns, -top);
+    }
+    if (border == Convolution.Border.CLAMP && bottom > height - 1) {
+      addRow(source, height - 1, row, columns, bottom - (height - 1));
+    }
+
+    long side = 2L * radius + 1;
+    long area = side * side;
+    double inverse = 1.0 / area;
+    for (int y = y0; y < y1; y++) {
+      this.slideAcross(columns, dest, y * width * 3, width, area, inverse);
+      if (y + 1 == y1) {
+        break;
+      }
+      int in = Convolution.edge(y + 1 + radius, height, border);
+      if (in >= 0) {
+        addRow(source, in, row, columns, 1);
+      }
+      int out = Convolution.edge(y - radius, height, border);
+      if (out >= 0) {
+        addRow(source, out, row, columns, -1);
+      }
+    }
+  }
+
+  /**
+   * Adds a source row to the column sums the given number of times, which is negative to take it
+   * away.
+   */
+  private static void addRow(PixelBuffer source, int y, byte[] row, long[] columns, long times) {
+    source.readRow(y, row, 0);
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] += times * (row[i] & 0xFF);
+    }
+  }
+
+  /**
+   * Writes one row of the result by sliding the square across the column sums.
+   */
+  private void slideAcross(long[] columns, byte[] dest, int at, int width, long area,
+                           double inverse) {
+    long[] sums = new long[3];
+    int left = -radius;
+    int right = radius;
+    for (int sx = Math.max(0, left); sx <= Math.min(width - 1, right); sx++) {
+      add(columns, sx, sums, 1);
+    }
+    if (border == Convolution.Border.CLAMP && left < 0) {
+      add(columns, 0, sums, -left);
+    }
+    if (border == Convolution.Border.CLAMP && right > width - 1) {
+      add(columns, width - 1, sums, right - (width - 1));
+    }
+    for (int x = 0; x < width; x++) {
+      for (int c = 0; c < 3; c++) {
+        dest[at + x * 3 + c] = (byte) divide(sums[c], area, inverse);
+      }
+      int in = Convolution.edge(x + 1 + radius, width, border);
+      if (in >= 0) {
+        add(columns, in, sums, 1);
+      }
+      int out = Convolution.edge(x - radius, width, border);
+      if (out >= 0) {
+        add(columns, out, sums, -1);
+      }
+    }
+  }
+
+  private static void add(long[] columns, int x, long[] sums, long times) {
+    sums[0] += times * columns[x * 3];
+    sums[1] += times * columns[x * 3 + 1];
+    sums[2] += times * columns[x * 3 + 2];
+  }
+
+  /**
+   * Divides a sum that is not negative by the area, rounding down. The double guess is never off
+   * by more than one, which the check after it fixes, so this is exact without a long division
+   * for every channel.
+   */
+  private static long divide(long sum, long area, double inverse) {
+    long quotient = (long) (sum * inverse);
+    if (quotient * area > sum) {
+      return quotient - 1;
+    }
+    if ((quotient + 1) * area <= sum) {
+      return quotient + 1;
+    }
+    return quotient;
+  }
+
+}
@@ -0,0 +1,219 @@
+package model;
+
+/**
+ * This class is a color transform that makes each channel of a pixel out of a weighted sum of its
+ * red, green and blue, plus an offset. The result is cut down to an int and clamped between 0
+ * and 255.
+ *
+ * <p>Every weight is turned into a fixed point int with 20 bits after the point, so the loop over
+ * the pixels is only int multiplies and additions. Rounding the weights moves a sum by at most a known
+ * amount, so whenever a sum lands farther than that from a whole number its integer part is
+ * exactly what the double arithmetic would give. The few sums that land too close to a whole
+ * number are worked out again in double. That way the result is always exactly what
+ * colorTransform has always given for sepia and greyscale.
+ */
+public final class ColorMatrix {
+
+  /**
+   * The sepia tone matrix.
+   */
+  public static final ColorMatrix SEPIA = new ColorMatrix(new double[]{
+      0.393, 0.769, 0.189,
+      0.349, 0.686, 0.168,
+      0.272, 0.534, 0.131});
+
+  /**
+   * The greyscale matrix, which sets every channel to the luma of the pixel.
+   */
+  public static final ColorMatrix GREYSCALE = new ColorMatrix(new double[]{
+      0.2126, 0.7152, 0.0722,
+      0.2126, 0.7152, 0.0722,
+      0.2126, 0.7152, 0.0722});
+
+  /**
+   * The largest weight a matrix can have.
+   */
+  public static final double WEIGHT_LIMIT = 2;
+
+  /**
+   * The largest offset a matrix can have.
+   */
+  public static final double OFFSET_LIMIT = 255;
+
+  // with the limits above a sum is under 2048 either way, so 20 bits after the point fit an int
+  private static final int SHIFT = 20;
+
+  private static final int ONE = 1 << SHIFT;
+
+  private static final int FRACTION = ONE - 1;
+
+  private final double[] weights;
+
+  private final double[] offsets;
+
+  private final int[] fixed;
+
+  private final int[] starts;
+
+  private final int trusted;
+
+  /**
+   * This is the constructor for a matrix with no offsets.
+   *
+   * @param weights the nine weights, row by row, where row 0 makes red, 1 green and 2 blue and
+   *                each row has the weights of red, green and blue in that order.
+   * @throws IllegalArgumentException if there are not nine weights or one is too large.
+   */
+  public ColorMatrix(double[] weights) {
+    this(weights, new double[3]);
+  }
+
+  /**
+   * This is the constructor for a matrix with an offset added to each channel.
+   *
+   * @param weights the nine weights, row by row.
+   * @param offsets the three offsets, for red, green and blue.
+   * @throws IllegalArgumentException if the sizes are wrong or a value is too large.
+   */
+  public ColorMatrix(double[] weights, double[] offsets) {
+    if (weights.length != 9 || offsets.length != 3) {
+      throw new IllegalArgumentException("A color matrix needs 9 weights and 3 offsets");
+    }
+    this.weights = weights.clone();
+    this.offsets = offsets.clone();
+    this.fixed = new int[9];
+    this.starts = new int[3];
+    int slack = 0;
+    for (int row = 0; row < 3; row++) {
+      double error = 0;
+      double magnitude = Math.abs(offsets[row]);
+      for (int col = 0; col < 3; col++) {
+        double weight = weights[row * 3 + col];
+        check(weight, WEIGHT_LIMIT, "weights");
+        fixed[row * 3 + col] = (int) Math.round(weight * ONE);
+        error += Math.abs(fixed[row * 3 + col] - weight * ONE) * 255;
+        magnitude += Math.abs(weight) * 255;
+      }
+      check(offsets[row], OFFSET_LIMIT, "offsets");
+      starts[row] = (int) Math.round(offsets[row] * ONE);
+      error += Math.abs(starts[row] - offsets[row] * ONE);
+      // plus room for the rounding of the double sums themselves
+      slack = Math.max(slack, (int) Math.ceil(error + magnitude * ONE * 1e-12) + 2);
+    }
+    // starting every sum slack + 1 lower puts the fractions that can be trusted, the ones more than
+    // slack away from a whole number, at the bottom, without changing their integer part
+    for (int row = 0; row < 3; row++) {
+      starts[row] = starts[row] - slack - 1;
+    }
+    this.trusted = ONE - 2 * slack - 1;
+  }
+
+  private static void check(double value, double limit, String kind) {
+    if (!(Math.abs(value) <= limit)) {
+      throw new IllegalArgumentException("Color matrix " + kind + " must be between -"
+          + (int) limit + " and " + (int) limit + ", not " + value);
+    }
+  }
+
+  /**
+   * Gets one of the preset matrices by name.
+   *
+   * @param name sepia or greyscale.
+   * @return the matrix, or null if there is no preset with that name.
+   */
+  public static ColorMatrix named(String name) {
+    switch (name) {
+      case "sepia":
+        return SEPIA;
+      case "greyscale":
+        return GREYSCALE;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Works out one channel of the result for a pixel.
+   *
+   * @param row   0 for red, 1 for green or 2 for blue.
+   * @param red   the red value of the pixel.
+   * @param green the green value of the pixel.
+   * @param blue  the blue value of the pixel.
+   * @return the new value of the channel, between 0 and 255.
+   */
+  public int channel(int row, int red, int green, int blue) {
+    int sum = fixed[row * 3] * red + fixed[row * 3 + 1] * green + fixed[row * 3 + 2] * blue
+        + starts[row];
+    if ((sum & FRACTION) >= trusted) {
+      return this.exact(row, red, green, blue);
+    }
+    return Math.min(Math.max(sum >> SHIFT, 0), 255);
+  }
+
+  /**
+   * Works out one channel in double, for the sums too close to a whole number to trust the fixed
+   * point one.
+   */
+  private int exact(int row, int red, int green, int blue) {
+    double value = (weights[row * 3] * red) + (weights[row * 3 + 1] * green)
+        + (weights[row * 3 + 2] * blue) + offsets[row];
+    if (value > 255) {
+      return 255;
+    }
+    if (value < 0) {
+      return 0;
+    }
+    return (int) value;
+  }
+
+  /**
+   * Runs the matrix in place on a run of packed BGR bytes.
+   *
+   * @param bgr  the bytes to change.
+   * @param from the index of the first byte.
+   * @param to   the index after the last byte.
+   */
+  public void apply(byte[] bgr, int from, int to) {
+    int rr = fixed[0];
+    int rg = fixed[1];
+    int rb = fixed[2];
+    int gr = fixed[3];
+    int gg = fixed[4];
+    int gb = fixed[5];
+    int br = fixed[6];
+    int bg = fixed[7];
+    int bb = fixed[8];
+    int redStart = starts[0];
+    int greenStart = starts[1];
+    int blueStart = starts[2];
+    int untrusted = ONE - trusted;
+    for (int i = from; i < to; i = i + 3) {
+      int b = bgr[i] & 0xFF;
+      int g = bgr[i + 1] & 0xFF;
+      int r = bgr[i + 2] & 0xFF;
+      int red = rr * r + rg * g + rb * b + redStart;
+      int green = gr * r + gg * g + gb * b + greenStart;
+      int blue = br * r + bg * g + bb * b + blueStart;
+      // a fraction that can not be trusted carries into the integer part when untrusted is added
+      if ((((red & FRACTION) + untrusted) | ((green & FRACTION) + untrusted)
+          | ((blue & FRACTION) + untrusted)) >= ONE) {
+        this.applySlowly(bgr, i, r, g, b);
+        continue;
+      }
+      bgr[i] = (byte) Math.min(Math.max(blue >> SHIFT, 0), 255);
+      bgr[i + 1] = (byte) Math.min(Math.max(green >> SHIFT, 0), 255);
+      bgr[i + 2] = (byte) Math.min(Math.max(red >> SHIFT, 0), 255);
+    }
+  }
+
+  /**
+   * Works out a pixel one channel at a time. This is rare enough that it is cheaper to redo the
+   * whole pixel than to check each channel in the main loop.
+   */
+  private void applySlowly(byte[] bgr, int i, int r, int g, int b) {
+    bgr[i] = (byte) this.channel(2, r, g, b);
+    bgr[i + 1] = (byte) this.channel(1, r, g, b);
+    bgr[i + 2] = (byte) this.channel(0, r, g, b);
+  }
+
+}
@@ -0,0 +1,377 @@
+package model;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class applies a Kernel to every pixel of a PixelBuffer. The image is filtered a tile at a
+ * time on the TileScheduler. Each tile keeps the rows the kernel covers in a small ring of byte
+ * arrays and adds each weight times a whole source row into one row of running sums. That way all
+ * three channels are filtered together and nothing is allocated per pixel. The edges are dealt
+ * with once per row, when the halo around the tile is filled in, so the loop over the pixels has
+ * no bounds checks at all. When every weight is a whole number over a power of two, like blur and
+ * sharpen, the sums are kept as ints in Lanes instead of doubles, which gives the same pixels.
+ *
+ * <p>A kernel that Separation can write as a few separable terms, each a column of weights times
+ * a row of weights, is applied as a pass down the columns and a pass along the rows for each term
+ * when that takes fewer multiplies than the taps. The terms only make the kernel again to within
+ * rounding, so their sums are nudged up by SNAP before they are truncated. That gives the same
+ * pixels as tap by tap for any kernel whose weights are whole numbers over a power of two, and for
+ * any other kernel only a sum less than SNAP below a whole level can come out one level higher.
+ *
+ * <p>A kernel big enough that the Fourier transform costs less than the taps or the terms, which
+ * on an image of any size is from about 9x9 up, goes through a FourierConvolution instead, with
+ * the same tolerance.
+ */
+public final class Convolution {
+
+  /**
+   * How the pixels past the edge of the image are filled in.
+   */
+  public enum Border {
+    /**
+     * Pixels past the edge are black, so they add nothing. This is how blur and sharpen have
+     * always worked.
+     */
+    ZERO,
+    /**
+     * Pixels past the edge repeat the nearest pixel on the edge.
+     */
+    CLAMP
+  }
+
+  /**
+   * The log that says how each kernel is applied, at the FINE level.
+   */
+  private static final Logger LOG = Logger.getLogger(Convolution.class.getName());
+
+  /**
+   * The hashes of the choices logged most recently, so a kernel that is used over and over is
+   * only logged the first time. Only this many are remembered.
+   */
+  private static final int[] LOGGED = new int[64];
+
+  /**
+   * How many choices have been logged, the last LOGGED.length of them being in LOGGED.
+   */
+  private static long loggedCount;
+
+  /**
+   * How far below a whole level a separable sum can be and still count as that level. Rounding in
+   * the separable terms can leave a sum that should be exactly 100 at 99.99999999999, and this is
+   * far bigger than that but far smaller than the step between two sums a kernel with weights
+   * like 1/16 can make.
+   */
+  static final double SNAP = 1e-6;
+
+  /**
+   * About what one tap costs in fixed point next to one in doubles, as timed on blur.
+   */
+  private static final double FIXED_TAP = 0.6;
+
+  private final Kernel kernel;
+
+  private final Border border;
+
+  /**
+   * The weights in fixed point followed by the shift, or null if they cannot be written exactly.
+   */
+  private final int[] fixed;
+
+  /**
+   * The separable terms to apply instead of the kernel, or null to apply it tap by tap.
+   */
+  private final Separation separation;
+
+  /**
+   * What one channel of one pixel costs with the taps or the separable terms, whichever is used,
+   * in the units of one tap in doubles.
+   */
+  private final double tapCost;
+
+  /**
+   * This is the constructor for a convolution with the given kernel and edge handling.
+   *
+   * @param kernel the kernel to apply.
+   * @param border how pixels past the edge are filled in.
+   */
+  public Convolution(Kernel kernel, Border border) {
+    this.kernel = kernel;
+    this.border = border;
+    this.fixed = Lanes.fixedPoint(kernel.getWeights());
+
+    // the separable terms are used when they make the kernel to within the Separation tolerance
+    // and take fewer multiplies than the taps that are not zero. A tap in fixed point costs less
+    // than one in doubles, so a kernel that has a fixed point form needs to save more
+    int size = kernel.getSize();
+    int taps = 0;
+    for (double weight : kernel.getWeights()) {
+      taps = weight == 0 ? taps : taps + 1;
+    }
+    Separation terms = new Separation(kernel);
+    double direct = fixed != null ? taps * FIXED_TAP : taps;
+    double separable = terms.getRank() * (2 * size + 1);
+    boolean faster = terms.getError() <= Separation.TOLERANCE && separable < direct;
+    this.separation = faster ? terms : null;
+    this.tapCost = faster ? separable : direct;
+    logOnce(Arrays.hashCode(kernel.getWeights()), () -> "A " + size + "x" + size
+        + " kernel of rank " + terms.getRank()
+        + (faster ? " runs as " + terms.getRank() + " separable passes"
+        : " runs tap by tap" + (fixed != null ? " in fixed point" : "")));
+  }
+
+  /**
+   * Logs a message at FINE unless the same key was one of the last ones logged.
+   */
+  private static void logOnce(int key, Supplier<String> message) {
+    if (!LOG.isLoggable(Level.FINE)) {
+      return;
+    }
+    synchronized (LOGGED) {
+      for (int i = 0; i < Math.min(loggedCount, LOGGED.length); i++) {
+        if (LOGGED[i] == key) {
+          return;
+        }
+      }
+      LOGGED[(int) (loggedCount++ % LOGGED.length)] = key;
+    }
+    LOG.fine(message);
+  }
+
+  /**
+   * Returns whether this convolution applies its kernel as separable terms instead of tap by tap.
+   *
+   * @return true if the kernel is applied as separable passes.
+   */
+  public boolean isSeparable() {
+    return separation != null;
+  }
+
+  /**
+   * Returns whether this convolution goes through a FourierConvolution for an image of the given
+   * size, which is when the cost model says the transforms cost less than the taps.
+   *
+   * @param width  the width of the image.
+   * @param height the height of the image.
+   * @return true if the image would be filtered through the Fourier transform.
+   */
+  public boolean isFourier(int width, int height) {
+    return FourierConvolution.cost(kernel.getSize(), width, height)
+        < tapCost * width * height * 3;
+  }
+
+  /**
+   * Filters the given pixels into a new buffer. Each channel of the result is the weighted sum
+   * truncated to an int and clamped between 0 and 255. The work is split into tiles on the
+   * TileScheduler, or goes through a FourierConvolution if that costs less.
+   *
+   * @param source the pixels to filter, which are not changed.
+   * @return the filtered pixels.
+   */
+  public PixelBuffer apply(PixelBuffer source) {
+    if (this.isFourier(source.getWidth(), source.getHeight())) {
+      logOnce(31 * (31 * Arrays.hashCode(kernel.getWeights()) + source.getWidth())
+          + source.getHeight(), () -> "A " + kernel.getSize() + "x" + kernel.getSize() + " kernel on a "
+          + source.getWidth() + "x" + source.getHeight() + " image runs through the Fourier "
+          + "transform");
+      return new FourierConvolution(kernel, border).apply(source);
+    }
+    PixelBuffer result = new PixelBuffer(source.getWidth(), source.getHeight());
+    byte[] dest = result.getData();
+    TileScheduler.forEachTile(source.getWidth(), source.getHeight(),
+        (x0, y0, x1, y1) -> this.applyTile(source, dest, x0, y0, x1, y1));
+    return result;
+  }
+
+  /**
+   * Filters one tile. Every window row holds the columns of the tile plus a halo of half a
+   * kernel on each side, so the taps never need to be checked against the edges. Rows above or
+   * below a ZERO border are left out of the window entirely.
+   */
+  private void applyTile(PixelBuffer source, byte[] dest, int x0, int y0, int x1, int y1) {
+    int width = source.getWidth();
+    int height = source.getHeight();
+    int size = kernel.getSize();
+    int half = size / 2;
+    double[] weights = kernel.getWeights();
+    int tileLength = (x1 - x0) * 3;
+
+    // source row y is kept in slot y % size, which is enough since the rows a kernel covers are
+    // always consecutive
+    byte[][] window = new byte[size][tileLength + half * 6];
+    int[] loaded = new int[size];
+    Arrays.fill(loaded, -1);
+    byte[][] rows = new byte[size][];
+    int[] fixedWeights = Lanes.isEnabled() && separation == null ? fixed : null;
+    double[] sums = fixedWeights == null ? new double[tileLength] : null;
+    int[] fixedSums = fixedWeights == null ? null : new int[tileLength];
+    double[] column = separation == null ? null : new double[tileLength + half * 6];
+    int rank = separation == null ? 0 : separation.getRank();
+    double[][] down = new double[rank][];
+    double[][] along = new double[rank][];
+    for (int t = 0; t < rank; t++) {
+      down[t] = separation.getColumn(t);
+      along[t] = separation.getRow(t);
+    }
+
+    for (int y = y0; y < y1; y++) {
+      for (int ky = 0; ky < size; ky++) {
+        int sy = edge(y - half + ky, height, border);
+        if (sy < 0) {
+          rows[ky] = null;
+          continue;
+        }
+        int slot = sy % size;
+        if (loaded[slot] != sy) {
+          readHalo(source, sy, x0 - half, x1 - x0 + 2 * half, window[slot], border);
+          loaded[slot] = sy;
+        }
+        rows[ky] = window[slot];
+      }
+
+      int offset = (y * width + x0) * 3;
+      if (fixedWeights != null) {
+        this.accumulate(rows, fixedWeights, fixedSums);
+        int shift = fixedWeights[size * size];
+        for (int i = 0; i < tileLength; i++) {
+          // shifting a sum that is not negative down is the same as truncating it
+          dest[offset + i] = (byte) Math.max(0, Math.min(fixedSums[i] >> shift, 255));
+        }
+        continue;
+      }
+      if (separation != null) {
+        this.accumulate(rows, down, along, sums, column);
+        for (int i = 0; i < tileLength; i++) {
+          dest[offset + i] = (byte) clamp(sums[i] + SNAP);
+        }
+        continue;
+      }
+      Arrays.fill(sums, 0);
+      for (int ky = 0; ky < size; ky++) {
+        byte[] row = rows[ky];
+        if (row == null) {
+          continue;
+        }
+        for (int kx = 0; kx < size; kx++) {
+          double weight = weights[ky * size + kx];
+          if (weight == 0) {
+            continue;
+          }
+          int shift = kx * 3;
+          for (int i = 0; i < tileLength; i++) {
+            sums[i] += weight * (row[i + shift] & 0xFF);
+          }
+        }
+      }
+
+      for (int i = 0; i < tileLength; i++) {
+        dest[offset + i] = (byte) clamp(sums[i]);
+      }
+    }
+  }
+
+  /**
+   * Adds up one row of the result from the separable terms. For each term the window rows are
+   * first added down the columns, halo included, and that one row is then added along the row.
+   */
+  private void accumulate(byte[][] rows, double[][] down, double[][] along, double[] sums,
+                          double[] column) {
+    int size = kernel.getSize();
+    Arrays.fill(sums, 0);
+    for (int t = 0; t < down.length; t++) {
+      Arrays.fill(column, 0);
+      for (int ky = 0; ky < size; ky++) {
+        byte[] row = rows[ky];
+        double weight = down[t][ky];
+        if (row == null || weight == 0) {
+          continue;
+        }
+        for (int i = 0; i < column.length; i++) {
+          column[i] += weight * (row[i] & 0xFF);
+        }
+      }
+      for (int kx = 0; kx < size; kx++) {
+        double weight = along[t][kx];
+        int shift = kx * 3;
+        for (int i = 0; i < sums.length; i++) {
+          sums[i] += weight * column[i + shift];
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds up one row of the result in fixed point, one weight times one window row at a time.
+   */
+  private void accumulate(byte[][] rows, int[] weights, int[] sums) {
+    int size = kernel.getSize();
+    Arrays.fill(sums, 0);
+    for (int ky = 0; ky < size; ky++) {
+      if (rows[ky] == null) {
+        continue;
+      }
+      for (int kx = 0; kx < size; kx++) {
+        int weight = weights[ky * size + kx];
+        if (weight != 0) {
+          Lanes.multiplyAccumulate(sums, rows[ky], kx * 3, weight, sums.length);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads count pixels of a source row starting at column from, which may be past either edge.
+   * Columns past the edge are black for a ZERO border, and a black tap adds exactly nothing to a
+   * sum, so the result is the same as skipping it. For a CLAMP border they repeat the edge pixel.
+   */
+  static void readHalo(PixelBuffer source, int y, int from, int count, byte[] row,
+                       Border border) {
+    int width = source.getWidth();
+    int start = Math.max(from, 0);
+    int end = Math.min(from + count, width);
+    source.readRegion(y, start, end - start, row, (start - from) * 3);
+    for (int x = from; x < start; x++) {
+      fillEdge(row, (x - from) * 3, (start - from) * 3, border);
+    }
+    for (int x = end; x < from + count; x++) {
+      fillEdge(row, (x - from) * 3, (end - 1 - from) * 3, border);
+    }
+  }
+
+  private static void fillEdge(byte[] row, int to, int edge, Border border) {
+    if (border == Border.ZERO) {
+      row[to] = 0;
+      row[to + 1] = 0;
+      row[to + 2] = 0;
+    } else {
+      System.arraycopy(row, edge, row, to, 3);
+    }
+  }
+
+  /**
+   * Works out which row or column to read for a coordinate that may be past the edge, or -1 if
+   * it adds nothing.
+   */
+  static int edge(int coordinate, int length, Border border) {
+    if (coordinate >= 0 && coordinate < length) {
+      return coordinate;
+    }
+    if (border == Border.ZERO) {
+      return -1;
+    }
+    return coordinate < 0 ? 0 : length - 1;
+  }
+
+  static int clamp(double value) {
+    if (value > 255) {
+      return 255;
+    }
+    if (value < 0) {
+      return 0;
+    }
+    return (int) value;
+  }
+
+}
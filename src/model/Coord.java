@@ -7,8 +7,7 @@ import java.util.List;
  * Represents a 2D Cartesian Plane of pixels.
  */
 public class Coord {
-  ArrayList<ArrayList<ArrayList<Integer>>> pixels;
-  List<Integer> org;
+  PixelBuffer pixels;
   int height;
   int width;
 
@@ -21,45 +20,36 @@ public class Coord {
    * @param width  represents the width of the image.
    */
   public Coord(List<Integer> org, int height, int width) {
-    this.org = org;
-    this.height = height;
-    this.width = width;
-    this.pixels = this.convert(org);
+    this(PixelBuffer.fromList(org, width, height));
   }
 
   /**
-   * Converts a list of rgb values to a 2D array of pixels.
+   * Constructor for a plane that reads straight from a PixelBuffer without copying it.
    *
-   * @param org rerpesents the original list of rgb values.
-   * @return the new 2D array list.
+   * @param pixels represents the pixels of the image.
    */
-  private ArrayList<ArrayList<ArrayList<Integer>>> convert(List<Integer> org) {
-    ArrayList<ArrayList<ArrayList<Integer>>> img = new ArrayList<>();
-    ArrayList<ArrayList<Integer>> width = new ArrayList<>();
-    for (int i = 0; i < org.size() / 3; i++) {
-      ArrayList<Integer> temp = new ArrayList<>();
-      for (int j = 0; j < 3; j++) {
-        temp.add(org.get(j + i * 3));
-      }
-
-      width.add(temp);
-
-      if (width.size() == this.width) {
-        img.add(width);
-        width = new ArrayList<>();
-      }
-
-    }
-    return img;
+  public Coord(PixelBuffer pixels) {
+    this.pixels = pixels;
+    this.height = pixels.getHeight();
+    this.width = pixels.getWidth();
   }
 
   /**
-   * Gets the 2D array list of pixels.
+   * Gets the 2D array list of pixels. This builds the lists on every call, so it is only meant for
+   * callers that need the old boxed layout.
    *
    * @return pixels.
    */
   public ArrayList<ArrayList<ArrayList<Integer>>> getImage() {
-    return pixels;
+    ArrayList<ArrayList<ArrayList<Integer>>> img = new ArrayList<>();
+    for (int i = 0; i < this.height; i++) {
+      ArrayList<ArrayList<Integer>> row = new ArrayList<>();
+      for (int j = 0; j < this.width; j++) {
+        row.add(this.getPixel(i, j));
+      }
+      img.add(row);
+    }
+    return img;
   }
 
   /**
@@ -70,7 +60,32 @@ public class Coord {
    * @return the pixel at the given position.
    */
   public ArrayList<Integer> getPixel(int i, int j) {
-    return this.pixels.get(i).get(j);
+    int p = this.index(i, j);
+    ArrayList<Integer> pixel = new ArrayList<>();
+    pixel.add(pixels.getRed(p));
+    pixel.add(pixels.getGreen(p));
+    pixel.add(pixels.getBlue(p));
+    return pixel;
+  }
+
+  /**
+   * Gets the index of the pixel at a specific coordinate in the underlying PixelBuffer.
+   *
+   * @param i represents the y-position.
+   * @param j represents the x-position.
+   * @return the index of the pixel.
+   */
+  public int index(int i, int j) {
+    return i * this.width + j;
+  }
+
+  /**
+   * Gets the PixelBuffer this plane reads from.
+   *
+   * @return pixels.
+   */
+  public PixelBuffer getBuffer() {
+    return this.pixels;
   }
 
 }
@@ -0,0 +1,115 @@
+package model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import operations.ImageCommand;
+
+/**
+ * This is an ImageModel for a command that has not been run yet. It is one node of a graph of
+ * operations: the command holds the image it reads from, which may be another DeferredImageModel,
+ * so running it runs just the part of the graph it depends on. The command runs the first time
+ * anything needs this image, and every image that reads from this one shares that result. An
+ * image nobody ever needs, like an intermediate step that is never saved, is never worked out.
+ * The width and height are worked out from the input when the node is made, so asking for them
+ * never runs the command.
+ */
+public class DeferredImageModel extends DelegatingImageModel {
+
+  private final ImageModel input;
+
+  private final ImageCommand command;
+
+  private final int width;
+
+  private final int height;
+
+  private ImageModel result;
+
+  /**
+   * This is the constructor for the given command, which reads from the given image and makes
+   * one of the same size.
+   *
+   * @param input   the image the command reads from, used for the values no command changes.
+   * @param command the command to run when this image is needed.
+   */
+  public DeferredImageModel(ImageModel input, ImageCommand command) {
+    this(input, command, false);
+  }
+
+  /**
+   * This is the constructor for the given command, which reads from the given image and makes
+   * one of the same size or, like a rotation by 90 degrees, with the width and height swapped.
+   *
+   * @param input   the image the command reads from, used for the values no command changes.
+   * @param command the command to run when this image is needed.
+   * @param swapped whether the command swaps the width and height of the input.
+   */
+  public DeferredImageModel(ImageModel input, ImageCommand command, boolean swapped) {
+    this.input = input;
+    this.command = command;
+    this.width = swapped ? input.getHeight() : input.getWidth();
+    this.height = swapped ? input.getWidth() : input.getHeight();
+  }
+
+  /**
+   * Returns the command this image runs, so a new command can be built on top of it.
+   *
+   * @return the command.
+   */
+  public ImageCommand getCommand() {
+    return command;
+  }
+
+  /**
+   * Tells whether the command has been run yet.
+   *
+   * @return true once the command has been run.
+   */
+  public boolean isEvaluated() {
+    return result != null;
+  }
+
+  /**
+   * Runs the command the first time it is called and returns the same image after that.
+   *
+   * @return the image the command made.
+   * @throws UncheckedIOException if the command fails to read a file.
+   */
+  private synchronized ImageModel evaluate() {
+    if (result == null) {
+      try {
+        result = command.command();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  protected ImageModel delegate() {
+    return this.evaluate();
+  }
+
+  @Override
+  public int getMaxValue() {
+    return input.getMaxValue();
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public String checkType() {
+    return input.checkType();
+  }
+
+}
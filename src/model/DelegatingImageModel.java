@@ -0,0 +1,138 @@
+package model;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import operations.ImageCommand;
+
+/**
+ * This is the shared base of the ImageModels that stand for an image whose pixels are not worked
+ * out yet, a file not decoded, point operations not run, an orientation not laid out or a command
+ * not run. Every operation goes to the image that delegate() works out, so each of them only
+ * overrides what it can answer without the pixels, and a new operation is passed on here once.
+ * The width, height, maxValue and type are always left to the subclass, since asking for them
+ * should never work out the image.
+ */
+public abstract class DelegatingImageModel implements ImageModel {
+
+  /**
+   * Works out the image the first time it is called and returns the same image after that.
+   *
+   * @return the image every operation goes to.
+   */
+  protected abstract ImageModel delegate();
+
+  @Override
+  public ImageModel runCommand(ImageCommand cmd) throws IOException {
+    return cmd.command();
+  }
+
+  @Override
+  public List<Integer> getImage() {
+    return this.delegate().getImage();
+  }
+
+  @Override
+  public PixelBuffer getPixels() {
+    return this.delegate().getPixels();
+  }
+
+  @Override
+  public BufferedImage getBuffImage() {
+    return this.delegate().getBuffImage();
+  }
+
+  @Override
+  public ImageModel mosaic(int value, Random rx, Random ry) throws IOException {
+    return this.delegate().mosaic(value, rx, ry);
+  }
+
+  @Override
+  public ImageModel mosaic(int value, long seed) throws IOException {
+    return this.delegate().mosaic(value, seed);
+  }
+
+  @Override
+  public ImageModel brighten(int value) throws IOException {
+    return this.delegate().brighten(value);
+  }
+
+  @Override
+  public ImageModel horizontalFlip() throws IOException {
+    return this.delegate().horizontalFlip();
+  }
+
+  @Override
+  public ImageModel verticalFlip() throws IOException {
+    return this.delegate().verticalFlip();
+  }
+
+  @Override
+  public ImageModel rotate(int degrees) throws IOException {
+    return this.delegate().rotate(degrees);
+  }
+
+  @Override
+  public ImageModel transpose() throws IOException {
+    return this.delegate().transpose();
+  }
+
+  @Override
+  public ImageModel compGrey(String component) throws IOException {
+    return this.delegate().compGrey(component);
+  }
+
+  @Override
+  public ImageModel colorTransform(String type) throws IOException {
+    return this.delegate().colorTransform(type);
+  }
+
+  @Override
+  public ImageModel colorMatrix(ColorMatrix matrix) throws IOException {
+    return this.delegate().colorMatrix(matrix);
+  }
+
+  @Override
+  public ImageModel filterImage(String filter) throws IOException {
+    return this.delegate().filterImage(filter);
+  }
+
+  @Override
+  public ImageModel convolve(Kernel kernel, Convolution.Border border) throws IOException {
+    return this.delegate().convolve(kernel, border);
+  }
+
+  @Override
+  public ImageModel percentileFilter(int radius, double percentile, Convolution.Border border)
+      throws IOException {
+    return this.delegate().percentileFilter(radius, percentile, border);
+  }
+
+  @Override
+  public ImageModel gaussianBlur(double sigma, Convolution.Border border) throws IOException {
+    return this.delegate().gaussianBlur(sigma, border);
+  }
+
+  @Override
+  public ImageModel boxBlur(int radius, Convolution.Border border) throws IOException {
+    return this.delegate().boxBlur(radius, border);
+  }
+
+  @Override
+  public List<Integer> makeComponentList(String component) {
+    return this.delegate().makeComponentList(component);
+  }
+
+  @Override
+  public Histograms histograms() {
+    return this.delegate().histograms();
+  }
+
+  @Override
+  public ImageModel convertBetween() throws IOException {
+    return this.delegate().convertBetween();
+  }
+
+}
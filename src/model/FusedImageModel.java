@@ -0,0 +1,106 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * This is an ImageModel for the result of one or more point operations, brighten, a grey
+ * component or the greyscale transform, that have not been run yet. Running another point
+ * operation on it only composes the lookup tables, so a whole chain of them costs one pass over
+ * the pixels instead of one per command. The pass happens the first time anything needs the
+ * pixels, and every call after that goes to the image it made.
+ */
+public class FusedImageModel extends DelegatingImageModel {
+
+  private final AbstractImageModel source;
+
+  private final PointOp op;
+
+  private ImageModel result;
+
+  /**
+   * This is the constructor for the given operation on an image that has its pixels.
+   *
+   * @param source the image the operation runs on.
+   * @param op     the operation, which may already be several composed together.
+   */
+  public FusedImageModel(AbstractImageModel source, PointOp op) {
+    this.source = source;
+    this.op = op;
+  }
+
+  /**
+   * Makes the image for this operation followed by another one, without running either.
+   *
+   * @param next the operation to run after this one.
+   * @return the new ImageModel.
+   */
+  public ImageModel then(PointOp next) {
+    return new FusedImageModel(source, op.then(next));
+  }
+
+  /**
+   * Tells whether the pixels have been worked out yet.
+   *
+   * @return true once the operation has been run.
+   */
+  public boolean isApplied() {
+    return result != null;
+  }
+
+  /**
+   * Runs the composed operation over the source the first time it is called and returns the
+   * same image after that.
+   *
+   * @return the image the operation makes.
+   */
+  private synchronized ImageModel apply() {
+    if (result == null) {
+      result = source.create(op.apply(source.getPixels()));
+    }
+    return result;
+  }
+
+  @Override
+  protected ImageModel delegate() {
+    return this.apply();
+  }
+
+  @Override
+  public int getMaxValue() {
+    return source.getMaxValue();
+  }
+
+  @Override
+  public int getHeight() {
+    return source.getHeight();
+  }
+
+  @Override
+  public int getWidth() {
+    return source.getWidth();
+  }
+
+  @Override
+  public String checkType() {
+    return source.checkType();
+  }
+
+  @Override
+  public ImageModel brighten(int value) {
+    return this.then(PointOp.brighten(value));
+  }
+
+  @Override
+  public ImageModel compGrey(String component) {
+    return this.then(PointOp.component(component));
+  }
+
+  @Override
+  public ImageModel colorTransform(String type) throws IOException {
+    if (type.equals("greyscale")) {
+      return this.then(PointOp.greyscale());
+    }
+    return this.apply().colorTransform(type);
+  }
+
+}
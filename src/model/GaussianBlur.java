@@ -0,0 +1,359 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * This class blurs an image with a Gaussian of any standard deviation, sigma. A Gaussian is
+ * separable, so the image is blurred along its rows into a float copy and then down its columns
+ * into the result, and each pixel only needs one line of taps instead of a whole square.
+ *
+ * <p>A small sigma uses the sampled Gaussian out to three sigmas on each side, normalized to add
+ * up to one. For a larger sigma that many taps would cost more than it has to, so each line runs
+ * through the recursive filter of Young and van Vliet instead, once forwards and once backwards,
+ * which costs the same few multiplies per pixel for any sigma and is within a few levels of the
+ * sampled Gaussian. The backward pass starts from where the forward pass would have gone past the
+ * end of the line, worked out the way Triggs and Sdika do, so the edges are blurred the same as
+ * the middle.
+ *
+ * <p>The rows pass is split into bands of rows and the columns pass into bands of columns on the
+ * TileScheduler. Each band only writes its own rows or columns, so the result is the same on any
+ * number of threads. Channels are rounded to the nearest level and clamped between 0 and 255.
+ */
+public final class GaussianBlur {
+
+  /**
+   * The largest sigma there can be.
+   */
+  public static final double MAX_SIGMA = 1000;
+
+  /**
+   * The sigma above which the recursive filter is used, about where it starts costing less than
+   * the taps of the sampled Gaussian.
+   */
+  public static final double RECURSIVE_SIGMA = 2;
+
+  /**
+   * The fewest columns in a band of the columns pass, so every row of a band is a run of bytes
+   * long enough to stream through.
+   */
+  private static final int COLUMN_BAND = 32;
+
+  private final Convolution.Border border;
+
+  /**
+   * The taps of the sampled Gaussian, or null if the recursive filter is used.
+   */
+  private final double[] taps;
+
+  /**
+   * The recursive filter's gain on the input and its three feedback coefficients.
+   */
+  private final double gain;
+
+  private final double[] feedback;
+
+  /**
+   * How the last three values of a forward pass, less the edge, give the three values past the end
+   * that the backward pass starts from.
+   */
+  private final double[][] tail;
+
+  /**
+   * This is the constructor for a Gaussian blur of the given sigma and edge handling.
+   *
+   * @param sigma  the standard deviation of the Gaussian, in pixels.
+   * @param border how pixels past the edge are filled in, black or a copy of the edge.
+   * @throws IllegalArgumentException if sigma is not more than 0 and at most MAX_SIGMA.
+   */
+  public GaussianBlur(double sigma, Convolution.Border border) {
+    if (!(sigma > 0 && sigma <= MAX_SIGMA)) {
+      throw new IllegalArgumentException("The sigma must be more than 0 and at most "
+          + (int) MAX_SIGMA + ", not " + sigma);
+    }
+    this.border = border;
+    if (sigma <= RECURSIVE_SIGMA) {
+      this.taps = sampled(sigma);
+      this.gain = 0;
+      this.feedback = null;
+      this.tail = null;
+      return;
+    }
+    this.taps = null;
+    // the coefficients from Young and van Vliet, 1995
+    double q = sigma >= 2.5 ? 0.98711 * sigma - 0.96330
+        : 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+    double b0 = 1.57825 + 2.44413 * q + 1.4281 * q * q + 0.422205 * q * q * q;
+    double b1 = 2.44413 * q + 2.85619 * q * q + 1.26661 * q * q * q;
+    double b2 = -(1.4281 * q * q + 1.26661 * q * q * q);
+    double b3 = 0.422205 * q * q * q;
+    this.feedback = new double[]{b1 / b0, b2 / b0, b3 / b0};
+    this.gain = 1 - (b1 + b2 + b3) / b0;
+    this.tail = this.tail(sigma);
+  }
+
+  /**
+   * Works out the tail by running the filter past the end of a line that stays black, once for
+   * each of the last three forward values. Both passes are linear and the filter keeps a flat
+   * line flat, so for any edge the backward pass starts at the edge plus this tail times how far
+   * the last forward values are from it. The forward pass dies away well within a few thousand
+   * sigmas, so that is as far as it is run.
+   */
+  private double[][] tail(double sigma) {
+    int length = (int) Math.ceil(20 * sigma) + 100;
+    double[][] tail = new double[3][3];
+    for (int j = 0; j < 3; j++) {
+      double[] forward = new double[length];
+      double[] p = new double[3];
+      p[j] = 1;
+      for (int k = 0; k < length; k++) {
+        forward[k] = feedback[0] * p[0] + feedback[1] * p[1] + feedback[2] * p[2];
+        p[2] = p[1];
+        p[1] = p[0];
+        p[0] = forward[k];
+      }
+      double[] backward = new double[length + 3];
+      for (int k = length - 1; k >= 0; k--) {
+        backward[k] = gain * forward[k] + feedback[0] * backward[k + 1]
+            + feedback[1] * backward[k + 2] + feedback[2] * backward[k + 3];
+      }
+      for (int k = 0; k < 3; k++) {
+        tail[k][j] = backward[k];
+      }
+    }
+    return tail;
+  }
+
+  /**
+   * Works out one of the three values past the end of a line that the backward pass starts from.
+   *
+   * @param k  0 for the value just past the end, up to 2 for the third one.
+   * @param w1 the last value of the forward pass.
+   * @param w2 the one before it.
+   * @param w3 the one before that.
+   * @param edge what the input is past the end, the last input for CLAMP and 0 for ZERO.
+   */
+  private double pastEnd(int k, double w1, double w2, double w3, double edge) {
+    return tail[k][0] * (w1 - edge) + tail[k][1] * (w2 - edge) + tail[k][2] * (w3 - edge) + edge;
+  }
+
+  /**
+   * Samples the Gaussian at every whole pixel within three sigmas and scales it to add up to one.
+   */
+  private static double[] sampled(double sigma) {
+    int radius = (int) Math.ceil(3 * sigma);
+    double[] taps = new double[2 * radius + 1];
+    double total = 0;
+    for (int i = 0; i < taps.length; i++) {
+      int x = i - radius;
+      taps[i] = Math.exp(-x * x / (2 * sigma * sigma));
+      total = total + taps[i];
+    }
+    for (int i = 0; i < taps.length; i++) {
+      taps[i] = taps[i] / total;
+    }
+    return taps;
+  }
+
+  /**
+   * Blurs the given pixels into a new buffer.
+   *
+   * @param source the pixels to blur, which are not changed.
+   * @return the blurred pixels.
+   */
+  public PixelBuffer apply(PixelBuffer source) {
+    int width = source.getWidth();
+    int height = source.getHeight();
+    float[] middle = new float[width * height * 3];
+    TileScheduler.forEachBand(height, 1, (y0, y1) -> {
+      for (int y = y0; y < y1; y++) {
+        this.blurRow(source, middle, y);
+      }
+    });
+    PixelBuffer result = new PixelBuffer(width, height);
+    byte[] dest = result.getData();
+    TileScheduler.forEachBand(width, COLUMN_BAND,
+        (x0, x1) -> this.blurColumns(middle, dest, width, height, x0, x1));
+    return result;
+  }
+
+  /**
+   * Blurs one row of the source along the row into the float copy.
+   */
+  private void blurRow(PixelBuffer source, float[] middle, int y) {
+    int width = source.getWidth();
+    int length = width * 3;
+    int at = y * length;
+    byte[] row = new byte[length];
+    source.readRow(y, row, 0);
+    if (taps != null) {
+      // the row with a halo half the taps wide on each side, so no tap needs a bounds check
+      int radius = taps.length / 2;
+      double[] padded = new double[length + radius * 6];
+      for (int i = 0; i < length; i++) {
+        padded[radius * 3 + i] = row[i] & 0xFF;
+      }
+      for (int k = 0; k < radius; k++) {
+        this.fillHalo(row, width, padded, -1 - k, (radius - 1 - k) * 3);
+        this.fillHalo(row, width, padded, width + k, (radius + width + k) * 3);
+      }
+      double[] sums = new double[length];
+      for (int j = 0; j < taps.length; j++) {
+        double tap = taps[j];
+        int shift = j * 3;
+        for (int i = 0; i < length; i++) {
+          sums[i] += tap * padded[i + shift];
+        }
+      }
+      for (int i = 0; i < length; i++) {
+        middle[at + i] = (float) sums[i];
+      }
+      return;
+    }
+    double[] forward = new double[length];
+    for (int c = 0; c < 3; c++) {
+      double start = border == Convolution.Border.CLAMP ? row[c] & 0xFF : 0;
+      double p1 = start;
+      double p2 = start;
+      double p3 = start;
+      for (int i = c; i < length; i = i + 3) {
+        double v = gain * (row[i] & 0xFF) + feedback[0] * p1 + feedback[1] * p2
+            + feedback[2] * p3;
+        forward[i] = v;
+        p3 = p2;
+        p2 = p1;
+        p1 = v;
+      }
+      double edge = border == Convolution.Border.CLAMP ? row[length - 3 + c] & 0xFF : 0;
+      double w1 = p1;
+      double w2 = p2;
+      double w3 = p3;
+      p1 = this.pastEnd(0, w1, w2, w3, edge);
+      p2 = this.pastEnd(1, w1, w2, w3, edge);
+      p3 = this.pastEnd(2, w1, w2, w3, edge);
+      for (int i = length - 3 + c; i >= 0; i = i - 3) {
+        double v = gain * forward[i] + feedback[0] * p1 + feedback[1] * p2 + feedback[2] * p3;
+        middle[at + i] = (float) v;
+        p3 = p2;
+        p2 = p1;
+        p1 = v;
+      }
+    }
+  }
+
+  /**
+   * Fills in one pixel of the halo past the edge of a row, which stays black for a ZERO border.
+   */
+  private void fillHalo(byte[] row, int width, double[] padded, int x, int at) {
+    int edge = Convolution.edge(x, width, border);
+    if (edge >= 0) {
+      for (int c = 0; c < 3; c++) {
+        padded[at + c] = row[edge * 3 + c] & 0xFF;
+      }
+    }
+  }
+
+  /**
+   * Blurs the columns from x0 up to but not including x1 of the float copy down the columns into
+   * the result. Every row of the band is handled as one run, so the work streams through the rows
+   * in order. The recursive filter keeps its forward pass in the float copy, which only this band
+   * reads.
+   */
+  private void blurColumns(float[] middle, byte[] dest, int width, int height, int x0, int x1) {
+    int stride = width * 3;
+    int from = x0 * 3;
+    int length = (x1 - x0) * 3;
+    if (taps != null) {
+      int radius = taps.length / 2;
+      double[] sums = new double[length];
+      for (int y = 0; y < height; y++) {
+        Arrays.fill(sums, 0);
+        for (int j = 0; j < taps.length; j++) {
+          int sy = Convolution.edge(y + j - radius, height, border);
+          if (sy < 0) {
+            continue;
+          }
+          double tap = taps[j];
+          int at = sy * stride + from;
+          for (int i = 0; i < length; i++) {
+            sums[i] += tap * middle[at + i];
+          }
+        }
+        int at = y * stride + from;
+        for (int i = 0; i < length; i++) {
+          dest[at + i] = (byte) level(sums[i]);
+        }
+      }
+      return;
+    }
+    double[] p1 = new double[length];
+    double[] p2 = new double[length];
+    double[] p3 = new double[length];
+    this.startWith(middle, from, p1, p2, p3);
+    double[] edge = new double[length];
+    for (int i = 0; i < length && border == Convolution.Border.CLAMP; i++) {
+      edge[i] = middle[(height - 1) * stride + from + i];
+    }
+    for (int y = 0; y < height; y++) {
+      int at = y * stride + from;
+      for (int i = 0; i < length; i++) {
+        double v = gain * middle[at + i] + feedback[0] * p1[i] + feedback[1] * p2[i]
+            + feedback[2] * p3[i];
+        middle[at + i] = (float) v;
+        p3[i] = v;
+      }
+      double[] oldest = p3;
+      p3 = p2;
+      p2 = p1;
+      p1 = oldest;
+    }
+    for (int i = 0; i < length; i++) {
+      double w1 = p1[i];
+      double w2 = p2[i];
+      double w3 = p3[i];
+      p1[i] = this.pastEnd(0, w1, w2, w3, edge[i]);
+      p2[i] = this.pastEnd(1, w1, w2, w3, edge[i]);
+      p3[i] = this.pastEnd(2, w1, w2, w3, edge[i]);
+    }
+    for (int y = height - 1; y >= 0; y--) {
+      int at = y * stride + from;
+      for (int i = 0; i < length; i++) {
+        double v = gain * middle[at + i] + feedback[0] * p1[i] + feedback[1] * p2[i]
+            + feedback[2] * p3[i];
+        dest[at + i] = (byte) level(v);
+        p3[i] = v;
+      }
+      double[] oldest = p3;
+      p3 = p2;
+      p2 = p1;
+      p1 = oldest;
+    }
+  }
+
+  /**
+   * Sets what the forward pass remembers before the first row it runs on, which is that row
+   * repeated for a CLAMP border and black for a ZERO border. The filter keeps a flat line flat, so
+   * that is exactly where it would be after running over everything before the edge.
+   */
+  private void startWith(float[] middle, int at, double[] p1, double[] p2, double[] p3) {
+    for (int i = 0; i < p1.length; i++) {
+      double start = border == Convolution.Border.CLAMP ? middle[at + i] : 0;
+      p1[i] = start;
+      p2[i] = start;
+      p3[i] = start;
+    }
+  }
+
+  /**
+   * Rounds a blurred channel to the nearest level between 0 and 255.
+   */
+  private static int level(double value) {
+    if (value <= 0) {
+      return 0;
+    }
+    if (value >= 255) {
+      return 255;
+    }
+    return (int) (value + 0.5);
+  }
+
+}
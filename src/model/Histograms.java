@@ -0,0 +1,101 @@
+package model;
+
+/**
+ * This class counts how many pixels of an image have each of the 256 levels of red, green, blue
+ * and intensity, the average of the three the way the intensity component works it out. All four
+ * are counted in one pass over the packed pixels, split into bands of rows on the TileScheduler.
+ * Each band counts into its own arrays, which are added into the totals when it is done, so the
+ * bands never wait on each other while counting.
+ */
+public final class Histograms {
+
+  /**
+   * The fewest rows in a band, so each band has enough pixels to be worth adding up on its own.
+   */
+  private static final int MIN_ROWS = 16;
+
+  private final int[] red = new int[256];
+
+  private final int[] green = new int[256];
+
+  private final int[] blue = new int[256];
+
+  private final int[] intensity = new int[256];
+
+  /**
+   * Counts the levels of the given pixels.
+   *
+   * @param pixels the pixels to count, which are not changed.
+   */
+  public Histograms(PixelBuffer pixels) {
+    int width = pixels.getWidth();
+    TileScheduler.forEachBand(pixels.getHeight(), MIN_ROWS, (y0, y1) -> {
+      int[] redCounts = new int[256];
+      int[] greenCounts = new int[256];
+      int[] blueCounts = new int[256];
+      int[] intensityCounts = new int[256];
+      byte[] row = new byte[width * 3];
+      for (int y = y0; y < y1; y++) {
+        pixels.readRow(y, row, 0);
+        for (int i = 0; i < row.length; i = i + 3) {
+          int b = row[i] & 0xFF;
+          int g = row[i + 1] & 0xFF;
+          int r = row[i + 2] & 0xFF;
+          blueCounts[b]++;
+          greenCounts[g]++;
+          redCounts[r]++;
+          intensityCounts[(r + g + b) / 3]++;
+        }
+      }
+      this.add(redCounts, greenCounts, blueCounts, intensityCounts);
+    });
+  }
+
+  private synchronized void add(int[] redCounts, int[] greenCounts, int[] blueCounts,
+                                int[] intensityCounts) {
+    for (int v = 0; v < 256; v++) {
+      red[v] += redCounts[v];
+      green[v] += greenCounts[v];
+      blue[v] += blueCounts[v];
+      intensity[v] += intensityCounts[v];
+    }
+  }
+
+  /**
+   * Returns how many pixels have each level of red.
+   *
+   * @return a copy of the 256 counts.
+   */
+  public synchronized int[] getRed() {
+    return red.clone();
+  }
+
+  /**
+   * Returns how many pixels have each level of green.
+   *
+   * @return a copy of the 256 counts.
+   */
+  public synchronized int[] getGreen() {
+    return green.clone();
+  }
+
+  /**
+   * Returns how many pixels have each level of blue.
+   *
+   * @return a copy of the 256 counts.
+   */
+  public synchronized int[] getBlue() {
+    return blue.clone();
+  }
+
+  /**
+   * Returns how many pixels have each level of intensity, the average of red, green and blue
+   * rounded down.
+   *
+   * @return a copy of the 256 counts.
+   */
+  public synchronized int[] getIntensity() {
+    return intensity.clone();
+  }
+
+}
@@ -27,6 +27,21 @@ public interface ImageModel {
    */
   List<Integer> getImage();
 
+  /**
+   * Gets the PixelBuffer that holds the pixels of the ImageModel.
+   *
+   * @return the PixelBuffer of the image.
+   */
+  PixelBuffer getPixels();
+
+  /**
+   * Returns the largest channel value of the file the image came from, which is 255 unless it was
+   * loaded from a ppm with a higher bit depth.
+   *
+   * @return the maxValue of the image.
+   */
+  int getMaxValue();
+
   /**
    * Returns the height of the image.
    *
@@ -66,6 +81,17 @@ public interface ImageModel {
    */
   ImageModel mosaic(int value, Random rx, Random ry) throws IOException;
 
+  /**
+   * Mosaics the image by a given seed number, picking the seeds from a single random seed so the
+   * same seed always gives the same mosaic, on any number of threads.
+   *
+   * @param value represents the number of seeds.
+   * @param seed  the number the random numbers start from.
+   * @return the mosaic'd image.
+   * @throws IOException if the operation fails.
+   */
+  ImageModel mosaic(int value, long seed) throws IOException;
+
   /**
    * brightens the image to create a new image.
    */
@@ -81,6 +107,23 @@ public interface ImageModel {
    */
   ImageModel verticalFlip() throws IOException;
 
+  /**
+   * Rotates the image clockwise to create a new image.
+   *
+   * @param degrees 90, 180 or 270.
+   * @return the rotated ImageModel.
+   * @throws IOException if the operation fails.
+   */
+  ImageModel rotate(int degrees) throws IOException;
+
+  /**
+   * Transposes the image, swapping its rows and columns, to create a new image.
+   *
+   * @return the transposed ImageModel.
+   * @throws IOException if the operation fails.
+   */
+  ImageModel transpose() throws IOException;
+
   /**
    * This makes a greyscale image dependent on the given component.
    *
@@ -99,6 +142,16 @@ public interface ImageModel {
    */
   ImageModel colorTransform(String type) throws IOException;
 
+  /**
+   * This makes each channel of every pixel a weighted sum of its red, green and blue, plus an
+   * offset, using the given matrix.
+   *
+   * @param matrix The color matrix to apply.
+   * @return The transformed ImageModel.
+   * @throws IOException if inputs are invalid.
+   */
+  ImageModel colorMatrix(ColorMatrix matrix) throws IOException;
+
   /**
    * Filters the image by applying a kernel to each channel of an image's pixels, the kernel
    * determined by the users input, the String filter.
@@ -108,8 +161,62 @@ public interface ImageModel {
    */
   ImageModel filterImage(String filter) throws IOException;
 
+  /**
+   * Filters the image with any kernel, filling in the pixels past the edge of the image the given
+   * way.
+   *
+   * @param kernel the kernel to apply.
+   * @param border how pixels past the edge are filled in.
+   * @return A new ImageModel that has been filtered.
+   * @throws IOException if inputs are invalid.
+   */
+  ImageModel convolve(Kernel kernel, Convolution.Border border) throws IOException;
+
+  /**
+   * Sets every channel of every pixel to a percentile of that channel over the square of pixels
+   * within the given radius, at the same cost for any radius. The 50th percentile is the median.
+   *
+   * @param radius     how far the square reaches out on each side of a pixel.
+   * @param percentile which percentile to take, from 0 for the darkest to 100 for the brightest.
+   * @param border     how pixels past the edge are filled in.
+   * @return A new ImageModel that has been filtered.
+   * @throws IOException if inputs are invalid.
+   */
+  ImageModel percentileFilter(int radius, double percentile, Convolution.Border border)
+      throws IOException;
+
+  /**
+   * Blurs the image with a Gaussian of the given standard deviation, at about the same cost for
+   * any sigma.
+   *
+   * @param sigma  the standard deviation of the Gaussian, in pixels.
+   * @param border how pixels past the edge are filled in.
+   * @return A new ImageModel that has been blurred.
+   * @throws IOException if inputs are invalid.
+   */
+  ImageModel gaussianBlur(double sigma, Convolution.Border border) throws IOException;
+
+  /**
+   * Blurs the image by averaging the square of pixels within the given radius of each one, at the
+   * same cost for any radius.
+   *
+   * @param radius how far the square reaches out on each side of a pixel.
+   * @param border how pixels past the edge are filled in.
+   * @return A new ImageModel that has been blurred.
+   * @throws IOException if inputs are invalid.
+   */
+  ImageModel boxBlur(int radius, Convolution.Border border) throws IOException;
+
   List<Integer> makeComponentList(String component);
 
+  /**
+   * Counts how many pixels have each level of red, green, blue and intensity, in one pass over
+   * the image.
+   *
+   * @return the counts.
+   */
+  Histograms histograms();
+
   /**
    * Swaps the ImageModel between PPMImageModel and FileModel so that both functionalities can be
    * used and maintained.
@@ -0,0 +1,154 @@
+package model;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a square filter kernel with an odd number of rows and columns. Weights are kept
+ * row by row, so weight (kx, ky) is how much the pixel kx - size / 2 columns right of and
+ * ky - size / 2 rows below the one being filtered adds to it. Kernels are applied as they are
+ * written, without being flipped, by a {@link Convolution}.
+ */
+public final class Kernel {
+
+  /**
+   * The 3x3 blur kernel.
+   */
+  public static final Kernel BLUR = new Kernel(
+      new double[]{.0625, .125, .0625, .125, .25, .125, .0625, .125, .0625});
+
+  /**
+   * The 5x5 sharpen kernel.
+   */
+  public static final Kernel SHARPEN = new Kernel(
+      new double[]{-.125, -.125, -.125, -.125, -.125,
+          -.125, .25, .25, .25, -.125, -.125, .25, 1, .25, -.125,
+          -.125, .25, .25, .25, -.125, -.125, -.125, -.125, -.125, -.125});
+
+  private final int size;
+
+  private final double[] weights;
+
+  /**
+   * This is the constructor for a kernel made from its weights, row by row.
+   *
+   * @param weights the weights, whose count must be the square of an odd number.
+   * @throws IllegalArgumentException if the weights do not make an odd square.
+   */
+  public Kernel(double[] weights) {
+    int side = (int) Math.round(Math.sqrt(weights.length));
+    if (side * side != weights.length || side % 2 == 0) {
+      throw new IllegalArgumentException("A kernel needs an odd square number of weights, not "
+          + weights.length);
+    }
+    this.size = side;
+    this.weights = weights.clone();
+  }
+
+  /**
+   * Gets one of the built in kernels by name.
+   *
+   * @param name blur or sharpen.
+   * @return the kernel, or null if there is no kernel with that name.
+   */
+  public static Kernel named(String name) {
+    switch (name) {
+      case "blur":
+        return BLUR;
+      case "sharpen":
+        return SHARPEN;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Reads a kernel from a text file of weights separated by whitespace, row by row. Anything
+   * after a # on a line is a comment.
+   *
+   * @param path the path of the kernel file.
+   * @return the kernel.
+   * @throws IOException if the file can not be read.
+   * @throws IllegalArgumentException if the file is not a valid kernel.
+   */
+  public static Kernel fromFile(String path) throws IOException {
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(Paths.get(path), StandardCharsets.US_ASCII);
+    } catch (NoSuchFileException e) {
+      throw new IllegalArgumentException("Sorry " + path + " is not a kernel file or filter");
+    }
+    List<Double> values = new ArrayList<>();
+    for (String line : lines) {
+      int comment = line.indexOf('#');
+      if (comment >= 0) {
+        line = line.substring(0, comment);
+      }
+      for (String token : line.trim().split("\\s+")) {
+        if (!token.isEmpty()) {
+          values.add(parseWeight(token));
+        }
+      }
+    }
+    double[] weights = new double[values.size()];
+    for (int i = 0; i < weights.length; i++) {
+      weights[i] = values.get(i);
+    }
+    return new Kernel(weights);
+  }
+
+  /**
+   * Parses one weight, written either as a decimal number or as a fraction like 1/16.
+   *
+   * @param token the weight as text.
+   * @return the weight.
+   * @throws IllegalArgumentException if the token is not a number.
+   */
+  public static double parseWeight(String token) {
+    try {
+      int slash = token.indexOf('/');
+      if (slash < 0) {
+        return Double.parseDouble(token);
+      }
+      return Double.parseDouble(token.substring(0, slash))
+          / Double.parseDouble(token.substring(slash + 1));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid weight " + token);
+    }
+  }
+
+  /**
+   * Returns the number of rows, and columns, of the kernel.
+   *
+   * @return the size of the kernel.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Gets one weight of the kernel.
+   *
+   * @param kx the column of the weight.
+   * @param ky the row of the weight.
+   * @return the weight.
+   */
+  public double get(int kx, int ky) {
+    return weights[ky * size + kx];
+  }
+
+  /**
+   * Returns a copy of the weights, row by row.
+   *
+   * @return the weights.
+   */
+  public double[] getWeights() {
+    return weights.clone();
+  }
+
+}
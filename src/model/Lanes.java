@@ -0,0 +1,156 @@
+package model;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * This class holds the inner loops that work on several channel bytes at once instead of one at a
+ * time. A brighten reads eight bytes as one long and adds to all eight lanes together, saturating
+ * each lane at 0 or 255 on its own, and a convolution whose weights are all whole numbers over a
+ * power of two accumulates int products that the JIT can widen and run in vector registers. Both
+ * give exactly the same bytes as the scalar loops, which are still used for everything else and
+ * whenever the lanes are turned off.
+ */
+public final class Lanes {
+
+  /**
+   * Reads and writes eight bytes of an array as one long, at any index.
+   */
+  private static final VarHandle LONGS =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  /**
+   * The low seven bits of every lane.
+   */
+  private static final long LOW = 0x7F7F7F7F7F7F7F7FL;
+
+  /**
+   * The high bit of every lane.
+   */
+  private static final long HIGH = 0x8080808080808080L;
+
+  /**
+   * A one in every lane, so multiplying a byte by it copies the byte into all eight lanes.
+   */
+  private static final long ONES = 0x0101010101010101L;
+
+  /**
+   * The most bits a fixed point weight may have after the point, which covers every weight
+   * written as a fraction with a power of two below it, like the 1/16 in blur.
+   */
+  private static final int MAX_SHIFT = 16;
+
+  private static volatile boolean enabled = true;
+
+  private Lanes() {
+  }
+
+  /**
+   * Tells whether the operations that can use lanes do.
+   *
+   * @return true if they do.
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Turns the lanes on or off. Off runs every operation on its scalar loop, which makes the same
+   * bytes.
+   *
+   * @param on whether to use the lanes.
+   */
+  public static void setEnabled(boolean on) {
+    enabled = on;
+  }
+
+  /**
+   * Adds the given value to every byte in a run, clamped between 0 and 255, the same as a
+   * brighten table. Eight bytes are added at a time and the few left at the end one at a time.
+   *
+   * @param bytes the bytes to change.
+   * @param from  the index of the first byte.
+   * @param to    the index after the last byte.
+   * @param value how much to add, from -255 to 255.
+   */
+  public static void saturatingAdd(byte[] bytes, int from, int to, int value) {
+    int i = from;
+    if (value > 0) {
+      long add = value * ONES;
+      for (; i + 8 <= to; i = i + 8) {
+        long x = (long) LONGS.get(bytes, i);
+        // add the low seven bits, then put each lane's high bit back without a carry out of it
+        long sum = ((x & LOW) + (add & LOW)) ^ ((x ^ add) & HIGH);
+        long carry = ((x & add) | ((x | add) & ~sum)) & HIGH;
+        LONGS.set(bytes, i, sum | ((carry >>> 7) * 0xFF));
+      }
+    } else if (value < 0) {
+      long sub = -value * ONES;
+      for (; i + 8 <= to; i = i + 8) {
+        long x = (long) LONGS.get(bytes, i);
+        // borrow from a high bit set in every lane, so no lane borrows from the next one
+        long difference = ((x | HIGH) - (sub & LOW)) ^ ((x ^ ~sub) & HIGH);
+        long borrow = ((~x & sub) | (~(x ^ sub) & difference)) & HIGH;
+        LONGS.set(bytes, i, difference & ~((borrow >>> 7) * 0xFF));
+      }
+    } else {
+      return;
+    }
+    for (; i < to; i++) {
+      bytes[i] = (byte) Math.max(0, Math.min(255, (bytes[i] & 0xFF) + value));
+    }
+  }
+
+  /**
+   * Finds the fixed point form of a set of weights, where every weight is a whole number divided
+   * by the same power of two. A weighted sum of bytes then comes out exactly the same in ints as
+   * in doubles, so the int sum shifted down is exactly the double sum truncated.
+   *
+   * @param weights the weights to convert.
+   * @return the weights times the power of two followed by its exponent, or null if the weights
+   *         have no such form or their sums could overflow an int.
+   */
+  public static int[] fixedPoint(double[] weights) {
+    int shift = 0;
+    for (double weight : weights) {
+      while (shift <= MAX_SHIFT && Math.scalb(weight, shift) != Math.rint(Math.scalb(weight,
+          shift))) {
+        shift++;
+      }
+    }
+    if (shift > MAX_SHIFT) {
+      return null;
+    }
+    int[] fixed = new int[weights.length + 1];
+    long total = 0;
+    for (int i = 0; i < weights.length; i++) {
+      double scaled = Math.scalb(weights[i], shift);
+      total = total + (long) Math.abs(scaled);
+      if (total > Integer.MAX_VALUE / 255) {
+        return null;
+      }
+      fixed[i] = (int) scaled;
+    }
+    fixed[weights.length] = shift;
+    return fixed;
+  }
+
+  /**
+   * Adds a weight times each byte of a row into a row of int sums. The bytes are widened to ints
+   * and the loop has nothing else in it, so it runs several lanes at a time.
+   *
+   * @param sums   the sums to add to.
+   * @param row    the bytes to read.
+   * @param offset the index in the row of the byte that goes with the first sum.
+   * @param weight the fixed point weight.
+   * @param count  how many sums to add to.
+   */
+  public static void multiplyAccumulate(int[] sums, byte[] row, int offset, int weight,
+                                        int count) {
+    for (int i = 0; i < count; i++) {
+      sums[i] += weight * (row[i + offset] & 0xFF);
+    }
+  }
+
+}
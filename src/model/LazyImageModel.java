@@ -0,0 +1,189 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * This is an ImageModel for a file that has not been decoded yet. Only the header is read when
+ * it is made, the ppm header or the size an ImageReader reports for any other file, so its width,
+ * height and type are known straight away. The pixels are decoded into a PPMImageModel or
+ * FileModel the first time anything needs them, and every call after that goes to that model.
+ *
+ * <p>The size and modified time of the file are kept from when the header is read, and a file
+ * that has changed since then is not decoded, so the pixels are never those of some other image
+ * written over it. The controller decodes an image before it saves over the file it reads from.
+ */
+public class LazyImageModel extends DelegatingImageModel {
+
+  private final String fileName;
+
+  private final String givenName;
+
+  private final boolean mapped;
+
+  private final boolean ppm;
+
+  private final int width;
+
+  private final int height;
+
+  private final int maxValue;
+
+  private final long length;
+
+  private final long modified;
+
+  private ImageModel decoded;
+
+  /**
+   * This is the constructor used when an image is loaded, it reads the header of the file but
+   * none of its pixels.
+   *
+   * @param fileName  A String, the path of the image on the computer.
+   * @param givenName A String, the name that is assigned to the image while it is in the program.
+   * @param mapped    Whether a ppm should be memory mapped once it is decoded.
+   * @throws IOException if the file can not be read.
+   * @throws IllegalArgumentException if the header is not valid.
+   */
+  public LazyImageModel(String fileName, String givenName, boolean mapped) throws IOException {
+    this.fileName = fileName;
+    this.givenName = givenName;
+    this.mapped = mapped;
+    this.ppm = fileName.endsWith("ppm");
+    File file = new File(fileName);
+    this.length = file.length();
+    this.modified = file.lastModified();
+    if (ppm) {
+      try (PPMReader reader = new PPMReader(fileName)) {
+        this.width = reader.getWidth();
+        this.height = reader.getHeight();
+        this.maxValue = reader.getMaxValue();
+      }
+    } else {
+      try (ImageInputStream in = ImageIO.createImageInputStream(new File(fileName))) {
+        if (in == null) {
+          throw new IOException("Can't read input file " + fileName);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+          throw new IOException("Unsupported image file " + fileName);
+        }
+        ImageReader reader = readers.next();
+        try {
+          reader.setInput(in, true, true);
+          this.width = reader.getWidth(0);
+          this.height = reader.getHeight(0);
+          this.maxValue = 255;
+        } finally {
+          reader.dispose();
+        }
+      }
+    }
+  }
+
+  /**
+   * Tells whether the pixels of the file have been decoded yet.
+   *
+   * @return true once the pixels have been read.
+   */
+  public boolean isDecoded() {
+    return decoded != null;
+  }
+
+  /**
+   * Tells whether the pixels of this image are still to be read from the given path, so that
+   * writing to that path would change them.
+   *
+   * @param path the path of a file about to be written.
+   * @return true if this image has not been decoded and is loaded from that file.
+   */
+  public boolean readsFrom(String path) {
+    if (this.isDecoded()) {
+      return false;
+    }
+    try {
+      return Files.isSameFile(Paths.get(fileName), Paths.get(path));
+    } catch (IOException e) {
+      // one of the two does not exist, so they are not the same file
+      return false;
+    }
+  }
+
+  /**
+   * Decodes the file the first time it is called and returns the same model after that. A file
+   * that fails to decode is tried again on the next call.
+   *
+   * @return the decoded ImageModel.
+   * @throws IllegalArgumentException if the file can not be decoded or has changed since it was
+   *                                  loaded.
+   */
+  private synchronized ImageModel decode() {
+    if (decoded == null) {
+      File file = new File(fileName);
+      if (file.length() != length || file.lastModified() != modified) {
+        throw new IllegalArgumentException(fileName + " has changed since " + givenName
+            + " was loaded, load it again");
+      }
+      if (ppm) {
+        decoded = new PPMImageModel(fileName, givenName, mapped);
+      } else {
+        try {
+          decoded = new FileModel(fileName);
+        } catch (IOException e) {
+          throw new IllegalArgumentException("Could not read " + fileName + ": " + e.getMessage());
+        }
+      }
+    }
+    return decoded;
+  }
+
+  @Override
+  protected ImageModel delegate() {
+    return this.decode();
+  }
+
+  @Override
+  public int getMaxValue() {
+    return maxValue;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public String checkType() {
+    return ppm ? "ppm" : "file";
+  }
+
+  @Override
+  public ImageModel mosaic(int value, Random rx, Random ry) throws IOException {
+    if (value == 0 || value == width * height) {
+      return this;
+    }
+    return this.decode().mosaic(value, rx, ry);
+  }
+
+  @Override
+  public ImageModel mosaic(int value, long seed) throws IOException {
+    if (value == 0 || value == width * height) {
+      return this;
+    }
+    return this.decode().mosaic(value, seed);
+  }
+
+}
@@ -0,0 +1,384 @@
+package model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class turns an image into a mosaic. Every pixel joins the region of the seed nearest to
+ * it, and every pixel of a region is set to the average color of that region.
+ *
+ * <p>The seeds are bucketed into a uniform grid with about one seed per cell, so finding the
+ * nearest seed to a pixel only looks at the few cells around it instead of every seed. Distances
+ * are compared squared, in whole numbers. When two seeds are the same distance from a pixel the
+ * one picked later wins, which is how mosaic has always broken ties. The sums for each region are
+ * kept in plain arrays indexed by seed.
+ *
+ * <p>The regions are found in bands of rows on the TileScheduler. They are then summed in bands
+ * too, each band into its own sums, which are added together. Those sums take four longs per seed,
+ * so there are only as many summing bands as fit in SUM_BUDGET, and an image with millions of
+ * seeds is summed in one. The sums are whole numbers, so they come out the same no matter how the
+ * rows are split up, and a mosaic is the same on any number of threads.
+ */
+public final class Mosaic {
+
+  /**
+   * About how many bytes the sums of all the summing bands together may take.
+   */
+  private static final long SUM_BUDGET = 64L << 20;
+
+  private final int width;
+
+  private final int height;
+
+  private final int[] seedX;
+
+  private final int[] seedY;
+
+  private final int cellSize;
+
+  private final int columns;
+
+  private final int rows;
+
+  private final int[] cellStart;
+
+  private final int[] cellSeeds;
+
+  /**
+   * This is the constructor for a mosaic with the given seeds.
+   *
+   * @param width  the width of the image.
+   * @param height the height of the image.
+   * @param seeds  the seeds, each one the index y * width + x of its pixel, in the order they were
+   *               picked.
+   */
+  public Mosaic(int width, int height, int[] seeds) {
+    this.width = width;
+    this.height = height;
+    int count = seeds.length;
+    this.seedX = new int[count];
+    this.seedY = new int[count];
+    for (int s = 0; s < count; s++) {
+      seedX[s] = seeds[s] % width;
+      seedY[s] = seeds[s] / width;
+    }
+    this.cellSize = Math.max(1, (int) Math.sqrt((double) width * height / Math.max(1, count)));
+    this.columns = (width + cellSize - 1) / cellSize;
+    this.rows = (height + cellSize - 1) / cellSize;
+
+    // a counting sort of the seeds by cell, which keeps the seeds of each cell in picking order
+    this.cellStart = new int[columns * rows + 1];
+    for (int s = 0; s < count; s++) {
+      cellStart[this.cellOf(s) + 1]++;
+    }
+    for (int c = 0; c < columns * rows; c++) {
+      cellStart[c + 1] += cellStart[c];
+    }
+    this.cellSeeds = new int[count];
+    int[] next = new int[columns * rows];
+    for (int s = 0; s < count; s++) {
+      int cell = this.cellOf(s);
+      cellSeeds[cellStart[cell] + next[cell]++] = s;
+    }
+  }
+
+  private int cellOf(int seed) {
+    return (seedY[seed] / cellSize) * columns + seedX[seed] / cellSize;
+  }
+
+  /**
+   * Picks distinct seeds from a single 64 bit seed with a partial Fisher-Yates shuffle of the
+   * pixel indexes: the seed picked i-th is swapped into place i from a random place at or after
+   * it. Each seed takes exactly one random number, so the time grows with the number of seeds and
+   * not with the number of pixels, even when nearly every pixel is a seed. The seeds only depend on
+   * the number given and not on anything else that uses random numbers.
+   *
+   * @param width  the width of the image.
+   * @param height the height of the image.
+   * @param count  how many seeds to pick.
+   * @param seed   the number the random numbers start from.
+   * @return the seeds, each one the index y * width + x of its pixel, in the order they were
+   *         picked.
+   * @throws IllegalArgumentException if there are not that many pixels.
+   */
+  public static int[] sample(int width, int height, int count, long seed) {
+    checkCount(width, height, count);
+    int pixels = width * height;
+    SplittableRandom random = new SplittableRandom(seed);
+    Swaps swaps = new Swaps(pixels, count);
+    int[] seeds = new int[count];
+    for (int i = 0; i < count; i++) {
+      int j = i + random.nextInt(pixels - i);
+      seeds[i] = swaps.get(j);
+      swaps.put(j, swaps.get(i));
+    }
+    return seeds;
+  }
+
+  /**
+   * Picks distinct seeds the same way mosaic always has, a random row from rx and a random
+   * column from ry, trying again when the pixel was already picked. A bit per pixel remembers
+   * which ones were, so each try takes the same time, but the tries add up to about
+   * n ln(n / (n - count)) for n pixels, which nears n log n as the seeds fill the image. This is
+   * kept for the order it draws random numbers in, which the mosaics of a given Random depend on.
+   *
+   * @param width  the width of the image.
+   * @param height the height of the image.
+   * @param count  how many seeds to pick.
+   * @param rx     the random numbers for the rows.
+   * @param ry     the random numbers for the columns.
+   * @return the seeds, each one the index y * width + x of its pixel, in the order they were
+   *         picked.
+   * @throws IllegalArgumentException if there are not that many pixels.
+   */
+  public static int[] sample(int width, int height, int count, Random rx, Random ry) {
+    checkCount(width, height, count);
+    int[] seeds = new int[count];
+    BitSet picked = new BitSet(width * height);
+    int found = 0;
+    while (found != count) {
+      int y = rx.nextInt(height);
+      int x = ry.nextInt(width);
+      int index = y * width + x;
+      if (!picked.get(index)) {
+        picked.set(index);
+        seeds[found++] = index;
+      }
+    }
+    return seeds;
+  }
+
+  private static void checkCount(int width, int height, int count) {
+    if (count < 0 || count > (long) width * height) {
+      throw new IllegalArgumentException("The number of seeds must be between 0 and "
+          + (long) width * height + ", not " + count);
+    }
+  }
+
+  /**
+   * Finds the seed nearest to a pixel. The cells are searched in square rings around the cell of
+   * the pixel, and the search stops once a ring is too far away to hold a seed as near as the best
+   * one found.
+   *
+   * @param x the column of the pixel.
+   * @param y the row of the pixel.
+   * @return the index of the nearest seed.
+   */
+  public int nearest(int x, int y) {
+    int cx = x / cellSize;
+    int cy = y / cellSize;
+    int best = -1;
+    long bestDistance = Long.MAX_VALUE;
+    int maxRing = Math.max(Math.max(cx, columns - 1 - cx), Math.max(cy, rows - 1 - cy));
+    for (int ring = 0; ring <= maxRing; ring++) {
+      if (ring > 0) {
+        // every pixel of a cell ring cells away is at least this far along one axis
+        long gap = (long) (ring - 1) * cellSize + 1;
+        if (gap * gap > bestDistance) {
+          break;
+        }
+      }
+      int top = cy - ring;
+      int bottom = cy + ring;
+      for (int row = Math.max(0, top); row <= Math.min(rows - 1, bottom); row++) {
+        boolean edge = row == top || row == bottom;
+        int step = edge ? 1 : 2 * ring;
+        for (int col = cx - ring; col <= cx + ring; col = col + Math.max(1, step)) {
+          if (col < 0 || col >= columns) {
+            continue;
+          }
+          int cell = row * columns + col;
+          for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+            int s = cellSeeds[i];
+            long dx = seedX[s] - x;
+            long dy = seedY[s] - y;
+            long distance = dx * dx + dy * dy;
+            if (distance < bestDistance || (distance == bestDistance && s > best)) {
+              best = s;
+              bestDistance = distance;
+            }
+          }
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Makes the mosaic of the given pixels. Each channel of a region is the sum of that channel
+   * over its pixels divided by how many there are, rounded down.
+   *
+   * @param source the pixels to read, which are not changed.
+   * @return the new pixels.
+   */
+  public PixelBuffer apply(PixelBuffer source) {
+    int count = seedX.length;
+    int[] labels = new int[width * height];
+    TileScheduler.forEachBand(height, 1, (y0, y1) -> {
+      for (int y = y0; y < y1; y++) {
+        for (int x = 0; x < width; x++) {
+          labels[y * width + x] = this.nearest(x, y);
+        }
+      }
+    });
+    long fit = SUM_BUDGET / (32L * Math.max(1, count));
+    int bands = (int) Math.max(1, Math.min(Math.min(height, TileScheduler.getParallelism()), fit));
+    BandTask all = new BandTask(source, labels, 0, height, Math.max(1, height / bands));
+    long[] sums = TileScheduler.getParallelism() == 1 ? all.compute() : TileScheduler.getPool()
+        .invoke(all);
+    byte[] colors = new byte[count * 3];
+    for (int s = 0; s < count; s++) {
+      long size = sums[s * 4 + 3];
+      if (size > 0) {
+        for (int c = 0; c < 3; c++) {
+          colors[s * 3 + c] = (byte) (sums[s * 4 + c] / size);
+        }
+      }
+    }
+    PixelBuffer result = new PixelBuffer(width, height);
+    byte[] dest = result.getData();
+    TileScheduler.forEachTile(width, height, (x0, y0, x1, y1) -> {
+      for (int y = y0; y < y1; y++) {
+        for (int x = x0; x < x1; x++) {
+          System.arraycopy(colors, labels[y * width + x] * 3, dest, (y * width + x) * 3, 3);
+        }
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Sums up the regions of the pixels in a band of rows, splitting the band in half until it is
+   * no taller than the given height. The result holds the blue, green and red sums and the pixel
+   * count of each seed in turn.
+   */
+  private class BandTask extends RecursiveTask<long[]> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final PixelBuffer source;
+
+    private final int[] labels;
+
+    private final int from;
+
+    private final int to;
+
+    private final int bandHeight;
+
+    BandTask(PixelBuffer source, int[] labels, int from, int to, int bandHeight) {
+      this.source = source;
+      this.labels = labels;
+      this.from = from;
+      this.to = to;
+      this.bandHeight = bandHeight;
+    }
+
+    @Override
+    protected long[] compute() {
+      if (to - from > bandHeight) {
+        int middle = (from + to) >>> 1;
+        BandTask top = new BandTask(source, labels, from, middle, bandHeight);
+        BandTask bottom = new BandTask(source, labels, middle, to, bandHeight);
+        long[] sums;
+        long[] more;
+        if (inForkJoinPool()) {
+          top.fork();
+          more = bottom.compute();
+          sums = top.join();
+        } else {
+          sums = top.compute();
+          more = bottom.compute();
+        }
+        for (int i = 0; i < sums.length; i++) {
+          sums[i] += more[i];
+        }
+        return sums;
+      }
+      long[] sums = new long[seedX.length * 4];
+      byte[] row = new byte[width * 3];
+      for (int y = from; y < to; y++) {
+        source.readRow(y, row, 0);
+        for (int x = 0; x < width; x++) {
+          int s = labels[y * width + x];
+          sums[s * 4] += row[x * 3] & 0xFF;
+          sums[s * 4 + 1] += row[x * 3 + 1] & 0xFF;
+          sums[s * 4 + 2] += row[x * 3 + 2] & 0xFF;
+          sums[s * 4 + 3]++;
+        }
+      }
+      return sums;
+    }
+  }
+
+  /**
+   * The places of a partial shuffle of the indexes 0 to n - 1, where every place that has not
+   * been swapped still holds its own index. When the shuffle covers a good part of the indexes
+   * every place is kept in an array, and otherwise only the swapped places are kept, in an open
+   * addressing hash table at most half full, so the memory grows with the seeds too.
+   */
+  private static final class Swaps {
+
+    private final int[] dense;
+
+    private final int[] keys;
+
+    private final int[] values;
+
+    private final int mask;
+
+    private Swaps(int n, int count) {
+      if ((long) count * 4 >= n) {
+        this.dense = new int[n];
+        for (int i = 0; i < n; i++) {
+          dense[i] = i;
+        }
+        this.keys = null;
+        this.values = null;
+        this.mask = 0;
+      } else {
+        // count places are put at most, and the table has more than twice that many slots
+        int capacity = Integer.highestOneBit(2 * count + 1) << 1;
+        this.dense = null;
+        this.keys = new int[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(keys, -1);
+      }
+    }
+
+    private int get(int place) {
+      if (dense != null) {
+        return dense[place];
+      }
+      int slot = this.slot(place);
+      return keys[slot] == place ? values[slot] : place;
+    }
+
+    private void put(int place, int value) {
+      if (dense != null) {
+        dense[place] = value;
+        return;
+      }
+      int slot = this.slot(place);
+      keys[slot] = place;
+      values[slot] = value;
+    }
+
+    /**
+     * Finds the slot that holds the place, or the empty one where it goes.
+     */
+    private int slot(int place) {
+      int hash = place * 0x9E3779B9;
+      int slot = (hash ^ (hash >>> 16)) & mask;
+      while (keys[slot] != -1 && keys[slot] != place) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+  }
+
+}
@@ -0,0 +1,198 @@
+package model;
+
+/**
+ * This class is one of the eight ways to lay an image back down after flipping and turning it.
+ * Every flip, rotation and transpose is one of them, and any chain of them is one too, so a chain
+ * of geometric operations only ever composes two booleans and a swap instead of moving pixels.
+ *
+ * <p>A pixel (x, y) of the result comes from the source by first undoing the flips in the
+ * result, then swapping x and y if the orientation is transposed.
+ */
+public final class Orientation {
+
+  /**
+   * The orientation that leaves every pixel where it is.
+   */
+  public static final Orientation IDENTITY = new Orientation(false, false, false);
+
+  /**
+   * The side of the square blocks a transpose copies at a time, small enough that the source
+   * rows and result rows of one block stay in cache together.
+   */
+  private static final int BLOCK = 64;
+
+  private final boolean transposed;
+
+  private final boolean flipX;
+
+  private final boolean flipY;
+
+  private Orientation(boolean transposed, boolean flipX, boolean flipY) {
+    this.transposed = transposed;
+    this.flipX = flipX;
+    this.flipY = flipY;
+  }
+
+  /**
+   * Returns this orientation followed by a horizontal flip.
+   *
+   * @return the new orientation.
+   */
+  public Orientation horizontalFlip() {
+    return new Orientation(transposed, !flipX, flipY);
+  }
+
+  /**
+   * Returns this orientation followed by a vertical flip.
+   *
+   * @return the new orientation.
+   */
+  public Orientation verticalFlip() {
+    return new Orientation(transposed, flipX, !flipY);
+  }
+
+  /**
+   * Returns this orientation followed by a transpose, which swaps the rows and columns.
+   *
+   * @return the new orientation.
+   */
+  public Orientation transpose() {
+    return new Orientation(!transposed, flipY, flipX);
+  }
+
+  /**
+   * Returns this orientation followed by a clockwise rotation.
+   *
+   * @param degrees 90, 180 or 270.
+   * @return the new orientation.
+   * @throws IllegalArgumentException if the rotation is not one of those.
+   */
+  public Orientation rotate(int degrees) {
+    switch (degrees) {
+      case 90:
+        return this.transpose().horizontalFlip();
+      case 180:
+        return this.horizontalFlip().verticalFlip();
+      case 270:
+        return this.transpose().verticalFlip();
+      default:
+        throw new IllegalArgumentException("The rotation must be 90, 180 or 270 degrees, not "
+            + degrees);
+    }
+  }
+
+  /**
+   * Tells whether this orientation leaves every pixel where it is.
+   *
+   * @return true if it is the identity.
+   */
+  public boolean isIdentity() {
+    return !transposed && !flipX && !flipY;
+  }
+
+  /**
+   * Tells whether this orientation swaps the rows and columns.
+   *
+   * @return true if the width and height of the result are swapped.
+   */
+  public boolean isTransposed() {
+    return transposed;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof Orientation)) {
+      return false;
+    }
+    Orientation other = (Orientation) o;
+    return other.transposed == transposed && other.flipX == flipX && other.flipY == flipY;
+  }
+
+  @Override
+  public int hashCode() {
+    return (transposed ? 4 : 0) + (flipX ? 2 : 0) + (flipY ? 1 : 0);
+  }
+
+  /**
+   * Lays the given pixels out in this orientation in a new buffer. Rows that are not transposed
+   * are copied whole, or reversed if they are flipped. A transpose is copied in square blocks,
+   * so each block reads a few source rows and writes a few result rows that all fit in cache.
+   * The work is split into tiles of the result on the TileScheduler.
+   *
+   * @param source the pixels to read, which are not changed.
+   * @return the new pixels.
+   */
+  public PixelBuffer apply(PixelBuffer source) {
+    int width = transposed ? source.getHeight() : source.getWidth();
+    int height = transposed ? source.getWidth() : source.getHeight();
+    PixelBuffer result = new PixelBuffer(width, height);
+    byte[] dest = result.getData();
+    TileScheduler.forEachTile(width, height, (x0, y0, x1, y1) -> {
+      if (transposed) {
+        this.transposeTile(source, dest, width, height, x0, y0, x1, y1);
+      } else {
+        this.copyTile(source, dest, width, height, x0, y0, x1, y1);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Copies one tile of a result that is not transposed a row at a time.
+   */
+  private void copyTile(PixelBuffer source, byte[] dest, int width, int height, int x0, int y0,
+                        int x1, int y1) {
+    int count = x1 - x0;
+    byte[] row = flipX ? new byte[count * 3] : null;
+    for (int y = y0; y < y1; y++) {
+      int sy = flipY ? height - 1 - y : y;
+      int at = (y * width + x0) * 3;
+      if (!flipX) {
+        source.readRegion(sy, x0, count, dest, at);
+        continue;
+      }
+      // the tile's columns come from the mirrored columns of the same row
+      source.readRegion(sy, width - x1, count, row, 0);
+      for (int j = 0; j < count; j++) {
+        System.arraycopy(row, (count - 1 - j) * 3, dest, at + j * 3, 3);
+      }
+    }
+  }
+
+  /**
+   * Copies one tile of a transposed result in square blocks. Column x of the result is row x of
+   * the source, after the flips, so a block reads a short run of each of a few source rows and
+   * writes it down a few result columns.
+   */
+  private void transposeTile(PixelBuffer source, byte[] dest, int width, int height, int x0,
+                             int y0, int x1, int y1) {
+    byte[] block = new byte[BLOCK * BLOCK * 3];
+    for (int by = y0; by < y1; by = by + BLOCK) {
+      int rowsDown = Math.min(BLOCK, y1 - by);
+      for (int bx = x0; bx < x1; bx = bx + BLOCK) {
+        int columnsAcross = Math.min(BLOCK, x1 - bx);
+        // result columns bx.. come from source rows, result rows by.. from source columns
+        int firstColumn = flipY ? height - (by + rowsDown) : by;
+        for (int i = 0; i < columnsAcross; i++) {
+          int x = bx + i;
+          int sy = flipX ? width - 1 - x : x;
+          source.readRegion(sy, firstColumn, rowsDown, block, i * rowsDown * 3);
+        }
+        for (int j = 0; j < rowsDown; j++) {
+          int y = by + j;
+          // the run read from each source row starts at the smallest source column
+          int k = flipY ? rowsDown - 1 - j : j;
+          int at = (y * width + bx) * 3;
+          for (int i = 0; i < columnsAcross; i++) {
+            int from = (i * rowsDown + k) * 3;
+            dest[at] = block[from];
+            dest[at + 1] = block[from + 1];
+            dest[at + 2] = block[from + 2];
+            at = at + 3;
+          }
+        }
+      }
+    }
+  }
+
+}
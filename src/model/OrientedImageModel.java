@@ -0,0 +1,109 @@
+package model;
+
+/**
+ * This is an ImageModel for an image that has been flipped, rotated or transposed but not
+ * actually moved yet. It only keeps the source and an Orientation, so another geometric operation
+ * on it just composes the orientations, and one that undoes the rest gives back the source itself.
+ * The pixels are laid out the first time anything else needs them, and every call after that goes
+ * to the image that made.
+ */
+public class OrientedImageModel extends DelegatingImageModel {
+
+  private final AbstractImageModel source;
+
+  private final Orientation orientation;
+
+  private ImageModel result;
+
+  /**
+   * This is the constructor for the given orientation of an image that has its pixels.
+   *
+   * @param source      the image to lay out.
+   * @param orientation how to lay it out.
+   */
+  public OrientedImageModel(AbstractImageModel source, Orientation orientation) {
+    this.source = source;
+    this.orientation = orientation;
+  }
+
+  /**
+   * Makes the image for the given orientation of the source, without moving any pixels.
+   *
+   * @param source      the image to lay out.
+   * @param orientation how to lay it out.
+   * @return the source itself for the identity, otherwise a new OrientedImageModel.
+   */
+  static ImageModel of(AbstractImageModel source, Orientation orientation) {
+    if (orientation.isIdentity()) {
+      return source;
+    }
+    return new OrientedImageModel(source, orientation);
+  }
+
+  /**
+   * Tells whether the pixels have been laid out yet.
+   *
+   * @return true once the orientation has been applied.
+   */
+  public boolean isApplied() {
+    return result != null;
+  }
+
+  /**
+   * Lays out the pixels the first time it is called and returns the same image after that.
+   *
+   * @return the image in this orientation.
+   */
+  private synchronized ImageModel apply() {
+    if (result == null) {
+      result = source.create(orientation.apply(source.getPixels()));
+    }
+    return result;
+  }
+
+  @Override
+  protected ImageModel delegate() {
+    return this.apply();
+  }
+
+  @Override
+  public int getMaxValue() {
+    return source.getMaxValue();
+  }
+
+  @Override
+  public int getHeight() {
+    return orientation.isTransposed() ? source.getWidth() : source.getHeight();
+  }
+
+  @Override
+  public int getWidth() {
+    return orientation.isTransposed() ? source.getHeight() : source.getWidth();
+  }
+
+  @Override
+  public String checkType() {
+    return source.checkType();
+  }
+
+  @Override
+  public ImageModel horizontalFlip() {
+    return of(source, orientation.horizontalFlip());
+  }
+
+  @Override
+  public ImageModel verticalFlip() {
+    return of(source, orientation.verticalFlip());
+  }
+
+  @Override
+  public ImageModel rotate(int degrees) {
+    return of(source, orientation.rotate(degrees));
+  }
+
+  @Override
+  public ImageModel transpose() {
+    return of(source, orientation.transpose());
+  }
+
+}
@@ -0,0 +1,490 @@
+package model;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class reads ppm files, both plain P3 and binary P6. The header and P3 pixels are tokenized
+ * a byte at a time out of a fixed size buffer, skipping whitespace and # comments and turning
+ * digits into ints itself, so the pixels go straight into a PixelBuffer in one pass without
+ * building any Strings. P6 pixels are read in bulk through a ReadableByteChannel, or, for a file
+ * opened with {@link #map(String)}, left in the mapped file and read from there. The P3 body of a
+ * mapped file is parsed on every core by a {@link ParallelPPMParser}.
+ *
+ * <p>One mapping can not be more than 2GB. A file bigger than that is read as a stream instead,
+ * except for the pixels of an 8 bit P6 file, which are mapped as several segments of whole rows.
+ */
+public class PPMReader implements Closeable {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * The smallest piece of a mapped P3 body worth handing to its own thread.
+   */
+  private static final int CHUNK_SIZE = 1 << 20;
+
+  private final InputStream in;
+
+  private final ByteBuffer mapped;
+
+  /**
+   * The path of a file too big to map in one piece, whose P6 pixels are mapped in segments, or
+   * null.
+   */
+  private final String large;
+
+  private ReadableByteChannel channel;
+
+  private final byte[] buffer;
+
+  private int pos;
+
+  private int limit;
+
+  private long consumed;
+
+  private int line;
+
+  private long lineStart;
+
+  private final String magic;
+
+  private final int width;
+
+  private final int height;
+
+  private final int maxValue;
+
+  /**
+   * This is the constructor for a reader of the file at the given path, it reads the header right
+   * away.
+   *
+   * @param fileName the path of the ppm file.
+   * @throws IOException if the file can not be read.
+   */
+  public PPMReader(String fileName) throws IOException {
+    this(open(fileName));
+  }
+
+  /**
+   * This is the constructor for a reader of the given stream, it reads the header right away.
+   *
+   * @param in the stream the ppm is read from.
+   * @throws IOException if the stream can not be read.
+   */
+  public PPMReader(InputStream in) throws IOException {
+    this(in, null, null);
+  }
+
+  private PPMReader(InputStream in, ByteBuffer mapped, String large) throws IOException {
+    this.in = in;
+    this.mapped = mapped;
+    this.large = large;
+    this.buffer = new byte[BUFFER_SIZE];
+    this.line = 1;
+    this.magic = this.nextToken();
+    if (!magic.equals("P3") && !magic.equals("P6")) {
+      throw new IllegalArgumentException("This is not a valid ppm");
+    }
+    this.width = this.nextInt();
+    this.height = this.nextInt();
+    this.maxValue = this.nextInt();
+    if (width <= 0 || height <= 0 || maxValue <= 0 || maxValue > 65535) {
+      throw new IllegalArgumentException("Invalid ppm header " + width + " " + height + " "
+          + maxValue);
+    }
+    if (magic.equals("P6")) {
+      // exactly one whitespace byte separates the header from the binary pixels
+      if (!isWhitespace(this.peek())) {
+        throw this.error("Expected whitespace after the header");
+      }
+      pos++;
+    }
+  }
+
+  /**
+   * Opens a reader over the whole file mapped into memory with FileChannel.map, instead of reading
+   * it through a stream. The header is read right away. A file over 2GB is read as a stream, but
+   * its 8 bit P6 pixels are still mapped by {@link #mapPixels()}.
+   *
+   * @param fileName the path of the ppm file.
+   * @return the reader.
+   * @throws IOException if the file can not be mapped.
+   */
+  public static PPMReader map(String fileName) throws IOException {
+    MappedByteBuffer file;
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        return new PPMReader(open(fileName), null, fileName);
+      }
+      file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (NoSuchFileException e) {
+      throw new IllegalArgumentException("Sorry that is an invalid file, try again.");
+    }
+    return new PPMReader(new MappedInputStream(file.duplicate()), file, null);
+  }
+
+  private static InputStream open(String fileName) {
+    try {
+      return new FileInputStream(fileName);
+    } catch (FileNotFoundException e) {
+      throw new IllegalArgumentException("Sorry that is an invalid file, try again.");
+    }
+  }
+
+  /**
+   * Returns the magic number at the start of the file, for example P3.
+   *
+   * @return the magic number.
+   */
+  public String getMagic() {
+    return magic;
+  }
+
+  /**
+   * Returns the width of the image.
+   *
+   * @return width of the image.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Returns the height of the image.
+   *
+   * @return height of the image.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns the maximum value of a channel in the file.
+   *
+   * @return the maxValue from the header.
+   */
+  public int getMaxValue() {
+    return maxValue;
+  }
+
+  /**
+   * Reads every pixel after the header into a new PixelBuffer. Files with a maxValue above 255
+   * are rounded to the 8 bits the channels hold, and their full samples are kept in the buffer as
+   * well.
+   *
+   * @return the pixels of the image.
+   * @throws IOException if the file can not be read.
+   * @throws IllegalArgumentException if the pixel data is malformed.
+   */
+  public PixelBuffer readPixels() throws IOException {
+    int chunks = 1;
+    if (mapped != null && TileScheduler.getParallelism() > 1) {
+      long body = mapped.limit() - consumed - pos;
+      chunks = (int) Math.min(body / CHUNK_SIZE,
+          4L * TileScheduler.getParallelism());
+    }
+    return this.readPixels(chunks);
+  }
+
+  /**
+   * Reads every pixel after the header into a new PixelBuffer, cutting the body of a mapped P3
+   * file into the given number of chunks that are parsed in parallel. Anything else, or a single
+   * chunk, is read one byte at a time as usual. Either way the result and any error are the same.
+   *
+   * @param chunks how many pieces to parse a mapped P3 body in.
+   * @return the pixels of the image.
+   * @throws IOException if the file can not be read.
+   * @throws IllegalArgumentException if the pixel data is malformed.
+   */
+  public PixelBuffer readPixels(int chunks) throws IOException {
+    PixelBuffer pixels = new PixelBuffer(width, height);
+    if (maxValue > 255) {
+      char[] samples = new char[pixels.getData().length];
+      if (magic.equals("P6")) {
+        this.readWide(samples);
+      } else {
+        this.readPlain(samples);
+      }
+      this.narrow(samples, pixels.getData());
+      pixels.keepWide(samples, maxValue);
+    } else if (magic.equals("P6")) {
+      this.readBytes(pixels.getData());
+    } else if (mapped != null && chunks > 1) {
+      ByteBuffer body = mapped.duplicate();
+      body.position((int) (consumed + pos));
+      new ParallelPPMParser(body.slice(), maxValue, line, consumed + pos - lineStart + 1,
+          pixels.getData()).parse(chunks);
+    } else {
+      this.readPlain(pixels.getData());
+    }
+    return pixels;
+  }
+
+  /**
+   * Gives the pixels of a reader made with {@link #map(String)} without reading them. 8 bit P6
+   * pixels become a read only PixelBuffer straight over the mapped file, and anything else is
+   * read onto the heap like {@link #readPixels()}.
+   *
+   * @return the pixels of the image.
+   * @throws IOException if the file can not be read.
+   */
+  public PixelBuffer mapPixels() throws IOException {
+    if (large != null && magic.equals("P6") && maxValue <= 255) {
+      return this.mapSegments();
+    }
+    if (mapped == null || !magic.equals("P6") || maxValue > 255) {
+      return this.readPixels();
+    }
+    ByteBuffer body = mapped.duplicate();
+    body.position((int) (consumed + pos));
+    return PixelBuffer.map(body.slice(), width, height);
+  }
+
+  /**
+   * Maps the pixels of a P6 file too big for one mapping as segments of as many whole rows as fit
+   * in one.
+   */
+  private PixelBuffer mapSegments() throws IOException {
+    long rowBytes = 3L * width;
+    int segmentRows = (int) Math.max(1, Math.min(height, Integer.MAX_VALUE / rowBytes));
+    ByteBuffer[] segments = new ByteBuffer[(height + segmentRows - 1) / segmentRows];
+    long start = consumed + pos;
+    try (FileChannel file = FileChannel.open(Paths.get(large), StandardOpenOption.READ)) {
+      if (start + rowBytes * height > file.size()) {
+        throw new IllegalArgumentException("Sorry " + large + " is missing pixels");
+      }
+      for (int i = 0; i < segments.length; i++) {
+        int rows = Math.min(segmentRows, height - i * segmentRows);
+        segments[i] = file.map(FileChannel.MapMode.READ_ONLY,
+            start + i * segmentRows * rowBytes, rows * rowBytes);
+      }
+    }
+    return PixelBuffer.map(segments, segmentRows, width, height);
+  }
+
+  /**
+   * Parses P3 pixels into the given BGR array.
+   */
+  private void readPlain(byte[] data) throws IOException {
+    for (int i = 0; i < data.length; i = i + 3) {
+      int r = this.nextValue();
+      int g = this.nextValue();
+      int b = this.nextValue();
+      data[i] = (byte) b;
+      data[i + 1] = (byte) g;
+      data[i + 2] = (byte) r;
+    }
+  }
+
+  /**
+   * Parses the P3 samples of a file deeper than 8 bits into the given array in file order.
+   */
+  private void readPlain(char[] samples) throws IOException {
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = (char) this.nextValue();
+    }
+  }
+
+  /**
+   * Rounds red, green, blue samples out of maxValue to the nearest of 256 levels, into the given
+   * BGR array.
+   */
+  private void narrow(char[] samples, byte[] data) {
+    for (int i = 0; i < data.length; i = i + 3) {
+      data[i] = (byte) ((samples[i + 2] * 255L + maxValue / 2) / maxValue);
+      data[i + 1] = (byte) ((samples[i + 1] * 255L + maxValue / 2) / maxValue);
+      data[i + 2] = (byte) ((samples[i] * 255L + maxValue / 2) / maxValue);
+    }
+  }
+
+  /**
+   * Reads 8 bit P6 pixels straight into the given array, then swaps every red and blue in place
+   * to get the BGR order of a PixelBuffer.
+   */
+  private void readBytes(byte[] data) throws IOException {
+    this.readFully(ByteBuffer.wrap(data));
+    for (int i = 0; i < data.length; i = i + 3) {
+      byte r = data[i];
+      data[i] = data[i + 2];
+      data[i + 2] = r;
+    }
+  }
+
+  /**
+   * Reads 16 bit big endian P6 samples a chunk at a time into the given array in file order. A
+   * sample above maxValue is taken as maxValue.
+   */
+  private void readWide(char[] samples) throws IOException {
+    ByteBuffer chunk = ByteBuffer.allocate(BUFFER_SIZE - BUFFER_SIZE % 6);
+    int i = 0;
+    while (i < samples.length) {
+      chunk.clear();
+      chunk.limit(Math.min(chunk.capacity(), (samples.length - i) * 2));
+      this.readFully(chunk);
+      chunk.flip();
+      while (chunk.hasRemaining()) {
+        samples[i++] = (char) Math.min(chunk.getChar(), maxValue);
+      }
+    }
+  }
+
+  /**
+   * Fills the given ByteBuffer, first from whatever the tokenizer has already buffered and then
+   * with bulk reads from the channel under the stream.
+   */
+  private void readFully(ByteBuffer target) throws IOException {
+    int buffered = Math.min(limit - pos, target.remaining());
+    target.put(buffer, pos, buffered);
+    pos += buffered;
+    if (channel == null) {
+      channel = in instanceof FileInputStream
+          ? ((FileInputStream) in).getChannel() : Channels.newChannel(in);
+    }
+    while (target.hasRemaining()) {
+      if (channel.read(target) < 0) {
+        throw this.error("Unexpected end of file in the pixel data");
+      }
+    }
+  }
+
+  /**
+   * Reads the next channel value and checks it against maxValue.
+   */
+  private int nextValue() throws IOException {
+    int value = this.nextInt();
+    if (value > maxValue) {
+      throw this.error("Value " + value + " is larger than the maximum of " + maxValue);
+    }
+    return value;
+  }
+
+  /**
+   * Skips whitespace and comments, then parses an unsigned decimal int.
+   */
+  private int nextInt() throws IOException {
+    int c = this.skipToToken();
+    if (c < '0' || c > '9') {
+      throw this.error("Expected a number but found '" + (char) c + "'");
+    }
+    int value = 0;
+    while (c >= '0' && c <= '9') {
+      value = value * 10 + (c - '0');
+      if (value > 65535) {
+        throw this.error("Number is too large");
+      }
+      pos++;
+      c = this.peek();
+    }
+    if (c != -1 && !isWhitespace(c) && c != '#') {
+      throw this.error("Expected a number but found '" + (char) c + "'");
+    }
+    return value;
+  }
+
+  /**
+   * Skips whitespace and comments, then reads a run of non whitespace characters.
+   */
+  private String nextToken() throws IOException {
+    int c = this.skipToToken();
+    StringBuilder token = new StringBuilder();
+    while (c != -1 && !isWhitespace(c) && c != '#' && token.length() < 16) {
+      token.append((char) c);
+      pos++;
+      c = this.peek();
+    }
+    return token.toString();
+  }
+
+  /**
+   * Moves past whitespace and # comments and returns the first byte of the next token without
+   * consuming it.
+   */
+  private int skipToToken() throws IOException {
+    int c = this.peek();
+    while (true) {
+      if (c == -1) {
+        throw this.error("Unexpected end of file");
+      } else if (c == '#') {
+        while (c != -1 && c != '\n') {
+          pos++;
+          c = this.peek();
+        }
+      } else if (isWhitespace(c)) {
+        pos++;
+        if (c == '\n') {
+          line++;
+          lineStart = consumed + pos;
+        }
+        c = this.peek();
+      } else {
+        return c;
+      }
+    }
+  }
+
+  private int peek() throws IOException {
+    if (pos == limit) {
+      consumed += limit;
+      pos = 0;
+      limit = Math.max(in.read(buffer), 0);
+      if (limit == 0) {
+        return -1;
+      }
+    }
+    return buffer[pos] & 0xFF;
+  }
+
+  private static boolean isWhitespace(int c) {
+    return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0x0B;
+  }
+
+  private IllegalArgumentException error(String message) {
+    long column = consumed + pos - lineStart + 1;
+    return new IllegalArgumentException(message + " at line " + line + ", column " + column);
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  /**
+   * Lets the tokenizer read a mapped file the same way it reads a stream.
+   */
+  private static class MappedInputStream extends InputStream {
+
+    private final ByteBuffer file;
+
+    MappedInputStream(ByteBuffer file) {
+      this.file = file;
+    }
+
+    @Override
+    public int read() {
+      return file.hasRemaining() ? file.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (!file.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(len, file.remaining());
+      file.get(b, off, count);
+      return count;
+    }
+  }
+
+}
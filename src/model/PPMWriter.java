@@ -0,0 +1,197 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class writes a PixelBuffer out as a plain P3 or binary P6 ppm file. Both are encoded into
+ * one reusable byte buffer that is flushed to a FileChannel whenever it fills up, so saving is a
+ * single pass over the pixels that never builds a String per value. A buffer that still has the
+ * full samples of a file deeper than 8 bits is written with those samples and their maxValue, two
+ * bytes a channel in P6 files, so loading and saving such a file changes nothing. Any other buffer
+ * only has 8 bits a channel and is written with a maxValue of 255, rather than scaled up to a
+ * depth it does not have.
+ *
+ * <p>A file is never written in place. The pixels go to a new file next to it, which is then moved
+ * over the path in one step, so saving an image back to the mapped file it was loaded from never
+ * pulls the pixels out from under the writer, and a save that fails leaves the old file alone.
+ */
+public class PPMWriter {
+
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private final int maxValue;
+
+  /**
+   * Writes the body of a file into the channel it is given.
+   */
+  private interface Body {
+    void write(FileChannel out) throws IOException;
+  }
+
+  /**
+   * This is the constructor for a writer of images with the given maxValue. With anything up to
+   * 255 every file is a normal 8 bit file, even for pixels with deeper samples.
+   *
+   * @param maxValue the maxValue of the image being written.
+   */
+  public PPMWriter(int maxValue) {
+    this.maxValue = maxValue > 255 ? Math.min(maxValue, 65535) : 255;
+  }
+
+  /**
+   * Writes the pixels to the given path as a P3 file, one row of the image per line.
+   *
+   * @param pixels   the pixels to be written.
+   * @param filepath the path of the new file.
+   * @throws IOException if the file can not be written.
+   */
+  public void writePlain(PixelBuffer pixels, String filepath) throws IOException {
+    replace(filepath, out -> {
+      ByteBuffer chunk = ByteBuffer.allocate(BUFFER_SIZE);
+      chunk.put(this.header("P3", pixels));
+      boolean wide = this.depth(pixels) > 255;
+      byte[] row = new byte[pixels.getWidth() * 3];
+      char[] samples = wide ? new char[row.length] : null;
+      for (int y = 0; y < pixels.getHeight(); y++) {
+        if (wide) {
+          pixels.readWideRow(y, samples, 0);
+        } else {
+          pixels.readRow(y, row, 0);
+        }
+        for (int i = 0; i < row.length; i = i + 3) {
+          // three values of at most five digits and a space each
+          if (chunk.remaining() < 18) {
+            drain(chunk, out);
+          }
+          if (wide) {
+            this.putDecimal(chunk, samples[i]);
+            this.putDecimal(chunk, samples[i + 1]);
+            this.putDecimal(chunk, samples[i + 2]);
+          } else {
+            this.putDecimal(chunk, row[i + 2] & 0xFF);
+            this.putDecimal(chunk, row[i + 1] & 0xFF);
+            this.putDecimal(chunk, row[i] & 0xFF);
+          }
+        }
+        if (!chunk.hasRemaining()) {
+          drain(chunk, out);
+        }
+        chunk.put((byte) '\n');
+      }
+      drain(chunk, out);
+    });
+  }
+
+  /**
+   * Writes a value as ASCII digits followed by a space, without going through a String.
+   */
+  private void putDecimal(ByteBuffer chunk, int scaled) {
+    if (scaled >= 10000) {
+      chunk.put((byte) ('0' + scaled / 10000));
+    }
+    if (scaled >= 1000) {
+      chunk.put((byte) ('0' + scaled / 1000 % 10));
+    }
+    if (scaled >= 100) {
+      chunk.put((byte) ('0' + scaled / 100 % 10));
+    }
+    if (scaled >= 10) {
+      chunk.put((byte) ('0' + scaled / 10 % 10));
+    }
+    chunk.put((byte) ('0' + scaled % 10));
+    chunk.put((byte) ' ');
+  }
+
+  /**
+   * Writes the pixels to the given path as a P6 file.
+   *
+   * @param pixels   the pixels to be written.
+   * @param filepath the path of the new file.
+   * @throws IOException if the file can not be written.
+   */
+  public void writeBinary(PixelBuffer pixels, String filepath) throws IOException {
+    replace(filepath, out -> {
+      ByteBuffer chunk = ByteBuffer.allocate(BUFFER_SIZE);
+      chunk.put(this.header("P6", pixels));
+      boolean wide = this.depth(pixels) > 255;
+      byte[] row = new byte[pixels.getWidth() * 3];
+      char[] samples = wide ? new char[row.length] : null;
+      for (int y = 0; y < pixels.getHeight(); y++) {
+        if (wide) {
+          pixels.readWideRow(y, samples, 0);
+          for (char sample : samples) {
+            if (chunk.remaining() < 2) {
+              drain(chunk, out);
+            }
+            chunk.putChar(sample);
+          }
+          continue;
+        }
+        pixels.readRow(y, row, 0);
+        for (int i = 0; i < row.length; i = i + 3) {
+          if (chunk.remaining() < 3) {
+            drain(chunk, out);
+          }
+          chunk.put(row[i + 2]);
+          chunk.put(row[i + 1]);
+          chunk.put(row[i]);
+        }
+      }
+      drain(chunk, out);
+    });
+  }
+
+  /**
+   * Writes a new file next to the given path and then moves it over the path, atomically where
+   * the file system can.
+   */
+  private static void replace(String filepath, Body body) throws IOException {
+    Path target = Paths.get(filepath).toAbsolutePath();
+    Path temp = target.resolveSibling("." + target.getFileName() + "." + System.nanoTime()
+        + ".tmp");
+    try {
+      try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW,
+          StandardOpenOption.WRITE)) {
+        body.write(out);
+      }
+      try {
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Works out the maxValue the file is written with, which is that of the full samples when the
+   * buffer has them and this writer may write them, and 255 otherwise.
+   */
+  private int depth(PixelBuffer pixels) {
+    return maxValue > 255 && pixels.isWide() ? pixels.getWideMax() : 255;
+  }
+
+  private byte[] header(String magic, PixelBuffer pixels) {
+    return (magic + "\n" + pixels.getWidth() + " " + pixels.getHeight() + "\n"
+        + this.depth(pixels) + "\n").getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private static void drain(ByteBuffer chunk, FileChannel out) throws IOException {
+    chunk.flip();
+    while (chunk.hasRemaining()) {
+      out.write(chunk);
+    }
+    chunk.clear();
+  }
+
+}
@@ -0,0 +1,277 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * This class parses the pixels of a P3 file on every core. The body after the header is cut into
+ * chunks that each start on a whitespace byte, so no number is ever split between two chunks.
+ * A first pass counts the numbers in every chunk, a prefix sum of those counts gives the index of
+ * the first value in each chunk, and a second pass parses every chunk straight into its place in
+ * the PixelBuffer. Both passes run as fork join tasks on the pool the TileScheduler shares.
+ *
+ * <p>A # comment runs to the end of its line, so whether a chunk starts inside one depends on the
+ * chunks before it. The first pass records enough about each chunk to work that out in order
+ * before the second pass starts.
+ *
+ * <p>Only files of 8 bits are parsed this way. A deeper file keeps its full samples, which the
+ * PPMReader reads one byte at a time.
+ */
+final class ParallelPPMParser {
+
+  private final ByteBuffer body;
+
+  private final int maxValue;
+
+  private final int startLine;
+
+  private final long startColumn;
+
+  private final byte[] data;
+
+  private int[] starts;
+
+  private int[] tokens;
+
+  private int[] tokensBeforeNewline;
+
+  private boolean[] hasNewline;
+
+  private boolean[] hasHash;
+
+  private boolean[] commentAfterNewline;
+
+  private boolean[] startsInComment;
+
+  private long[] offsets;
+
+  private long[] errorAt;
+
+  private String[] errors;
+
+  /**
+   * Makes a parser for the given body.
+   *
+   * @param body        the bytes after the header, from position 0 to the limit.
+   * @param maxValue    the maxValue from the header, at most 255.
+   * @param startLine   the line of the file the body starts on.
+   * @param startColumn the column of the file the body starts at.
+   * @param data        the BGR array of the PixelBuffer to fill.
+   */
+  ParallelPPMParser(ByteBuffer body, int maxValue, int startLine, long startColumn, byte[] data) {
+    this.body = body;
+    this.maxValue = maxValue;
+    this.startLine = startLine;
+    this.startColumn = startColumn;
+    this.data = data;
+  }
+
+  /**
+   * Parses the body into the array split over the given number of chunks.
+   *
+   * @param chunks how many pieces to cut the body into.
+   * @throws IllegalArgumentException if the pixel data is malformed.
+   */
+  void parse(int chunks) {
+    int length = body.limit();
+    int count = Math.max(1, Math.min(chunks, length));
+    starts = new int[count + 1];
+    for (int c = 1; c < count; c++) {
+      int start = Math.max((int) ((long) length * c / count), starts[c - 1]);
+      while (start < length && !isWhitespace(body.get(start))) {
+        start++;
+      }
+      starts[c] = start;
+    }
+    starts[count] = length;
+
+    tokens = new int[count];
+    tokensBeforeNewline = new int[count];
+    hasNewline = new boolean[count];
+    hasHash = new boolean[count];
+    commentAfterNewline = new boolean[count];
+    run(count, this::count);
+
+    // whether each chunk starts inside a comment, and so where its first value goes
+    startsInComment = new boolean[count];
+    offsets = new long[count + 1];
+    for (int c = 0; c < count; c++) {
+      if (c > 0) {
+        startsInComment[c] = hasNewline[c - 1] ? commentAfterNewline[c - 1]
+            : startsInComment[c - 1] || hasHash[c - 1];
+      }
+      int found = startsInComment[c] ? tokens[c] - tokensBeforeNewline[c] : tokens[c];
+      offsets[c + 1] = offsets[c] + found;
+    }
+
+    errorAt = new long[count];
+    errors = new String[count];
+    run(count, this::fill);
+    for (int c = 0; c < count; c++) {
+      if (errors[c] != null) {
+        throw this.error(errors[c], errorAt[c]);
+      }
+    }
+    if (offsets[count] < data.length) {
+      throw this.error("Unexpected end of file", length);
+    }
+  }
+
+  /**
+   * First pass over one chunk, counting its numbers as if it started outside a comment.
+   */
+  private void count(int c) {
+    boolean comment = false;
+    boolean token = false;
+    boolean newline = false;
+    boolean hash = false;
+    int found = 0;
+    for (int i = starts[c]; i < starts[c + 1]; i++) {
+      byte b = body.get(i);
+      if (b == '\n') {
+        if (!newline) {
+          tokensBeforeNewline[c] = found;
+          newline = true;
+        }
+        comment = false;
+        token = false;
+        hash = false;
+      } else if (comment) {
+        continue;
+      } else if (b == '#') {
+        comment = true;
+        token = false;
+        hash = true;
+        hasHash[c] = true;
+      } else if (isWhitespace(b)) {
+        token = false;
+      } else if (!token) {
+        token = true;
+        found++;
+      }
+    }
+    tokens[c] = found;
+    hasNewline[c] = newline;
+    commentAfterNewline[c] = hash;
+    if (!newline) {
+      tokensBeforeNewline[c] = found;
+    }
+  }
+
+  /**
+   * Second pass over one chunk, parsing its numbers into the array from its offset on. The first
+   * problem found is kept rather than thrown so the earliest one in the file can be reported.
+   */
+  private void fill(int c) {
+    long k = offsets[c];
+    int end = starts[c + 1];
+    int i = starts[c];
+    if (startsInComment[c]) {
+      while (i < end && body.get(i) != '\n') {
+        i++;
+      }
+    }
+    while (i < end && k < data.length) {
+      byte b = body.get(i);
+      if (b == '#') {
+        while (i < end && body.get(i) != '\n') {
+          i++;
+        }
+        continue;
+      }
+      if (isWhitespace(b)) {
+        i++;
+        continue;
+      }
+      if (b < '0' || b > '9') {
+        this.fail(c, i, "Expected a number but found '" + (char) b + "'");
+        return;
+      }
+      int value = 0;
+      while (i < end && (b = body.get(i)) >= '0' && b <= '9') {
+        value = value * 10 + (b - '0');
+        if (value > 65535) {
+          this.fail(c, i, "Number is too large");
+          return;
+        }
+        i++;
+      }
+      if (i < end && !isWhitespace(b) && b != '#') {
+        this.fail(c, i, "Expected a number but found '" + (char) b + "'");
+        return;
+      }
+      if (value > maxValue) {
+        this.fail(c, i, "Value " + value + " is larger than the maximum of " + maxValue);
+        return;
+      }
+      int channel = (int) (k % 3);
+      data[(int) (k - channel + 2 - channel)] = (byte) value;
+      k++;
+    }
+  }
+
+  private void fail(int c, int at, String message) {
+    errorAt[c] = at;
+    errors[c] = message;
+  }
+
+  /**
+   * Works out the line and column of a byte in the body. This walks the body up to that byte, which
+   * is fine since it only happens once, on the way to reporting a bad file.
+   */
+  private IllegalArgumentException error(String message, long at) {
+    int line = startLine;
+    long lineStart = -startColumn + 1;
+    for (int i = 0; i < at; i++) {
+      if (body.get(i) == '\n') {
+        line++;
+        lineStart = i + 1;
+      }
+    }
+    long column = at - lineStart + 1;
+    return new IllegalArgumentException(message + " at line " + line + ", column " + column);
+  }
+
+  /**
+   * Runs the given pass over every chunk on the shared fork join pool.
+   */
+  private static void run(int count, IntConsumer pass) {
+    TileScheduler.getPool().invoke(new ChunkTask(0, count, pass));
+  }
+
+  private static boolean isWhitespace(byte c) {
+    return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0x0B;
+  }
+
+  /**
+   * Splits a range of chunks in half until there is one left, then runs the pass on it.
+   */
+  private static class ChunkTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+
+    private final int to;
+
+    private final IntConsumer pass;
+
+    ChunkTask(int from, int to, IntConsumer pass) {
+      this.from = from;
+      this.to = to;
+      this.pass = pass;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        pass.accept(from);
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new ChunkTask(from, middle, pass), new ChunkTask(middle, to, pass));
+    }
+  }
+
+}
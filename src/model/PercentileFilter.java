@@ -0,0 +1,328 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * This class sets every channel of every pixel to a percentile of that channel over the square of
+ * pixels within a radius of it, the 50th percentile being the median. Unlike a Convolution this
+ * takes out specks of noise without blurring edges.
+ *
+ * <p>It is the algorithm of Perreault and Hebert. Each column keeps a histogram of its channel
+ * over the rows in the square, which moves down a row by adding the row that comes in and taking
+ * away the row that goes out, and the square keeps the sum of the histograms of its columns, which
+ * moves across by adding the column that comes in and taking away the one that goes out. The
+ * percentile is then found by counting up the histogram of the square. Every histogram has 16
+ * coarse bins of 16 levels each as well as its 256 levels, and only the coarse bins of the square
+ * are moved across at every pixel. The levels of a coarse bin are only brought up to date when the
+ * count gets to it, and since the percentile of neighbouring pixels is usually in the same coarse
+ * bin, that is rarely more than a few columns of catching up. That makes the cost per pixel the
+ * same for any radius.
+ *
+ * <p>The image is split into bands of rows on the TileScheduler like a BoxBlur, each band making
+ * its column histograms for its first row and sliding down from there, so the result is the same
+ * however the bands are split.
+ */
+public final class PercentileFilter {
+
+  /**
+   * The percentile of the median.
+   */
+  public static final double MEDIAN = 50;
+
+  /**
+   * The largest radius there can be, which keeps the count of a whole square in an int.
+   */
+  public static final int MAX_RADIUS = 1 << 14;
+
+  private final int radius;
+
+  private final double percentile;
+
+  private final Convolution.Border border;
+
+  /**
+   * This is the constructor for a percentile filter of the given radius, percentile and edge
+   * handling.
+   *
+   * @param radius     how many pixels the square reaches out on each side of the one it filters.
+   * @param percentile which percentile to take, from 0 for the darkest to 100 for the brightest.
+   * @param border     how pixels past the edge are filled in, black or a copy of the edge.
+   * @throws IllegalArgumentException if the radius is negative or more than MAX_RADIUS, or the
+   *                                  percentile is not between 0 and 100.
+   */
+  public PercentileFilter(int radius, double percentile, Convolution.Border border) {
+    if (radius < 0 || radius > MAX_RADIUS) {
+      throw new IllegalArgumentException("The radius must be between 0 and " + MAX_RADIUS
+          + ", not " + radius);
+    }
+    if (!(percentile >= 0 && percentile <= 100)) {
+      throw new IllegalArgumentException("The percentile must be between 0 and 100, not "
+          + percentile);
+    }
+    this.radius = radius;
+    this.percentile = percentile;
+    this.border = border;
+  }
+
+  /**
+   * Filters the given pixels into a new buffer.
+   *
+   * @param source the pixels to filter, which are not changed.
+   * @return the filtered pixels.
+   */
+  public PixelBuffer apply(PixelBuffer source) {
+    PixelBuffer result = new PixelBuffer(source.getWidth(), source.getHeight());
+    byte[] dest = result.getData();
+    TileScheduler.forEachBand(source.getHeight(), 2 * radius + 1,
+        (y0, y1) -> this.applyBand(source, dest, y0, y1));
+    return result;
+  }
+
+  /**
+   * Filters the rows from y0 up to but not including y1.
+   */
+  private void applyBand(PixelBuffer source, byte[] dest, int y0, int y1) {
+    int width = source.getWidth();
+    int height = source.getHeight();
+    int side = 2 * radius + 1;
+    // the count of values at or below the percentile, less one, out of a square of side * side
+    int rank = (int) Math.round(percentile / 100 * ((long) side * side - 1));
+    Window[] windows = new Window[3];
+    for (int c = 0; c < 3; c++) {
+      windows[c] = new Window(width, c);
+    }
+    byte[] row = new byte[width * 3];
+
+    // the column histograms of the square around the first row, where a CLAMP border counts the
+    // edge row once for every row past it and a ZERO border counts a black pixel
+    int top = y0 - radius;
+    int bottom = y0 + radius;
+    for (int sy = Math.max(0, top); sy <= Math.min(height - 1, bottom); sy++) {
+      source.readRow(sy, row, 0);
+      for (Window window : windows) {
+        window.addRow(row, 1);
+      }
+    }
+    int above = Math.max(0, -top);
+    int below = Math.max(0, bottom - (height - 1));
+    if (border == Convolution.Border.CLAMP) {
+      this.addEdgeRow(source, 0, above, row, windows);
+      this.addEdgeRow(source, height - 1, below, row, windows);
+    } else {
+      for (Window window : windows) {
+        window.addBlack(above + below);
+      }
+    }
+
+    for (int y = y0; y < y1; y++) {
+      int at = y * width * 3;
+      for (Window window : windows) {
+        window.filterRow(dest, at, rank);
+      }
+      if (y + 1 == y1) {
+        break;
+      }
+      int in = Convolution.edge(y + 1 + radius, height, border);
+      int out = Convolution.edge(y - radius, height, border);
+      if (in == out) {
+        // the same row, or black, comes in as goes out
+        continue;
+      }
+      this.moveRow(source, in, 1, row, windows);
+      this.moveRow(source, out, -1, row, windows);
+    }
+  }
+
+  private void addEdgeRow(PixelBuffer source, int y, int times, byte[] row, Window[] windows) {
+    if (times == 0) {
+      return;
+    }
+    source.readRow(y, row, 0);
+    for (Window window : windows) {
+      window.addRow(row, times);
+    }
+  }
+
+  /**
+   * Adds a row to the column histograms, or takes it away, where -1 is a black row.
+   */
+  private void moveRow(PixelBuffer source, int y, int sign, byte[] row, Window[] windows) {
+    if (y < 0) {
+      for (Window window : windows) {
+        window.addBlack(sign);
+      }
+      return;
+    }
+    source.readRow(y, row, 0);
+    for (Window window : windows) {
+      window.addRow(row, sign);
+    }
+  }
+
+  /**
+   * The column histograms and the histogram of the square for one channel of one band.
+   */
+  private final class Window {
+
+    private final int width;
+
+    private final int channel;
+
+    /**
+     * The 256 levels of every column, then of a black column that stands for every column past a
+     * ZERO border.
+     */
+    private final int[] columns;
+
+    /**
+     * The 16 coarse bins of every column, then of the black column.
+     */
+    private final int[] coarseColumns;
+
+    private final int[] fine = new int[256];
+
+    private final int[] coarse = new int[16];
+
+    /**
+     * Where the square was centred when each coarse bin of fine was last brought up to date.
+     */
+    private final int[] updated = new int[16];
+
+    private Window(int width, int channel) {
+      this.width = width;
+      this.channel = channel;
+      this.columns = new int[(width + 1) * 256];
+      this.coarseColumns = new int[(width + 1) * 16];
+      columns[width * 256] = 2 * radius + 1;
+      coarseColumns[width * 16] = 2 * radius + 1;
+    }
+
+    /**
+     * Adds a row of packed BGR bytes to every column the given number of times, which is negative
+     * to take it away.
+     */
+    private void addRow(byte[] row, int times) {
+      for (int x = 0; x < width; x++) {
+        int value = row[x * 3 + channel] & 0xFF;
+        columns[x * 256 + value] += times;
+        coarseColumns[x * 16 + (value >> 4)] += times;
+      }
+    }
+
+    /**
+     * Adds a black pixel to every column the given number of times.
+     */
+    private void addBlack(int times) {
+      for (int x = 0; x < width; x++) {
+        columns[x * 256] += times;
+        coarseColumns[x * 16] += times;
+      }
+    }
+
+    /**
+     * Filters one row into dest, which starts at the given index.
+     */
+    private void filterRow(byte[] dest, int at, int rank) {
+      Arrays.fill(coarse, 0);
+      this.addColumns(coarseColumns, 16, -radius, radius, coarse, 0, 16);
+      // no level is up to date yet
+      Arrays.fill(updated, Integer.MIN_VALUE);
+      for (int x = 0; x < width; x++) {
+        dest[at + x * 3 + channel] = (byte) this.find(x, rank);
+        int in = this.column(x + 1 + radius);
+        int out = this.column(x - radius);
+        if (in != out) {
+          int from = in * 16;
+          int to = out * 16;
+          for (int b = 0; b < 16; b++) {
+            coarse[b] += coarseColumns[from + b] - coarseColumns[to + b];
+          }
+        }
+      }
+    }
+
+    /**
+     * Counts up the histogram of the square centred on x to the level with the given rank.
+     */
+    private int find(int x, int rank) {
+      int count = 0;
+      int b = 0;
+      while (count + coarse[b] <= rank) {
+        count = count + coarse[b];
+        b++;
+      }
+      this.update(b, x);
+      int level = b * 16;
+      while (count + fine[level] <= rank) {
+        count = count + fine[level];
+        level++;
+      }
+      return level;
+    }
+
+    /**
+     * Brings the levels of one coarse bin up to date for the square centred on x, by moving them
+     * across the columns since they were last used or by adding them up again, whichever is less.
+     */
+    private void update(int b, int x) {
+      int last = updated[b];
+      if (last == x) {
+        return;
+      }
+      int low = b * 16;
+      if (last == Integer.MIN_VALUE || x - last > radius) {
+        Arrays.fill(fine, low, low + 16, 0);
+        this.addColumns(columns, 256, x - radius, x + radius, fine, low, 16);
+      } else {
+        for (int p = last + 1; p <= x; p++) {
+          int in = this.column(p + radius);
+          int out = this.column(p - 1 - radius);
+          if (in == out) {
+            continue;
+          }
+          int from = in * 256 + low;
+          int to = out * 256 + low;
+          for (int v = 0; v < 16; v++) {
+            fine[low + v] += columns[from + v] - columns[to + v];
+          }
+        }
+      }
+      updated[b] = x;
+    }
+
+    /**
+     * Adds the bins from low to low + count of the columns from x0 to x1 into target, counting a
+     * column past the edge as the one it stands for.
+     */
+    private void addColumns(int[] histograms, int bins, int x0, int x1, int[] target, int low,
+                            int count) {
+      int left = Math.max(0, -x0);
+      int right = Math.max(0, x1 - (width - 1));
+      this.addColumn(histograms, bins, this.column(-1), left, target, low, count);
+      this.addColumn(histograms, bins, this.column(width), right, target, low, count);
+      for (int x = Math.max(0, x0); x <= Math.min(width - 1, x1); x++) {
+        this.addColumn(histograms, bins, x, 1, target, low, count);
+      }
+    }
+
+    private void addColumn(int[] histograms, int bins, int column, int times, int[] target,
+                           int low, int count) {
+      if (times == 0) {
+        return;
+      }
+      int from = column * bins + low;
+      for (int v = 0; v < count; v++) {
+        target[low + v] += times * histograms[from + v];
+      }
+    }
+
+    /**
+     * Works out which column histogram to use for a coordinate that may be past the edge.
+     */
+    private int column(int x) {
+      int column = Convolution.edge(x, width, border);
+      return column < 0 ? width : column;
+    }
+  }
+
+}
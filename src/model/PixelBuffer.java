@@ -0,0 +1,497 @@
+package model;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * This is the primitive pixel storage shared by the image models. Every pixel is three 8-bit
+ * channels packed into one byte array, row by row, in blue, green, red order. That is the same
+ * layout java.awt uses for a TYPE_3BYTE_BGR BufferedImage, so the two can share memory.
+ *
+ * <p>A buffer can also be a read only view of red, green, blue bytes in a memory mapped file, see
+ * {@link #map(ByteBuffer, int, int)}. Operations only read their source through the accessors
+ * and {@link #readRow(int, byte[], int)}, and write into a new heap buffer, so a mapped image is
+ * never copied onto the heap just to be worked on. A single mapping can not be more than 2GB, so
+ * a bigger image is mapped as several segments of whole rows, see
+ * {@link #map(ByteBuffer[], int, int, int)}. A heap buffer is one array and so is limited to 2GB,
+ * which means an image bigger than that can be loaded mapped and saved, but not changed.
+ *
+ * <p>A buffer read from a ppm deeper than 8 bits also keeps every sample at its full depth, see
+ * {@link #keepWide(char[], int)}, so it can be saved again without losing anything. Operations
+ * work on the 8 bit channels and make buffers without them, and setting a pixel drops them.
+ */
+public class PixelBuffer {
+
+  private final int width;
+
+  private final int height;
+
+  private final byte[] data;
+
+  /**
+   * The mapped segments of whole rows, or null for a heap buffer.
+   */
+  private final ByteBuffer[] mapped;
+
+  /**
+   * How many rows there are in each mapped segment but the last.
+   */
+  private final int segmentRows;
+
+  /**
+   * The full samples of an image deeper than 8 bits, red, green and blue of each pixel in turn,
+   * or null.
+   */
+  private char[] wide;
+
+  /**
+   * The maxValue of the wide samples.
+   */
+  private int wideMax = 255;
+
+  /**
+   * This is the constructor for a new, all black buffer of the given size.
+   *
+   * @param width  the width of the image in pixels.
+   * @param height the height of the image in pixels.
+   */
+  public PixelBuffer(int width, int height) {
+    this(width, height, new byte[heapSize(width, height)]);
+  }
+
+  /**
+   * Works out how many bytes a heap buffer of the given size needs.
+   *
+   * @throws IllegalArgumentException if that is more than an array can hold.
+   */
+  private static int heapSize(int width, int height) {
+    long size = 3L * width * height;
+    if (width < 0 || height < 0 || size > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("A " + width + "x" + height + " image is too large to "
+          + "hold in memory");
+    }
+    return (int) size;
+  }
+
+  /**
+   * This is the constructor for a buffer that wraps an existing BGR byte array without copying it.
+   *
+   * @param width  the width of the image in pixels.
+   * @param height the height of the image in pixels.
+   * @param data   the packed BGR bytes, three per pixel.
+   * @throws IllegalArgumentException if the array is not the right size.
+   */
+  public PixelBuffer(int width, int height, byte[] data) {
+    if (width < 0 || height < 0 || data.length != width * height * 3) {
+      throw new IllegalArgumentException("Pixel data does not match a " + width + "x" + height
+          + " image");
+    }
+    this.width = width;
+    this.height = height;
+    this.data = data;
+    this.mapped = null;
+    this.segmentRows = 0;
+  }
+
+  private PixelBuffer(int width, int height, ByteBuffer[] mapped, int segmentRows) {
+    this.width = width;
+    this.height = height;
+    this.data = null;
+    this.mapped = mapped;
+    this.segmentRows = segmentRows;
+  }
+
+  /**
+   * Creates a read only buffer over red, green, blue bytes that live outside the heap, such as
+   * the pixels of a memory mapped P6 file. Nothing is copied.
+   *
+   * @param rgb    the bytes of the image, starting at position 0 of the given buffer.
+   * @param width  the width of the image in pixels.
+   * @param height the height of the image in pixels.
+   * @return the mapped PixelBuffer.
+   * @throws IllegalArgumentException if there are not enough bytes for the image.
+   */
+  public static PixelBuffer map(ByteBuffer rgb, int width, int height) {
+    return map(new ByteBuffer[]{rgb}, Math.max(1, height), width, height);
+  }
+
+  /**
+   * Creates a read only buffer over red, green, blue bytes split into segments of whole rows, such
+   * as the pixels of a memory mapped P6 file too big for one mapping. Nothing is copied.
+   *
+   * @param segments    the bytes of each run of rows, each starting at position 0.
+   * @param segmentRows how many rows each segment holds, except the last which holds the rest.
+   * @param width       the width of the image in pixels.
+   * @param height      the height of the image in pixels.
+   * @return the mapped PixelBuffer.
+   * @throws IllegalArgumentException if the segments do not hold the image.
+   */
+  public static PixelBuffer map(ByteBuffer[] segments, int segmentRows, int width, int height) {
+    long rowBytes = 3L * width;
+    if (width < 0 || height < 0 || (long) width * height > Integer.MAX_VALUE
+        || segmentRows <= 0 || segmentRows * rowBytes > Integer.MAX_VALUE
+        || segments.length != Math.max(1, (height + segmentRows - 1) / segmentRows)) {
+      throw new IllegalArgumentException("Pixel data does not match a " + width + "x" + height
+          + " image");
+    }
+    ByteBuffer[] views = new ByteBuffer[segments.length];
+    for (int i = 0; i < segments.length; i++) {
+      int rows = Math.min(segmentRows, height - i * segmentRows);
+      if (rows * rowBytes > segments[i].capacity()) {
+        throw new IllegalArgumentException("Pixel data does not match a " + width + "x" + height
+            + " image");
+      }
+      views[i] = segments[i].asReadOnlyBuffer();
+    }
+    return new PixelBuffer(width, height, views, segmentRows);
+  }
+
+  /**
+   * Reads one byte of a mapped buffer, counted from the red of the first pixel.
+   */
+  private byte mappedByte(long index) {
+    long rowBytes = 3L * width;
+    int y = (int) (index / rowBytes);
+    int segment = y / segmentRows;
+    return mapped[segment].get((int) (index - segment * segmentRows * rowBytes));
+  }
+
+  /**
+   * Tells whether this buffer is a read only view of mapped memory rather than a heap array.
+   *
+   * @return true if the buffer is mapped.
+   */
+  public boolean isMapped() {
+    return mapped != null;
+  }
+
+  /**
+   * Creates a buffer out of a List of RGB values in the old pixelList layout.
+   *
+   * @param values the red, green and blue values of every pixel, in order.
+   * @param width  the width of the image in pixels.
+   * @param height the height of the image in pixels.
+   * @return the new PixelBuffer.
+   */
+  public static PixelBuffer fromList(List<Integer> values, int width, int height) {
+    PixelBuffer buffer = new PixelBuffer(width, height);
+    int p = 0;
+    for (int i = 0; i + 2 < values.size() && p < width * height; i = i + 3) {
+      buffer.setRGB(p, values.get(i), values.get(i + 1), values.get(i + 2));
+      p++;
+    }
+    return buffer;
+  }
+
+  /**
+   * Returns the width of the image.
+   *
+   * @return width of the image.
+   */
+  public int getWidth() {
+    return this.width;
+  }
+
+  /**
+   * Returns the height of the image.
+   *
+   * @return height of the image.
+   */
+  public int getHeight() {
+    return this.height;
+  }
+
+  /**
+   * Returns the number of pixels in the image.
+   *
+   * @return width times height.
+   */
+  public int getPixelCount() {
+    return this.width * this.height;
+  }
+
+  /**
+   * Gets the red value of a pixel.
+   *
+   * @param p the index of the pixel, counted row by row.
+   * @return the red value between 0 and 255.
+   */
+  public int getRed(int p) {
+    if (data == null) {
+      return this.mappedByte(p * 3L) & 0xFF;
+    }
+    return data[p * 3 + 2] & 0xFF;
+  }
+
+  /**
+   * Gets the green value of a pixel.
+   *
+   * @param p the index of the pixel, counted row by row.
+   * @return the green value between 0 and 255.
+   */
+  public int getGreen(int p) {
+    if (data == null) {
+      return this.mappedByte(p * 3L + 1) & 0xFF;
+    }
+    return data[p * 3 + 1] & 0xFF;
+  }
+
+  /**
+   * Gets the blue value of a pixel.
+   *
+   * @param p the index of the pixel, counted row by row.
+   * @return the blue value between 0 and 255.
+   */
+  public int getBlue(int p) {
+    if (data == null) {
+      return this.mappedByte(p * 3L + 2) & 0xFF;
+    }
+    return data[p * 3] & 0xFF;
+  }
+
+  /**
+   * Gets a single channel value using the same indexing as the old pixelList, where index 0 is
+   * the red of the first pixel, 1 its green, 2 its blue, 3 the red of the second pixel and so on.
+   *
+   * @param index the index of the channel value.
+   * @return the channel value between 0 and 255.
+   */
+  public int get(int index) {
+    if (data == null) {
+      return this.mappedByte(index) & 0xFF;
+    }
+    return data[index - (index % 3) + 2 - (index % 3)] & 0xFF;
+  }
+
+  /**
+   * Sets all three channels of a pixel. Values are expected to already be between 0 and 255.
+   *
+   * @param p     the index of the pixel, counted row by row.
+   * @param red   the new red value.
+   * @param green the new green value.
+   * @param blue  the new blue value.
+   */
+  public void setRGB(int p, int red, int green, int blue) {
+    this.checkWritable();
+    this.wide = null;
+    int i = p * 3;
+    data[i] = (byte) blue;
+    data[i + 1] = (byte) green;
+    data[i + 2] = (byte) red;
+  }
+
+  /**
+   * Copies one row of the image into the given array as red, green, blue triples.
+   *
+   * @param y   the row to read.
+   * @param rgb an array of at least width * 3 ints to fill.
+   */
+  public void getRow(int y, int[] rgb) {
+    if (data == null) {
+      ByteBuffer segment = mapped[y / segmentRows];
+      int start = (y % segmentRows) * width * 3;
+      for (int x = 0; x < width * 3; x++) {
+        rgb[x] = segment.get(start + x) & 0xFF;
+      }
+      return;
+    }
+    int i = y * width * 3;
+    for (int x = 0; x < width * 3; x = x + 3) {
+      rgb[x] = data[i + x + 2] & 0xFF;
+      rgb[x + 1] = data[i + x + 1] & 0xFF;
+      rgb[x + 2] = data[i + x] & 0xFF;
+    }
+  }
+
+  /**
+   * Overwrites one row of the image from red, green, blue triples.
+   *
+   * @param y   the row to write.
+   * @param rgb an array of at least width * 3 ints between 0 and 255.
+   */
+  public void setRow(int y, int[] rgb) {
+    this.checkWritable();
+    this.wide = null;
+    int i = y * width * 3;
+    for (int x = 0; x < width * 3; x = x + 3) {
+      data[i + x + 2] = (byte) rgb[x];
+      data[i + x + 1] = (byte) rgb[x + 1];
+      data[i + x] = (byte) rgb[x + 2];
+    }
+  }
+
+  /**
+   * Keeps the full samples of an image deeper than 8 bits alongside the 8 bit channels, which
+   * should already hold the same samples rounded to 256 levels.
+   *
+   * @param samples  the red, green and blue sample of each pixel in turn, not copied.
+   * @param maxValue the maxValue of the samples, above 255.
+   */
+  void keepWide(char[] samples, int maxValue) {
+    if (samples.length != width * height * 3 || maxValue <= 255 || maxValue > 65535) {
+      throw new IllegalArgumentException("Samples do not match a " + width + "x" + height
+          + " image");
+    }
+    this.wide = samples;
+    this.wideMax = maxValue;
+  }
+
+  /**
+   * Tells whether this buffer still holds the full samples of an image deeper than 8 bits.
+   *
+   * @return true if there are wide samples to save.
+   */
+  public boolean isWide() {
+    return wide != null;
+  }
+
+  /**
+   * Returns the maxValue of the samples, which is 255 unless the buffer is wide.
+   *
+   * @return the maxValue the samples are out of.
+   */
+  public int getWideMax() {
+    return wide == null ? 255 : wideMax;
+  }
+
+  /**
+   * Copies one row of the full samples into the given array as red, green, blue triples.
+   *
+   * @param y      the row to read.
+   * @param rgb    the array to copy into.
+   * @param offset where in the array the row starts.
+   * @throws IllegalStateException if the buffer is not wide.
+   */
+  public void readWideRow(int y, char[] rgb, int offset) {
+    if (wide == null) {
+      throw new IllegalStateException("There are no samples deeper than 8 bits");
+    }
+    System.arraycopy(wide, y * width * 3, rgb, offset, width * 3);
+  }
+
+  /**
+   * Copies one row of the image into the given array as packed BGR bytes, the same layout as the
+   * backing array. This works the same for heap and mapped buffers.
+   *
+   * @param y      the row to read.
+   * @param bgr    the array to copy into.
+   * @param offset where in the array the row starts.
+   */
+  public void readRow(int y, byte[] bgr, int offset) {
+    this.readRegion(y, 0, width, bgr, offset);
+  }
+
+  /**
+   * Copies part of one row of the image into the given array as packed BGR bytes.
+   *
+   * @param y      the row to read.
+   * @param x      the first pixel of the row to read.
+   * @param count  how many pixels to read.
+   * @param bgr    the array to copy into.
+   * @param offset where in the array the first pixel goes.
+   */
+  public void readRegion(int y, int x, int count, byte[] bgr, int offset) {
+    if (data != null) {
+      System.arraycopy(data, (y * width + x) * 3, bgr, offset, count * 3);
+      return;
+    }
+    mapped[y / segmentRows].get(((y % segmentRows) * width + x) * 3, bgr, offset, count * 3);
+    for (int i = offset; i < offset + count * 3; i = i + 3) {
+      byte r = bgr[i];
+      bgr[i] = bgr[i + 2];
+      bgr[i + 2] = r;
+    }
+  }
+
+  /**
+   * Returns the backing array. Changes to it are seen by this buffer. Mapped buffers are read
+   * only and have no backing array, so operations read their source with
+   * {@link #readRow(int, byte[], int)} instead.
+   *
+   * @return the packed BGR bytes.
+   * @throws UnsupportedOperationException if the buffer is mapped.
+   */
+  public byte[] getData() {
+    this.checkWritable();
+    return this.data;
+  }
+
+  private void checkWritable() {
+    if (data == null) {
+      throw new UnsupportedOperationException("Mapped pixels are read only");
+    }
+  }
+
+  /**
+   * Wraps the buffer in a TYPE_3BYTE_BGR BufferedImage. The image shares this buffer's memory,
+   * so nothing is copied and changes to one are seen by the other. A mapped buffer is copied onto
+   * the heap first, since java.awt needs an array.
+   *
+   * @return the BufferedImage backed by this buffer.
+   */
+  public BufferedImage toBufferedImage() {
+    if (data == null) {
+      return this.copy().toBufferedImage();
+    }
+    WritableRaster raster = Raster.createInterleavedRaster(
+        new DataBufferByte(data, data.length), width, height, width * 3, 3,
+        new int[]{2, 1, 0}, null);
+    ComponentColorModel colors = new ComponentColorModel(
+        ColorSpace.getInstance(ColorSpace.CS_sRGB), new int[]{8, 8, 8}, false, false,
+        Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+    return new BufferedImage(colors, raster, false, null);
+  }
+
+  /**
+   * Makes an independent copy of this buffer on the heap.
+   *
+   * @return the copy.
+   */
+  public PixelBuffer copy() {
+    if (data != null) {
+      PixelBuffer copy = new PixelBuffer(width, height, data.clone());
+      if (wide != null) {
+        copy.keepWide(wide.clone(), wideMax);
+      }
+      return copy;
+    }
+    PixelBuffer copy = new PixelBuffer(width, height);
+    for (int y = 0; y < height; y++) {
+      this.readRow(y, copy.data, y * width * 3);
+    }
+    return copy;
+  }
+
+  /**
+   * Gives a read only List view of the buffer in the old pixelList layout. Nothing is copied, the
+   * values are boxed one at a time as they are read.
+   *
+   * @return a List of the red, green and blue values of every pixel.
+   */
+  public List<Integer> asList() {
+    return new AbstractList<Integer>() {
+      @Override
+      public Integer get(int index) {
+        if (index < 0 || index >= size()) {
+          throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        return PixelBuffer.this.get(index);
+      }
+
+      @Override
+      public int size() {
+        return width * height * 3;
+      }
+    };
+  }
+
+}
@@ -0,0 +1,264 @@
+package model;
+
+/**
+ * This class is an operation that changes every pixel on its own, written as lookup tables so
+ * that any number of them in a row can be composed into one and run in a single pass.
+ *
+ * <p>Each of the red, green and blue channels of the result reads one channel of the source
+ * through its own 256 entry table. That covers brighten and the red, green and blue components.
+ * Operations that need all three channels at once, like the value, intensity and luma greys,
+ * also have a combiner that mixes the three table outputs into one grey level, and a second set
+ * of tables from that grey level to each channel of the result. Anything done after a combiner
+ * only depends on the grey level, so it folds into those second tables, and a chain of point
+ * operations never needs more than one combiner.
+ *
+ * <p>An operation that comes out as one brighten, the same amount on every channel, runs as a
+ * saturating add in Lanes instead of through its tables.
+ */
+public final class PointOp {
+
+  /**
+   * How the three table outputs are mixed into one grey level, if at all.
+   */
+  private enum Combiner {
+    NONE, VALUE, INTENSITY, LUMA, LUMA_TRUNCATE
+  }
+
+  private static final int RED = 0;
+
+  private static final int GREEN = 1;
+
+  private static final int BLUE = 2;
+
+  private static final int NOT_A_BRIGHTEN = Integer.MIN_VALUE;
+
+  private final int[] sources;
+
+  private final int[][] tables;
+
+  private final Combiner combiner;
+
+  private final int[][] post;
+
+  /**
+   * How much this operation brightens by, or NOT_A_BRIGHTEN if it is not just a brighten.
+   */
+  private final int brightness;
+
+  private PointOp(int[] sources, int[][] tables, Combiner combiner, int[][] post) {
+    this.sources = sources;
+    this.tables = tables;
+    this.combiner = combiner;
+    this.post = post;
+    this.brightness = this.findBrightness();
+  }
+
+  /**
+   * Works out whether every channel reads itself through the same brighten table, and by how
+   * much.
+   */
+  private int findBrightness() {
+    if (combiner != Combiner.NONE || sources[RED] != RED || sources[GREEN] != GREEN
+        || sources[BLUE] != BLUE) {
+      return NOT_A_BRIGHTEN;
+    }
+    int[] table = tables[RED];
+    // a brighten table starts at 0 and goes up by one until 255, or the other way round
+    int value = table[0] > 0 ? table[0] : table[255] - 255;
+    for (int c = 0; c < 3; c++) {
+      for (int v = 0; v < 256; v++) {
+        if (tables[c][v] != Math.max(0, Math.min(255, v + value))) {
+          return NOT_A_BRIGHTEN;
+        }
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Makes the operation that adds the given value to every channel, clamped between 0 and 255.
+   *
+   * @param value how much to brighten by, negative to darken.
+   * @return the operation.
+   */
+  public static PointOp brighten(int value) {
+    int[] table = new int[256];
+    for (int v = 0; v < 256; v++) {
+      table[v] = Math.max(0, Math.min(255, v + value));
+    }
+    return new PointOp(new int[]{RED, GREEN, BLUE}, new int[][]{table, table, table},
+        Combiner.NONE, null);
+  }
+
+  /**
+   * Makes the operation that turns an image grey using one of its components, the same way
+   * compGrey does. An unknown component makes every pixel black.
+   *
+   * @param component red, green, blue, value, intensity or luna.
+   * @return the operation.
+   */
+  public static PointOp component(String component) {
+    switch (component) {
+      case "red":
+        return select(RED);
+      case "green":
+        return select(GREEN);
+      case "blue":
+        return select(BLUE);
+      case "value":
+        return combine(Combiner.VALUE);
+      case "intensity":
+        return combine(Combiner.INTENSITY);
+      case "luna":
+        return combine(Combiner.LUMA);
+      default:
+        int[] black = new int[256];
+        return new PointOp(new int[]{RED, GREEN, BLUE}, new int[][]{black, black, black},
+            Combiner.NONE, null);
+    }
+  }
+
+  /**
+   * Makes the greyscale color transform, which is the luma of each pixel truncated instead of
+   * rounded.
+   *
+   * @return the operation.
+   */
+  public static PointOp greyscale() {
+    return combine(Combiner.LUMA_TRUNCATE);
+  }
+
+  private static PointOp select(int channel) {
+    int[] identity = identity();
+    return new PointOp(new int[]{channel, channel, channel},
+        new int[][]{identity, identity, identity}, Combiner.NONE, null);
+  }
+
+  private static PointOp combine(Combiner combiner) {
+    int[] identity = identity();
+    return new PointOp(new int[]{RED, GREEN, BLUE}, new int[][]{identity, identity, identity},
+        combiner, new int[][]{identity, identity, identity});
+  }
+
+  private static int[] identity() {
+    int[] table = new int[256];
+    for (int v = 0; v < 256; v++) {
+      table[v] = v;
+    }
+    return table;
+  }
+
+  /**
+   * Composes this operation with one that runs on its result, without touching any pixels.
+   *
+   * @param next the operation that comes after this one.
+   * @return one operation that does both.
+   */
+  public PointOp then(PointOp next) {
+    if (combiner == Combiner.NONE) {
+      // next reads channel k of this result, which is this table of source channel k
+      int[] composedSources = new int[3];
+      int[][] composedTables = new int[3][256];
+      for (int k = 0; k < 3; k++) {
+        composedSources[k] = sources[next.sources[k]];
+        for (int v = 0; v < 256; v++) {
+          composedTables[k][v] = next.tables[k][tables[next.sources[k]][v]];
+        }
+      }
+      return new PointOp(composedSources, composedTables, next.combiner, next.post);
+    }
+    // every channel of this result is a function of the grey level alone
+    int[][] composedPost = new int[3][256];
+    for (int g = 0; g < 256; g++) {
+      int[] channels = new int[3];
+      for (int k = 0; k < 3; k++) {
+        channels[k] = next.tables[k][post[next.sources[k]][g]];
+      }
+      if (next.combiner != Combiner.NONE) {
+        int grey = combine(next.combiner, channels[RED], channels[GREEN], channels[BLUE]);
+        for (int c = 0; c < 3; c++) {
+          channels[c] = next.post[c][grey];
+        }
+      }
+      for (int c = 0; c < 3; c++) {
+        composedPost[c][g] = channels[c];
+      }
+    }
+    return new PointOp(sources, tables, combiner, composedPost);
+  }
+
+  /**
+   * Mixes three channel values into one grey level with the same arithmetic compGrey and
+   * colorTransform use, so a composed operation gives exactly the same pixels as running each
+   * one in turn.
+   */
+  private static int combine(Combiner combiner, int r, int g, int b) {
+    switch (combiner) {
+      case VALUE:
+        return Math.max(Math.max(r, g), b);
+      case INTENSITY:
+        return (r + g + b) / 3;
+      case LUMA:
+        return (int) Math.round(0.2126 * r + 0.7152 * g + .0722 * b) & 0xFF;
+      default:
+        return ColorMatrix.GREYSCALE.channel(0, r, g, b);
+    }
+  }
+
+  /**
+   * Runs the operation over a new copy of the given pixels, a tile at a time on the
+   * TileScheduler.
+   *
+   * @param source the pixels to read, which are not changed.
+   * @return the new pixels.
+   */
+  public PixelBuffer apply(PixelBuffer source) {
+    int width = source.getWidth();
+    PixelBuffer result = new PixelBuffer(width, source.getHeight());
+    byte[] dest = result.getData();
+    TileScheduler.forEachTile(width, source.getHeight(), (x0, y0, x1, y1) -> {
+      for (int y = y0; y < y1; y++) {
+        int from = (y * width + x0) * 3;
+        source.readRegion(y, x0, x1 - x0, dest, from);
+        this.apply(dest, from, from + (x1 - x0) * 3);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Runs the operation in place on a run of packed BGR bytes.
+   *
+   * @param bgr  the bytes to change.
+   * @param from the index of the first byte.
+   * @param to   the index after the last byte.
+   */
+  public void apply(byte[] bgr, int from, int to) {
+    if (brightness != NOT_A_BRIGHTEN && Lanes.isEnabled()) {
+      Lanes.saturatingAdd(bgr, from, to, brightness);
+      return;
+    }
+    int[] redTable = tables[RED];
+    int[] greenTable = tables[GREEN];
+    int[] blueTable = tables[BLUE];
+    // a BGR pixel keeps red at offset 2 and blue at offset 0
+    int redFrom = 2 - sources[RED];
+    int greenFrom = 2 - sources[GREEN];
+    int blueFrom = 2 - sources[BLUE];
+    for (int i = from; i < to; i = i + 3) {
+      int r = redTable[bgr[i + redFrom] & 0xFF];
+      int g = greenTable[bgr[i + greenFrom] & 0xFF];
+      int b = blueTable[bgr[i + blueFrom] & 0xFF];
+      if (combiner != Combiner.NONE) {
+        int grey = combine(combiner, r, g, b);
+        r = post[RED][grey];
+        g = post[GREEN][grey];
+        b = post[BLUE][grey];
+      }
+      bgr[i] = (byte) b;
+      bgr[i + 1] = (byte) g;
+      bgr[i + 2] = (byte) r;
+    }
+  }
+
+}
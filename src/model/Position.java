@@ -64,6 +64,6 @@ public class Position {
    */
   @Override
   public int hashCode() {
-    return Integer.hashCode(this.x) + Integer.hashCode(this.y);
+    return 31 * Integer.hashCode(this.x) + Integer.hashCode(this.y);
   }
 }
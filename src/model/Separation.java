@@ -0,0 +1,209 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * This class writes a Kernel as a sum of separable kernels, each one a column of weights times a
+ * row of weights, using its singular value decomposition. A separable kernel can be applied as a
+ * pass down the columns followed by a pass along the rows, which for a kernel of size n costs 2n
+ * multiplies a channel instead of n * n, so a kernel that is the sum of only a few of them can be
+ * applied faster than tap by tap.
+ *
+ * <p>Only as many separable terms are kept as it takes to make the kernel again to within
+ * TOLERANCE of a level on any pixel, which for most kernels that are exactly separable, like blur,
+ * is a difference far too small to ever change a pixel.
+ */
+public final class Separation {
+
+  /**
+   * The most any channel of any pixel may change, in levels, from leaving terms out.
+   */
+  public static final double TOLERANCE = 1e-7;
+
+  /**
+   * The most sweeps of rotations the decomposition makes, far more than it ever needs.
+   */
+  private static final int MAX_SWEEPS = 60;
+
+  /**
+   * The weights down the columns of each term, scaled by its singular value.
+   */
+  private final double[][] columns;
+
+  /**
+   * The weights along the rows of each term.
+   */
+  private final double[][] rows;
+
+  private final double error;
+
+  /**
+   * Works out the separable terms of the given kernel.
+   *
+   * @param kernel the kernel to separate.
+   */
+  public Separation(Kernel kernel) {
+    int size = kernel.getSize();
+    double[] weights = kernel.getWeights();
+    double scale = 0;
+    for (double weight : weights) {
+      scale = Math.max(scale, Math.abs(weight));
+    }
+    if (!Double.isFinite(scale) || scale == 0) {
+      // nothing to gain from separating a kernel that is all zeros or is not a number
+      this.columns = new double[0][];
+      this.rows = new double[0][];
+      this.error = scale == 0 ? 0 : Double.POSITIVE_INFINITY;
+      return;
+    }
+
+    // one sided Jacobi: rotate pairs of columns of u until they are all at right angles to each
+    // other, doing the same rotations to v, which leaves u times v transposed equal to the kernel
+    double[][] u = new double[size][size];
+    double[][] v = new double[size][size];
+    for (int ky = 0; ky < size; ky++) {
+      for (int kx = 0; kx < size; kx++) {
+        u[ky][kx] = weights[ky * size + kx];
+      }
+      v[ky][ky] = 1;
+    }
+    for (int sweep = 0; sweep < MAX_SWEEPS && rotateAll(u, v); sweep++) {
+      // keep sweeping until no pair needs rotating
+    }
+
+    // the length of column j of u is the singular value of term j
+    double[] values = new double[size];
+    Integer[] order = new Integer[size];
+    for (int j = 0; j < size; j++) {
+      double sum = 0;
+      for (int i = 0; i < size; i++) {
+        sum = sum + u[i][j] * u[i][j];
+      }
+      values[j] = Math.sqrt(sum);
+      order[j] = j;
+    }
+    Arrays.sort(order, (a, b) -> Double.compare(values[b], values[a]));
+
+    // keep the fewest biggest terms that make the kernel again closely enough
+    double[] rebuilt = new double[size * size];
+    int rank = 0;
+    double worst = this.difference(weights, rebuilt);
+    while (rank < size && worst > TOLERANCE) {
+      int j = order[rank];
+      for (int ky = 0; ky < size; ky++) {
+        for (int kx = 0; kx < size; kx++) {
+          rebuilt[ky * size + kx] += u[ky][j] * v[kx][j];
+        }
+      }
+      rank++;
+      worst = this.difference(weights, rebuilt);
+    }
+    this.columns = new double[rank][size];
+    this.rows = new double[rank][size];
+    for (int t = 0; t < rank; t++) {
+      for (int i = 0; i < size; i++) {
+        columns[t][i] = u[i][order[t]];
+        rows[t][i] = v[i][order[t]];
+      }
+    }
+    this.error = worst;
+  }
+
+  /**
+   * Makes one sweep of rotations over every pair of columns.
+   *
+   * @return true if any pair was rotated.
+   */
+  private static boolean rotateAll(double[][] u, double[][] v) {
+    int size = u.length;
+    boolean rotated = false;
+    for (int p = 0; p < size - 1; p++) {
+      for (int q = p + 1; q < size; q++) {
+        double alpha = 0;
+        double beta = 0;
+        double gamma = 0;
+        for (int i = 0; i < size; i++) {
+          alpha = alpha + u[i][p] * u[i][p];
+          beta = beta + u[i][q] * u[i][q];
+          gamma = gamma + u[i][p] * u[i][q];
+        }
+        if (gamma == 0 || Math.abs(gamma) <= 1e-15 * Math.sqrt(alpha * beta)) {
+          continue;
+        }
+        rotated = true;
+        double zeta = (beta - alpha) / (2 * gamma);
+        double t = Math.signum(zeta) / (Math.abs(zeta) + Math.sqrt(1 + zeta * zeta));
+        if (zeta == 0) {
+          t = 1;
+        }
+        double c = 1 / Math.sqrt(1 + t * t);
+        double s = c * t;
+        rotate(u, p, q, c, s);
+        rotate(v, p, q, c, s);
+      }
+    }
+    return rotated;
+  }
+
+  private static void rotate(double[][] m, int p, int q, double c, double s) {
+    for (int i = 0; i < m.length; i++) {
+      double a = m[i][p];
+      double b = m[i][q];
+      m[i][p] = c * a - s * b;
+      m[i][q] = s * a + c * b;
+    }
+  }
+
+  /**
+   * Works out the most a pixel can change between the kernel and the terms kept so far, which is
+   * the brightest channel times the total difference of the weights.
+   */
+  private double difference(double[] weights, double[] rebuilt) {
+    double total = 0;
+    for (int i = 0; i < weights.length; i++) {
+      total = total + Math.abs(weights[i] - rebuilt[i]);
+    }
+    return 255 * total;
+  }
+
+  /**
+   * Returns how many separable terms it takes to make the kernel.
+   *
+   * @return the number of terms, up to the size of the kernel.
+   */
+  public int getRank() {
+    return columns.length;
+  }
+
+  /**
+   * Returns the most any channel can differ between filtering with the terms and with the kernel.
+   *
+   * @return the difference in levels, infinite if the kernel has weights that are not numbers.
+   */
+  public double getError() {
+    return error;
+  }
+
+  /**
+   * Returns the weights down the columns of one term, the first being the row size / 2 above the
+   * pixel being filtered.
+   *
+   * @param term which term, the biggest first.
+   * @return a copy of the weights.
+   */
+  public double[] getColumn(int term) {
+    return columns[term].clone();
+  }
+
+  /**
+   * Returns the weights along the rows of one term, the first being the column size / 2 left of
+   * the pixel being filtered.
+   *
+   * @param term which term, the biggest first.
+   * @return a copy of the weights.
+   */
+  public double[] getRow(int term) {
+    return rows[term].clone();
+  }
+
+}
@@ -0,0 +1,210 @@
+package model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class runs an operation over an image one tile at a time on a ForkJoinPool shared by the
+ * whole program. Tiles are rectangles small enough that the source and result bytes of one fit in
+ * cache, and each is written by exactly one task, so an operation that only writes the pixels of
+ * the tile it is given gets the same result no matter how many threads there are or which order
+ * the tiles run in.
+ *
+ * <p>With a parallelism of 1 the tiles just run one after another on the calling thread.
+ */
+public final class TileScheduler {
+
+  /**
+   * How many pixels wide a tile is at most.
+   */
+  public static final int TILE_WIDTH = 512;
+
+  /**
+   * About how many pixels are in a tile, which for three bytes a pixel in and out keeps a tile
+   * in a 256 KB cache.
+   */
+  public static final int TILE_PIXELS = 1 << 15;
+
+  private static ForkJoinPool pool = newPool(Runtime.getRuntime().availableProcessors());
+
+  private TileScheduler() {
+  }
+
+  /**
+   * Something done to every pixel of one tile. It reads whatever it needs, including a halo of
+   * pixels around the tile, but must only write inside the tile.
+   */
+  public interface Tile {
+
+    /**
+     * Runs the operation on the pixels from (x0, y0) up to but not including (x1, y1).
+     *
+     * @param x0 the first column of the tile.
+     * @param y0 the first row of the tile.
+     * @param x1 the column after the last one in the tile.
+     * @param y1 the row after the last one in the tile.
+     */
+    void run(int x0, int y0, int x1, int y1);
+  }
+
+  /**
+   * Something done to a band of whole rows, or whole columns, of an image.
+   */
+  public interface Band {
+
+    /**
+     * Runs the operation on the rows or columns from one up to but not including the other.
+     *
+     * @param from the first row or column of the band.
+     * @param to   the one after the last row or column in the band.
+     */
+    void run(int from, int to);
+  }
+
+  /**
+   * Sets how many threads operations run on. The old pool finishes whatever it is running.
+   *
+   * @param threads the number of threads, at least 1.
+   * @throws IllegalArgumentException if threads is less than 1.
+   */
+  public static synchronized void setParallelism(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("The number of threads must be at least 1, not "
+          + threads);
+    }
+    if (threads != pool.getParallelism()) {
+      ForkJoinPool old = pool;
+      pool = newPool(threads);
+      old.shutdown();
+    }
+  }
+
+  /**
+   * Returns how many threads operations run on.
+   *
+   * @return the parallelism of the shared pool.
+   */
+  public static synchronized int getParallelism() {
+    return pool.getParallelism();
+  }
+
+  /**
+   * Returns the shared pool, for work that is split up some other way than into tiles.
+   *
+   * @return the shared ForkJoinPool.
+   */
+  public static synchronized ForkJoinPool getPool() {
+    return pool;
+  }
+
+  /**
+   * Runs the given operation over every tile of a width by height image and waits for all of
+   * them to finish.
+   *
+   * @param width  the width of the image.
+   * @param height the height of the image.
+   * @param tile   the operation to run on each tile.
+   */
+  public static void forEachTile(int width, int height, Tile tile) {
+    int tileWidth = Math.max(1, Math.min(width, TILE_WIDTH));
+    int tileHeight = Math.max(1, TILE_PIXELS / tileWidth);
+    int across = (width + tileWidth - 1) / tileWidth;
+    int down = (height + tileHeight - 1) / tileHeight;
+    TileTask all = new TileTask(0, across * down, across, tileWidth, tileHeight, width, height,
+        tile);
+    ForkJoinPool shared = getPool();
+    if (shared.getParallelism() == 1 || across * down <= 1) {
+      all.runAll();
+    } else {
+      shared.invoke(all);
+    }
+  }
+
+  /**
+   * Splits length rows or columns into bands and runs the given operation over every band, waiting
+   * for all of them to finish. There are about four bands for each thread, so a slow band can be
+   * made up for by the others, but none is shorter than the given minimum unless the whole image
+   * is.
+   *
+   * @param length    how many rows or columns there are.
+   * @param minLength the fewest rows or columns a band should have.
+   * @param band      the operation to run on each band.
+   */
+  public static void forEachBand(int length, int minLength, Band band) {
+    if (length <= 0) {
+      return;
+    }
+    ForkJoinPool shared = getPool();
+    int most = Math.max(1, length / Math.max(1, minLength));
+    int count = Math.max(1, Math.min(shared.getParallelism() * 4, most));
+    int bandLength = (length + count - 1) / count;
+    count = (length + bandLength - 1) / bandLength;
+    TileTask all = new TileTask(0, count, 1, 1, bandLength, 1, length,
+        (x0, y0, x1, y1) -> band.run(y0, y1));
+    if (shared.getParallelism() == 1 || count <= 1) {
+      all.runAll();
+    } else {
+      shared.invoke(all);
+    }
+  }
+
+  private static ForkJoinPool newPool(int threads) {
+    return new ForkJoinPool(threads);
+  }
+
+  /**
+   * Splits a range of tiles in half until there is one left, then runs the operation on it.
+   */
+  private static class TileTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+
+    private final int to;
+
+    private final int across;
+
+    private final int tileWidth;
+
+    private final int tileHeight;
+
+    private final int width;
+
+    private final int height;
+
+    private final Tile tile;
+
+    TileTask(int from, int to, int across, int tileWidth, int tileHeight, int width, int height,
+             Tile tile) {
+      this.from = from;
+      this.to = to;
+      this.across = across;
+      this.tileWidth = tileWidth;
+      this.tileHeight = tileHeight;
+      this.width = width;
+      this.height = height;
+      this.tile = tile;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        this.runAll();
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new TileTask(from, middle, across, tileWidth, tileHeight, width, height, tile),
+          new TileTask(middle, to, across, tileWidth, tileHeight, width, height, tile));
+    }
+
+    void runAll() {
+      for (int t = from; t < to; t++) {
+        int x0 = t % across * tileWidth;
+        int y0 = t / across * tileHeight;
+        tile.run(x0, y0, Math.min(x0 + tileWidth, width), Math.min(y0 + tileHeight, height));
+      }
+    }
+  }
+
+}
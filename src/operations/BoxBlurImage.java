@@ -0,0 +1,44 @@
+package operations;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import model.BoxBlur;
+import model.Convolution;
+import model.ImageModel;
+
+/**
+ * This function object runs the operation which blurs the ImageModel by averaging the square of
+ * pixels around each pixel.
+ */
+public class BoxBlurImage implements ImageCommand {
+
+  private ImageModel img;
+
+  private int radius;
+
+  private Convolution.Border border;
+
+  /**
+   * The constructor for BoxBlurImage, initializes the img, radius and border fields.
+   *
+   * @param model  The ImageModel that the operation will be applied to.
+   * @param radius How far the square reaches out on each side of a pixel.
+   * @param border How the pixels past the edge of the image are filled in.
+   * @throws IllegalArgumentException if the radius is negative or more than BoxBlur.MAX_RADIUS.
+   */
+  public BoxBlurImage(ImageModel model, int radius, Convolution.Border border) {
+    Objects.requireNonNull(model);
+    // checked now so a command that can not run is never deferred
+    new BoxBlur(radius, border);
+    this.img = model;
+    this.radius = radius;
+    this.border = border;
+  }
+
+  @Override
+  public ImageModel command() throws IOException {
+    return img.boxBlur(radius, border);
+  }
+
+}
@@ -3,6 +3,7 @@ package operations;
 import java.io.IOException;
 import java.util.Objects;
 
+import model.ColorMatrix;
 import model.ImageModel;
 
 /**
@@ -14,6 +15,8 @@ public class ColorTransformImage implements ImageCommand {
 
   private String filter;
 
+  private ColorMatrix matrix;
+
   /**
    * The constructor for ColorTransformImage, initializes the img and transforms fields.
    *
@@ -26,8 +29,24 @@ public class ColorTransformImage implements ImageCommand {
     this.filter = filter;
   }
 
+  /**
+   * The constructor for a ColorTransformImage that applies the given color matrix.
+   *
+   * @param model  The ImageModel that the operation will be applied to.
+   * @param matrix The color matrix to apply.
+   */
+  public ColorTransformImage(ImageModel model, ColorMatrix matrix) {
+    Objects.requireNonNull(model);
+    Objects.requireNonNull(matrix);
+    this.img = model;
+    this.matrix = matrix;
+  }
+
   @Override
   public ImageModel command() throws IOException {
+    if (matrix != null) {
+      return img.colorMatrix(matrix);
+    }
     return img.colorTransform(filter);
   }
 
@@ -3,11 +3,13 @@ package operations;
 import java.io.IOException;
 import java.util.Objects;
 
+import model.Convolution;
 import model.ImageModel;
+import model.Kernel;
 
 /**
  * This function object runs the operation which filters the pixels of the ImageModel to make it
- * blurred, sharpened, depending on the filter input.
+ * blurred, sharpened, depending on the filter input, or with any other kernel.
  */
 public class FilterImage implements ImageCommand {
 
@@ -15,6 +17,10 @@ public class FilterImage implements ImageCommand {
 
   private String filter;
 
+  private Kernel kernel;
+
+  private Convolution.Border border;
+
   /**
    * The constructor for SepiaImage, initializes the img and filter fields.
    *
@@ -27,8 +33,27 @@ public class FilterImage implements ImageCommand {
     this.filter = filter;
   }
 
+  /**
+   * The constructor for a FilterImage that applies any kernel, such as one the user typed in or
+   * read from a file.
+   *
+   * @param model  The ImageModel that the operation will be applied to.
+   * @param kernel The kernel to be applied.
+   * @param border How the pixels past the edge of the image are filled in.
+   */
+  public FilterImage(ImageModel model, Kernel kernel, Convolution.Border border) {
+    Objects.requireNonNull(model);
+    Objects.requireNonNull(kernel);
+    this.img = model;
+    this.kernel = kernel;
+    this.border = border;
+  }
+
   @Override
   public ImageModel command() throws IOException {
+    if (kernel != null) {
+      return img.convolve(kernel, border);
+    }
     return img.filterImage(filter);
   }
 
@@ -0,0 +1,44 @@
+package operations;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import model.Convolution;
+import model.GaussianBlur;
+import model.ImageModel;
+
+/**
+ * This function object runs the operation which blurs the ImageModel with a Gaussian.
+ */
+public class GaussianBlurImage implements ImageCommand {
+
+  private ImageModel img;
+
+  private double sigma;
+
+  private Convolution.Border border;
+
+  /**
+   * The constructor for GaussianBlurImage, initializes the img, sigma and border fields.
+   *
+   * @param model  The ImageModel that the operation will be applied to.
+   * @param sigma  The standard deviation of the Gaussian, in pixels.
+   * @param border How the pixels past the edge of the image are filled in.
+   * @throws IllegalArgumentException if sigma is not more than 0 and at most
+   *                                  GaussianBlur.MAX_SIGMA.
+   */
+  public GaussianBlurImage(ImageModel model, double sigma, Convolution.Border border) {
+    Objects.requireNonNull(model);
+    // checked now so a command that can not run is never deferred
+    new GaussianBlur(sigma, border);
+    this.img = model;
+    this.sigma = sigma;
+    this.border = border;
+  }
+
+  @Override
+  public ImageModel command() throws IOException {
+    return img.gaussianBlur(sigma, border);
+  }
+
+}
@@ -1,17 +1,23 @@
 package operations;
 
+import java.io.File;
 import java.io.IOException;
 
-import model.FileModel;
 import model.ImageModel;
-import model.PPMImageModel;
+import model.LazyImageModel;
 
 /**
  * This class is a function object that creates the correct ImageModel, which when initialized
- * creates it's necessary data, loading it in.
+ * creates it's necessary data, loading it in. Only the header is read here, the pixels are decoded
+ * the first time they are used.
  */
 public class LoadImage implements ImageCommand {
 
+  /**
+   * ppm files at least this big are memory mapped instead of read onto the heap.
+   */
+  public static final long MAP_THRESHOLD = 64L << 20;
+
   private String filepath;
 
   private String givenname;
@@ -24,11 +30,9 @@ public class LoadImage implements ImageCommand {
 
   @Override
   public ImageModel command() throws IOException {
-    if (filepath.substring(filepath.length() - 3).equals("ppm")) {
-      return new PPMImageModel(filepath, givenname);
-    } else {
-      return new FileModel(filepath);
-    }
+    boolean mapped = filepath.substring(filepath.length() - 3).equals("ppm")
+        && new File(filepath).length() >= MAP_THRESHOLD;
+    return new LazyImageModel(filepath, givenname, mapped);
   }
 
 }
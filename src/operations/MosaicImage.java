@@ -15,6 +15,7 @@ public class MosaicImage implements ImageCommand {
   private int value;
   private Random rx;
   private Random ry;
+  private Long seed;
 
   /**
    * The constructor for Mosaic Image, initializes the img and value fields.
@@ -32,8 +33,26 @@ public class MosaicImage implements ImageCommand {
     this.ry = ry;
   }
 
+  /**
+   * The constructor for a Mosaic Image that picks its seeds from a single random seed, so the
+   * same seed always gives the same image.
+   *
+   * @param model The ImageModel that the operation will be applied to.
+   * @param value The amount of seeds to use in the operation.
+   * @param seed  the number the random numbers start from.
+   */
+  public MosaicImage(ImageModel model, int value, long seed) {
+    Objects.requireNonNull(model);
+    this.img = model;
+    this.value = value;
+    this.seed = seed;
+  }
+
   @Override
   public ImageModel command() throws IOException {
+    if (seed != null) {
+      return img.mosaic(value, seed);
+    }
     return img.mosaic(value, rx, ry);
   }
 }
@@ -0,0 +1,50 @@
+package operations;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import model.Convolution;
+import model.ImageModel;
+import model.PercentileFilter;
+
+/**
+ * This function object runs the operation which sets each pixel of the ImageModel to a percentile,
+ * like the median, of the square of pixels around it.
+ */
+public class PercentileImage implements ImageCommand {
+
+  private ImageModel img;
+
+  private int radius;
+
+  private double percentile;
+
+  private Convolution.Border border;
+
+  /**
+   * The constructor for PercentileImage, initializes the img, radius, percentile and border
+   * fields.
+   *
+   * @param model      The ImageModel that the operation will be applied to.
+   * @param radius     How far the square reaches out on each side of a pixel.
+   * @param percentile Which percentile to take, 50 for the median.
+   * @param border     How the pixels past the edge of the image are filled in.
+   * @throws IllegalArgumentException if the radius or percentile is out of range.
+   */
+  public PercentileImage(ImageModel model, int radius, double percentile,
+                         Convolution.Border border) {
+    Objects.requireNonNull(model);
+    // checked now so a command that can not run is never deferred
+    new PercentileFilter(radius, percentile, border);
+    this.img = model;
+    this.radius = radius;
+    this.percentile = percentile;
+    this.border = border;
+  }
+
+  @Override
+  public ImageModel command() throws IOException {
+    return img.percentileFilter(radius, percentile, border);
+  }
+
+}
@@ -0,0 +1,106 @@
+package operations;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import model.ImageModel;
+
+/**
+ * This function object runs a plan, a list of steps one after another starting from an image.
+ * Adding a step gives a new plan that the PlanOptimizer has already rewritten, so the steps it
+ * holds are always the cheapest ones it knows that give the same image.
+ */
+public class PlanImage implements ImageCommand {
+
+  private final ImageModel root;
+
+  private final List<Step> steps;
+
+  /**
+   * The constructor for PlanImage, initializes the root and steps fields.
+   *
+   * @param root  The ImageModel the first step runs on.
+   * @param steps The steps to run, in order.
+   */
+  public PlanImage(ImageModel root, List<Step> steps) {
+    Objects.requireNonNull(root);
+    this.root = root;
+    this.steps = Collections.unmodifiableList(new ArrayList<>(steps));
+  }
+
+  /**
+   * Makes the plan with one more step at the end, rewritten by the PlanOptimizer.
+   *
+   * @param step the step to add.
+   * @return the new plan.
+   */
+  public PlanImage then(Step step) {
+    List<Step> longer = new ArrayList<>(steps);
+    longer.add(step);
+    return new PlanImage(root, PlanOptimizer.optimize(longer));
+  }
+
+  /**
+   * Returns the image the first step runs on.
+   *
+   * @return the root of the plan.
+   */
+  public ImageModel getRoot() {
+    return root;
+  }
+
+  /**
+   * Returns the steps of the plan.
+   *
+   * @return the steps, in order.
+   */
+  public List<Step> getSteps() {
+    return steps;
+  }
+
+  /**
+   * Tells whether the plan swaps the width and height of the image it starts from.
+   *
+   * @return true if an odd number of its steps swap them.
+   */
+  public boolean swapsSides() {
+    boolean swapped = false;
+    for (Step step : steps) {
+      swapped = swapped != step.swapsSides();
+    }
+    return swapped;
+  }
+
+  @Override
+  public ImageModel command() throws IOException {
+    ImageModel img = root;
+    for (Step step : steps) {
+      img = step.on(img).command();
+    }
+    return img;
+  }
+
+  /**
+   * Writes the steps the way they are written in a script, separated by commas.
+   *
+   * @return the plan as text.
+   */
+  @Override
+  public String toString() {
+    if (steps.isEmpty()) {
+      return "nothing to do";
+    }
+    StringBuilder text = new StringBuilder();
+    for (Step step : steps) {
+      if (text.length() > 0) {
+        text.append(", ");
+      }
+      text.append(step);
+    }
+    return text.toString();
+  }
+
+}
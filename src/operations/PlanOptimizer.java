@@ -0,0 +1,166 @@
+package operations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import model.Orientation;
+import model.PointOp;
+
+/**
+ * This class rewrites a plan into a shorter one that makes exactly the same image. It knows four
+ * rules:
+ *
+ * <ul>
+ *   <li>Point operations change each pixel on its own and geometric ones only move pixels, so
+ *   every point step can run before every geometric step.</li>
+ *   <li>The geometric steps together are one of eight orientations, so they are replaced by the
+ *   shortest list of steps with that orientation. Involutions like two horizontal flips cancel
+ *   out to nothing.</li>
+ *   <li>Brightens next to each other add up, but only when both go the same way. Clamping makes
+ *   brighten 10 then brighten -10 darken every pixel that was above 245, so those are kept.</li>
+ *   <li>Once the image is grey, a component or greyscale step that leaves grey pixels alone does
+ *   nothing, so a second grey step is dropped.</li>
+ * </ul>
+ */
+public final class PlanOptimizer {
+
+  /**
+   * The grey steps that leave every grey pixel as it is, checked against the real operations.
+   */
+  private static final Set<Step> KEEPS_GREY = keepsGrey();
+
+  /**
+   * The shortest way to write each of the eight orientations.
+   */
+  private static final List<List<Step>> SHORTEST = Arrays.asList(
+      Collections.emptyList(),
+      Collections.singletonList(Step.horizontalFlip()),
+      Collections.singletonList(Step.verticalFlip()),
+      Collections.singletonList(Step.rotate(90)),
+      Collections.singletonList(Step.rotate(180)),
+      Collections.singletonList(Step.rotate(270)),
+      Collections.singletonList(Step.transpose()),
+      Arrays.asList(Step.transpose(), Step.rotate(180)));
+
+  private PlanOptimizer() {
+  }
+
+  /**
+   * Rewrites the given steps into the shortest steps these rules find for the same image.
+   *
+   * @param steps the steps to rewrite, which are not changed.
+   * @return the rewritten steps.
+   */
+  public static List<Step> optimize(List<Step> steps) {
+    List<Step> result = new ArrayList<>();
+    boolean grey = false;
+    for (Step step : steps) {
+      if (step.isGeometric()) {
+        continue;
+      }
+      switch (step.getKind()) {
+        case BRIGHTEN:
+          addBrighten(result, step.getAmount());
+          break;
+        default:
+          if (!grey || !KEEPS_GREY.contains(step)) {
+            result.add(step);
+          }
+          grey = true;
+          break;
+      }
+    }
+    result.addAll(shortest(orientation(steps)));
+    return result;
+  }
+
+  /**
+   * Adds a brighten to the end of the given steps, folding it into the brighten already there
+   * when that gives the same pixels.
+   */
+  private static void addBrighten(List<Step> result, int amount) {
+    if (amount == 0) {
+      return;
+    }
+    int last = result.size() - 1;
+    if (last >= 0 && result.get(last).getKind() == Step.Kind.BRIGHTEN) {
+      int before = result.get(last).getAmount();
+      if ((before > 0) == (amount > 0)) {
+        // past 255 either way every pixel is already clamped, which also keeps the sum an int
+        int sum = Math.max(-255, Math.min(255, before + amount));
+        result.set(last, Step.brighten(sum));
+        return;
+      }
+    }
+    result.add(Step.brighten(amount));
+  }
+
+  /**
+   * Composes the geometric steps of the given plan into one orientation.
+   *
+   * @param steps the steps to read, where only the geometric ones count.
+   * @return the orientation they make together.
+   */
+  public static Orientation orientation(List<Step> steps) {
+    Orientation orientation = Orientation.IDENTITY;
+    for (Step step : steps) {
+      switch (step.getKind()) {
+        case HORIZONTAL_FLIP:
+          orientation = orientation.horizontalFlip();
+          break;
+        case VERTICAL_FLIP:
+          orientation = orientation.verticalFlip();
+          break;
+        case ROTATE:
+          orientation = orientation.rotate(step.getAmount());
+          break;
+        case TRANSPOSE:
+          orientation = orientation.transpose();
+          break;
+        default:
+          break;
+      }
+    }
+    return orientation;
+  }
+
+  private static List<Step> shortest(Orientation orientation) {
+    for (List<Step> candidate : SHORTEST) {
+      if (orientation(candidate).equals(orientation)) {
+        return candidate;
+      }
+    }
+    throw new IllegalStateException("There is no shortest plan for " + orientation);
+  }
+
+  /**
+   * Runs every grey step over all 256 grey pixels and keeps the ones that change none of them.
+   */
+  private static Set<Step> keepsGrey() {
+    byte[] greys = new byte[256 * 3];
+    for (int v = 0; v < 256; v++) {
+      Arrays.fill(greys, v * 3, v * 3 + 3, (byte) v);
+    }
+    List<Step> candidates = new ArrayList<>();
+    for (String component : new String[]{"red", "green", "blue", "value", "intensity", "luna"}) {
+      candidates.add(Step.component(component));
+    }
+    candidates.add(Step.greyscale());
+    Set<Step> keeps = new HashSet<>();
+    for (Step candidate : candidates) {
+      PointOp op = candidate.getKind() == Step.Kind.GREYSCALE
+          ? PointOp.greyscale() : PointOp.component(candidate.getComponent());
+      byte[] copy = greys.clone();
+      op.apply(copy, 0, copy.length);
+      if (Arrays.equals(copy, greys)) {
+        keeps.add(candidate);
+      }
+    }
+    return keeps;
+  }
+
+}
@@ -0,0 +1,38 @@
+package operations;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import model.ImageModel;
+import model.Orientation;
+
+/**
+ * This function object runs the operation which rotates the image clockwise.
+ */
+public class RotateImage implements ImageCommand {
+
+  private ImageModel img;
+
+  private int degrees;
+
+  /**
+   * The constructor for RotateImage, initializes the img and degrees fields.
+   *
+   * @param model   the Image Model that the operation will be applied to.
+   * @param degrees how far to rotate, 90, 180 or 270.
+   * @throws IllegalArgumentException if the rotation is not one of those.
+   */
+  public RotateImage(ImageModel model, int degrees) {
+    Objects.requireNonNull(model);
+    // checked now so a command that can not run is never deferred
+    Orientation.IDENTITY.rotate(degrees);
+    this.img = model;
+    this.degrees = degrees;
+  }
+
+  @Override
+  public ImageModel command() throws IOException {
+    return img.rotate(degrees);
+  }
+
+}
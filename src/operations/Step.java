@@ -0,0 +1,210 @@
+package operations;
+
+import java.util.Objects;
+
+import model.ImageModel;
+
+/**
+ * This class describes one step of a plan, a command that is either a point operation or a
+ * geometric one, without the image it runs on. Steps can be compared and rearranged by the
+ * PlanOptimizer, and turned into the ImageCommand that runs them once the image is known.
+ */
+public final class Step {
+
+  /**
+   * The kinds of command a step can be.
+   */
+  public enum Kind {
+    BRIGHTEN, COMPONENT, GREYSCALE, HORIZONTAL_FLIP, VERTICAL_FLIP, ROTATE, TRANSPOSE
+  }
+
+  private final Kind kind;
+
+  private final int amount;
+
+  private final String component;
+
+  private Step(Kind kind, int amount, String component) {
+    this.kind = kind;
+    this.amount = amount;
+    this.component = component;
+  }
+
+  /**
+   * Makes the step that brightens by the given amount.
+   *
+   * @param amount how much to brighten by, negative to darken.
+   * @return the step.
+   */
+  public static Step brighten(int amount) {
+    return new Step(Kind.BRIGHTEN, amount, null);
+  }
+
+  /**
+   * Makes the step that turns the image grey using one of its components.
+   *
+   * @param component red, green, blue, value, intensity or luna.
+   * @return the step.
+   */
+  public static Step component(String component) {
+    return new Step(Kind.COMPONENT, 0, component);
+  }
+
+  /**
+   * Makes the step that runs the greyscale color transform.
+   *
+   * @return the step.
+   */
+  public static Step greyscale() {
+    return new Step(Kind.GREYSCALE, 0, null);
+  }
+
+  /**
+   * Makes the step that flips the image horizontally.
+   *
+   * @return the step.
+   */
+  public static Step horizontalFlip() {
+    return new Step(Kind.HORIZONTAL_FLIP, 0, null);
+  }
+
+  /**
+   * Makes the step that flips the image vertically.
+   *
+   * @return the step.
+   */
+  public static Step verticalFlip() {
+    return new Step(Kind.VERTICAL_FLIP, 0, null);
+  }
+
+  /**
+   * Makes the step that rotates the image clockwise.
+   *
+   * @param degrees 90, 180 or 270.
+   * @return the step.
+   */
+  public static Step rotate(int degrees) {
+    return new Step(Kind.ROTATE, degrees, null);
+  }
+
+  /**
+   * Makes the step that swaps the rows and columns of the image.
+   *
+   * @return the step.
+   */
+  public static Step transpose() {
+    return new Step(Kind.TRANSPOSE, 0, null);
+  }
+
+  /**
+   * Returns what kind of command this step is.
+   *
+   * @return the kind.
+   */
+  public Kind getKind() {
+    return kind;
+  }
+
+  /**
+   * Returns the amount of a brighten or the degrees of a rotation.
+   *
+   * @return the amount, or 0 for the other kinds.
+   */
+  public int getAmount() {
+    return amount;
+  }
+
+  /**
+   * Returns the component of a component step.
+   *
+   * @return the component, or null for the other kinds.
+   */
+  public String getComponent() {
+    return component;
+  }
+
+  /**
+   * Tells whether this step moves pixels around without changing them.
+   *
+   * @return true for flips, rotations and transposes.
+   */
+  public boolean isGeometric() {
+    return kind == Kind.HORIZONTAL_FLIP || kind == Kind.VERTICAL_FLIP || kind == Kind.ROTATE
+        || kind == Kind.TRANSPOSE;
+  }
+
+  /**
+   * Tells whether this step swaps the width and height of the image.
+   *
+   * @return true for rotations by 90 or 270 degrees and transposes.
+   */
+  public boolean swapsSides() {
+    return kind == Kind.TRANSPOSE || (kind == Kind.ROTATE && amount % 180 != 0);
+  }
+
+  /**
+   * Makes the command that runs this step on the given image.
+   *
+   * @param img the image to run on.
+   * @return the command.
+   */
+  public ImageCommand on(ImageModel img) {
+    switch (kind) {
+      case BRIGHTEN:
+        return new BrightenImage(img, amount);
+      case COMPONENT:
+        return new GreyImage(img, component);
+      case GREYSCALE:
+        return new ColorTransformImage(img, "greyscale");
+      case HORIZONTAL_FLIP:
+        return new HorizontalFlipImage(img);
+      case VERTICAL_FLIP:
+        return new VerticalFlipImage(img);
+      case ROTATE:
+        return new RotateImage(img, amount);
+      default:
+        return new TransposeImage(img);
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof Step)) {
+      return false;
+    }
+    Step other = (Step) o;
+    return other.kind == kind && other.amount == amount
+        && Objects.equals(other.component, component);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(kind, amount, component);
+  }
+
+  /**
+   * Writes the step the way it is written in a script, without the image names.
+   *
+   * @return the step as text.
+   */
+  @Override
+  public String toString() {
+    switch (kind) {
+      case BRIGHTEN:
+        return "brighten " + amount;
+      case COMPONENT:
+        return "component " + component;
+      case GREYSCALE:
+        return "greyscale";
+      case HORIZONTAL_FLIP:
+        return "horizontal-flip";
+      case VERTICAL_FLIP:
+        return "vertical-flip";
+      case ROTATE:
+        return "rotate " + amount;
+      default:
+        return "transpose";
+    }
+  }
+
+}
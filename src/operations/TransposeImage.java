@@ -0,0 +1,30 @@
+package operations;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import model.ImageModel;
+
+/**
+ * This function object runs the operation which swaps the rows and columns of the image.
+ */
+public class TransposeImage implements ImageCommand {
+
+  private ImageModel img;
+
+  /**
+   * The constructor for TransposeImage, initializes the img field.
+   *
+   * @param model the Image Model that the operation will be applied to.
+   */
+  public TransposeImage(ImageModel model) {
+    Objects.requireNonNull(model);
+    this.img = model;
+  }
+
+  @Override
+  public ImageModel command() throws IOException {
+    return img.transpose();
+  }
+
+}
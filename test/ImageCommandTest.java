@@ -1,23 +1,53 @@
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
+import model.BoxBlur;
+import model.ColorMatrix;
+import model.Convolution;
 import model.Coord;
 import model.FileModel;
+import model.FourierConvolution;
+import model.FusedImageModel;
+import model.GaussianBlur;
+import model.Histograms;
 import model.ImageModel;
+import model.Kernel;
+import model.Lanes;
+import model.LazyImageModel;
+import model.Mosaic;
+import model.OrientedImageModel;
 import model.PPMImageModel;
+import model.PPMReader;
+import model.PPMWriter;
+import model.PercentileFilter;
+import model.PixelBuffer;
+import model.PointOp;
 import model.Position;
+import model.Separation;
+import model.TileScheduler;
 import operations.BrightenImage;
 import operations.ColorTransformImage;
 import operations.FilterImage;
 import operations.GreyImage;
 import operations.HorizontalFlipImage;
 import operations.ImageCommand;
+import operations.LoadImage;
 import operations.MosaicImage;
+import operations.PlanImage;
+import operations.PlanOptimizer;
+import operations.RotateImage;
+import operations.Step;
+import operations.TransposeImage;
 import operations.VerticalFlipImage;
 
 /**
@@ -130,6 +160,916 @@ public class ImageCommandTest {
     Assert.assertEquals(result, img.getImage());
   }
 
+  /**
+   * Tests for the PixelBuffer class, that values are stored as bytes but read back as 0-255 and
+   * that the List view matches the old pixelList layout.
+   */
+  @Test
+  public void test_PixelBuffer() {
+    PixelBuffer buffer = new PixelBuffer(2, 1);
+    buffer.setRGB(0, 255, 128, 0);
+    buffer.setRGB(1, 1, 2, 3);
+    Assert.assertEquals(255, buffer.getRed(0));
+    Assert.assertEquals(128, buffer.getGreen(0));
+    Assert.assertEquals(0, buffer.getBlue(0));
+    Assert.assertEquals(3, buffer.get(5));
+
+    List<Integer> expected = new ArrayList<>();
+    int[] intArray = new int[]{255, 128, 0, 1, 2, 3};
+    for (int i : intArray) {
+      expected.add(i);
+    }
+    Assert.assertEquals(expected, buffer.asList());
+    Assert.assertEquals(buffer.asList(), PixelBuffer.fromList(expected, 2, 1).asList());
+
+    int[] row = new int[6];
+    buffer.getRow(0, row);
+    Assert.assertArrayEquals(intArray, row);
+  }
+
+  /**
+   * Tests that both kinds of ImageModel share the same pixels, so converting between them does
+   * not copy anything and a ppm can be shown as a BufferedImage.
+   */
+  @Test
+  public void test_ConvertBetweenSharesPixels() throws IOException {
+    PPMImageModel ppm = new PPMImageModel("images/testing.ppm", "bruh");
+    ImageModel file = ppm.convertBetween();
+    Assert.assertEquals("file", file.checkType());
+    Assert.assertSame(ppm.getPixels(), ((FileModel) file).getPixels());
+    Assert.assertEquals(ppm.getImage(), file.getImage());
+    Assert.assertEquals(0xFF555F4B, ppm.getBuffImage().getRGB(0, 2));
+  }
+
+  /**
+   * Tests that a memory mapped binary ppm is read in place, and that every command gives the same
+   * image from it as from the same ppm read onto the heap.
+   *
+   * @throws IOException if the temporary file can't be written.
+   */
+  @Test
+  public void test_MappedImage() throws IOException {
+    ImageModel heap = new PPMImageModel("images/sample.ppm", "heap");
+    File binary = File.createTempFile("mapped", ".ppm");
+    binary.deleteOnExit();
+    new PPMWriter(255).writeBinary(heap.getPixels(), binary.getPath());
+
+    ImageModel mapped = new PPMImageModel(binary.getPath(), "mapped", true);
+    Assert.assertTrue(mapped.getPixels().isMapped());
+    Assert.assertEquals(heap.getImage(), mapped.getImage());
+
+    ImageCommand[] heapCmds = new ImageCommand[]{new BrightenImage(heap, 20),
+        new HorizontalFlipImage(heap), new VerticalFlipImage(heap), new GreyImage(heap, "luna"),
+        new ColorTransformImage(heap, "sepia"), new FilterImage(heap, "sharpen")};
+    ImageCommand[] mappedCmds = new ImageCommand[]{new BrightenImage(mapped, 20),
+        new HorizontalFlipImage(mapped), new VerticalFlipImage(mapped),
+        new GreyImage(mapped, "luna"), new ColorTransformImage(mapped, "sepia"),
+        new FilterImage(mapped, "sharpen")};
+    for (int i = 0; i < heapCmds.length; i++) {
+      ImageModel result = mappedCmds[i].command();
+      Assert.assertFalse(result.getPixels().isMapped());
+      Assert.assertEquals(heapCmds[i].command().getImage(), result.getImage());
+    }
+    Assert.assertEquals(heap.getBuffImage().getRGB(2, 3), mapped.getBuffImage().getRGB(2, 3));
+  }
+
+  /**
+   * Tests that a mapped image can be saved back over the file it is mapped from, as either kind of
+   * ppm, without losing its pixels or the file.
+   *
+   * @throws IOException if the temporary file can't be written.
+   */
+  @Test
+  public void test_SaveMappedImageToItsOwnFile() throws IOException {
+    ImageModel heap = new PPMImageModel("images/sample.ppm", "heap");
+    File binary = File.createTempFile("mapped", ".ppm");
+    binary.deleteOnExit();
+    new PPMWriter(255).writeBinary(heap.getPixels(), binary.getPath());
+
+    ImageModel mapped = new PPMImageModel(binary.getPath(), "mapped", true);
+    Assert.assertTrue(mapped.getPixels().isMapped());
+    new PPMWriter(255).writeBinary(mapped.getPixels(), binary.getPath());
+    Assert.assertEquals(heap.getImage(), mapped.getImage());
+    Assert.assertEquals(heap.getImage(), new PPMImageModel(binary.getPath(), "again").getImage());
+
+    mapped = new PPMImageModel(binary.getPath(), "mapped", true);
+    new PPMWriter(255).writePlain(mapped.getPixels(), binary.getPath());
+    Assert.assertEquals(heap.getImage(), mapped.getImage());
+    Assert.assertEquals(heap.getImage(), new PPMImageModel(binary.getPath(), "plain").getImage());
+    File[] left = binary.getParentFile().listFiles((dir, name) -> name.startsWith("."
+        + binary.getName()));
+    Assert.assertEquals(0, left.length);
+  }
+
+  /**
+   * Tests that pixels mapped as several segments of rows, the way a P6 file over 2GB is, read the
+   * same as the same pixels in one segment, including a short last segment.
+   */
+  @Test
+  public void test_SegmentedMapping() {
+    PixelBuffer pixels = new PPMImageModel("images/sample.ppm", "sample").getPixels();
+    int width = pixels.getWidth();
+    int height = pixels.getHeight();
+    byte[] rgb = new byte[width * height * 3];
+    byte[] row = new byte[width * 3];
+    for (int y = 0; y < height; y++) {
+      pixels.readRow(y, row, 0);
+      for (int i = 0; i < row.length; i = i + 3) {
+        rgb[y * row.length + i] = row[i + 2];
+        rgb[y * row.length + i + 1] = row[i + 1];
+        rgb[y * row.length + i + 2] = row[i];
+      }
+    }
+    PixelBuffer whole = PixelBuffer.map(ByteBuffer.wrap(rgb), width, height);
+    int segmentRows = 2;
+    ByteBuffer[] segments = new ByteBuffer[(height + segmentRows - 1) / segmentRows];
+    for (int i = 0; i < segments.length; i++) {
+      int rows = Math.min(segmentRows, height - i * segmentRows);
+      segments[i] = ByteBuffer.wrap(rgb, i * segmentRows * row.length, rows * row.length)
+          .slice();
+    }
+    PixelBuffer split = PixelBuffer.map(segments, segmentRows, width, height);
+
+    Assert.assertEquals(pixels.asList(), whole.asList());
+    Assert.assertEquals(whole.asList(), split.asList());
+    byte[] region = new byte[6];
+    byte[] expected = new byte[6];
+    pixels.readRegion(height - 1, 1, 2, expected, 0);
+    split.readRegion(height - 1, 1, 2, region, 0);
+    Assert.assertArrayEquals(expected, region);
+    Assert.assertEquals(pixels.getBlue(width * height - 1), split.getBlue(width * height - 1));
+    Assert.assertEquals(pixels.get(width * height * 3 - 3), split.get(width * height * 3 - 3));
+    try {
+      PixelBuffer.map(new ByteBuffer[]{segments[0]}, segmentRows, width, height);
+      Assert.fail("too few segments were accepted");
+    } catch (IllegalArgumentException e) {
+      Assert.assertTrue(e.getMessage().contains("does not match"));
+    }
+  }
+
+  /**
+   * Tests that parsing a mapped P3 file in chunks gives the same pixels and errors as parsing it
+   * one byte at a time, however the chunks fall on the numbers and comments.
+   */
+  @Test
+  public void test_ParallelP3Parsing() throws IOException {
+    File plain = File.createTempFile("parallel", ".ppm");
+    plain.deleteOnExit();
+    ImageModel sample = new PPMImageModel("images/sample.ppm", "sample");
+    new PPMWriter(255).writePlain(sample.getPixels(), plain.getPath());
+    File comments = File.createTempFile("comments", ".ppm");
+    comments.deleteOnExit();
+    Files.write(comments.toPath(), ("P3\n2 2 # size\n255 # max\n1 2 3 # 9 9 9 # 9\n"
+        + "4 5 6#7 7 7\n\t7 8#\n9\r\n10 11 12 # trailing 13").getBytes(StandardCharsets.US_ASCII));
+    File bad = File.createTempFile("bad", ".ppm");
+    bad.deleteOnExit();
+    Files.write(bad.toPath(), "P3\n2 2\n255\n1 2 3\n4 5 6 # 7x\n7 8 9 10 11 300\n"
+        .getBytes(StandardCharsets.US_ASCII));
+
+    for (File file : new File[]{plain, comments}) {
+      List<Integer> expected;
+      try (PPMReader reader = new PPMReader(file.getPath())) {
+        expected = reader.readPixels().asList();
+      }
+      for (int chunks = 1; chunks <= 40; chunks++) {
+        try (PPMReader reader = PPMReader.map(file.getPath())) {
+          Assert.assertEquals(expected, reader.readPixels(chunks).asList());
+        }
+      }
+    }
+    List<Integer> values = new ArrayList<>();
+    for (int i : new int[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12}) {
+      values.add(i);
+    }
+    Assert.assertEquals(values, new PPMImageModel(comments.getPath(), "comments").getImage());
+
+    for (int chunks = 1; chunks <= 20; chunks++) {
+      try (PPMReader reader = PPMReader.map(bad.getPath())) {
+        reader.readPixels(chunks);
+        Assert.fail("The value 300 should not parse");
+      } catch (IllegalArgumentException e) {
+        Assert.assertEquals("Value 300 is larger than the maximum of 255 at line 6, column 16",
+            e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Tests that a loaded image only reads its header until the pixels are needed.
+   */
+  @Test
+  public void test_LazyImageModel() throws IOException {
+    LazyImageModel ppm = (LazyImageModel) new LoadImage("images/sample.ppm", "sample").command();
+    LazyImageModel jpg = (LazyImageModel) new LoadImage("res/duck.jpg", "duck").command();
+    ImageModel eagerPPM = new PPMImageModel("images/sample.ppm", "sample");
+    ImageModel eagerJPG = new FileModel("res/duck.jpg");
+
+    Assert.assertEquals(eagerPPM.getWidth(), ppm.getWidth());
+    Assert.assertEquals(eagerPPM.getHeight(), ppm.getHeight());
+    Assert.assertEquals("ppm", ppm.checkType());
+    Assert.assertEquals(eagerJPG.getWidth(), jpg.getWidth());
+    Assert.assertEquals(eagerJPG.getHeight(), jpg.getHeight());
+    Assert.assertEquals("file", jpg.checkType());
+    Assert.assertSame(ppm, new MosaicImage(ppm, 0, new Random(1), new Random(2)).command());
+    Assert.assertFalse(ppm.isDecoded());
+    Assert.assertFalse(jpg.isDecoded());
+
+    Assert.assertEquals(eagerPPM.getImage(), new BrightenImage(ppm, 0).command().getImage());
+    Assert.assertTrue(ppm.isDecoded());
+    Assert.assertEquals(eagerJPG.getImage(), jpg.getImage());
+    Assert.assertTrue(jpg.isDecoded());
+  }
+
+  /**
+   * Tests the convolution engine against adding up every tap of the kernel one pixel at a time,
+   * with both kinds of border and with kernels wider than the image.
+   */
+  @Test
+  public void test_Convolution() {
+    Random rand = new Random(10);
+    for (int[] size : new int[][]{{7, 5}, {2, 3}, {1, 1}, {12, 9}}) {
+      PixelBuffer source = new PixelBuffer(size[0], size[1]);
+      rand.nextBytes(source.getData());
+      for (int dim = 1; dim <= 5; dim = dim + 2) {
+        double[] weights = new double[dim * dim];
+        for (int i = 0; i < weights.length; i++) {
+          weights[i] = (rand.nextInt(17) - 6) / 8.0;
+        }
+        Kernel kernel = new Kernel(weights);
+        for (Convolution.Border border : Convolution.Border.values()) {
+          this.checkConvolution(source, kernel, border);
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests that kernels made of one or two separable terms are split into them when that is
+   * faster, that blur and sharpen are not, and that splitting gives exactly the same pixels as
+   * adding up every tap.
+   */
+  @Test
+  public void test_Separation() {
+    Random rand = new Random(11);
+    Assert.assertFalse(new Convolution(Kernel.BLUR, Convolution.Border.ZERO).isSeparable());
+    Assert.assertFalse(new Convolution(Kernel.SHARPEN, Convolution.Border.ZERO).isSeparable());
+    Assert.assertEquals(1, new Separation(Kernel.BLUR).getRank());
+    Assert.assertEquals(3, new Separation(Kernel.SHARPEN).getRank());
+    Assert.assertEquals(0, new Separation(new Kernel(new double[9])).getRank());
+
+    for (int[] size : new int[][]{{7, 5}, {2, 3}, {1, 1}, {12, 9}}) {
+      PixelBuffer source = new PixelBuffer(size[0], size[1]);
+      rand.nextBytes(source.getData());
+      for (int dim = 5; dim <= 9; dim = dim + 2) {
+        for (int rank = 1; rank <= 2; rank++) {
+          double[] weights = new double[dim * dim];
+          for (int t = 0; t < rank; t++) {
+            double[] down = new double[dim];
+            double[] along = new double[dim];
+            for (int i = 0; i < dim; i++) {
+              down[i] = (rand.nextInt(9) - 2) / 4.0;
+              along[i] = (rand.nextInt(8) + 1) / 16.0;
+            }
+            for (int i = 0; i < weights.length; i++) {
+              weights[i] += down[i / dim] * along[i % dim];
+            }
+          }
+          Kernel kernel = new Kernel(weights);
+          Separation separation = new Separation(kernel);
+          Assert.assertTrue(separation.getRank() <= rank);
+          Assert.assertTrue(separation.getError() <= Separation.TOLERANCE);
+          for (int i = 0; i < weights.length; i++) {
+            double rebuilt = 0;
+            for (int t = 0; t < separation.getRank(); t++) {
+              rebuilt += separation.getColumn(t)[i / dim] * separation.getRow(t)[i % dim];
+            }
+            Assert.assertEquals(weights[i], rebuilt, 1e-9);
+          }
+          Assert.assertEquals(rank == 1 || dim == 9,
+              new Convolution(kernel, Convolution.Border.ZERO).isSeparable());
+          for (Convolution.Border border : Convolution.Border.values()) {
+            this.checkConvolution(source, kernel, border);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests that big kernels go through the Fourier transform on big images, and that it gives
+   * exactly the same pixels as adding up every tap for weights over a power of two, and never
+   * more than one level higher for any other weights, on any number of threads.
+   */
+  @Test
+  public void test_FourierConvolution() {
+    Random rand = new Random(12);
+    Assert.assertFalse(new Convolution(Kernel.BLUR, Convolution.Border.ZERO)
+        .isFourier(3000, 2000));
+    double[] box = new double[31 * 31];
+    Arrays.fill(box, 1.0 / box.length);
+    Assert.assertTrue(new Convolution(new Kernel(box), Convolution.Border.ZERO)
+        .isFourier(3000, 2000));
+    int before = TileScheduler.getParallelism();
+    try {
+      for (int threads : new int[]{1, 3}) {
+        TileScheduler.setParallelism(threads);
+        for (int[] size : new int[][]{{40, 30}, {1, 1}, {3, 50}, {290, 20}}) {
+          PixelBuffer source = new PixelBuffer(size[0], size[1]);
+          rand.nextBytes(source.getData());
+          for (int dim : new int[]{1, 9, 31}) {
+            double[] dyadic = new double[dim * dim];
+            double[] any = new double[dim * dim];
+            for (int i = 0; i < dyadic.length; i++) {
+              dyadic[i] = (rand.nextInt(17) - 6) / 256.0;
+              any[i] = (rand.nextInt(17) - 6) / (dim * 7.0);
+            }
+            for (Convolution.Border border : Convolution.Border.values()) {
+              Kernel kernel = new Kernel(dyadic);
+              this.checkConvolution(source, kernel, border,
+                  new FourierConvolution(kernel, border).apply(source));
+              kernel = new Kernel(any);
+              byte[] result = new FourierConvolution(kernel, border).apply(source).getData();
+              byte[] taps = new Convolution(kernel, border).apply(source).getData();
+              for (int i = 0; i < result.length; i++) {
+                int difference = (result[i] & 0xFF) - (taps[i] & 0xFF);
+                Assert.assertTrue(difference == 0 || difference == 1);
+              }
+            }
+          }
+        }
+      }
+    } finally {
+      TileScheduler.setParallelism(before);
+    }
+  }
+
+  /**
+   * Checks a convolution against adding up every tap of the kernel for every pixel.
+   */
+  private void checkConvolution(PixelBuffer source, Kernel kernel, Convolution.Border border) {
+    this.checkConvolution(source, kernel, border, new Convolution(kernel, border).apply(source));
+  }
+
+  private void checkConvolution(PixelBuffer source, Kernel kernel, Convolution.Border border,
+                                PixelBuffer result) {
+    int width = source.getWidth();
+    int height = source.getHeight();
+    int dim = kernel.getSize();
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        double[] sums = new double[3];
+        for (int ky = 0; ky < dim; ky++) {
+          for (int kx = 0; kx < dim; kx++) {
+            int sx = x - dim / 2 + kx;
+            int sy = y - dim / 2 + ky;
+            if (border == Convolution.Border.CLAMP) {
+              sx = Math.max(0, Math.min(width - 1, sx));
+              sy = Math.max(0, Math.min(height - 1, sy));
+            } else if (sx < 0 || sy < 0 || sx >= width || sy >= height) {
+              continue;
+            }
+            int p = sy * width + sx;
+            sums[0] += kernel.get(kx, ky) * source.getRed(p);
+            sums[1] += kernel.get(kx, ky) * source.getGreen(p);
+            sums[2] += kernel.get(kx, ky) * source.getBlue(p);
+          }
+        }
+        int p = y * width + x;
+        Assert.assertEquals((int) Math.max(0, Math.min(255, sums[0])), result.getRed(p));
+        Assert.assertEquals((int) Math.max(0, Math.min(255, sums[1])), result.getGreen(p));
+        Assert.assertEquals((int) Math.max(0, Math.min(255, sums[2])), result.getBlue(p));
+      }
+    }
+  }
+
+  /**
+   * Tests the running sum box blur against averaging every pixel of the square one at a time,
+   * with both kinds of border, radii wider than the image and several threads.
+   */
+  @Test
+  public void test_BoxBlur() {
+    Random rand = new Random(20);
+    int before = TileScheduler.getParallelism();
+    try {
+      for (int threads : new int[]{1, 3}) {
+        TileScheduler.setParallelism(threads);
+        for (int[] size : new int[][]{{7, 5}, {2, 3}, {1, 1}, {13, 11}}) {
+          PixelBuffer source = new PixelBuffer(size[0], size[1]);
+          rand.nextBytes(source.getData());
+          for (int radius : new int[]{0, 1, 2, 4, 15}) {
+            for (Convolution.Border border : Convolution.Border.values()) {
+              byte[] result = new BoxBlur(radius, border).apply(source).getData();
+              long area = (2L * radius + 1) * (2L * radius + 1);
+              for (int y = 0; y < size[1]; y++) {
+                for (int x = 0; x < size[0]; x++) {
+                  long[] sums = new long[3];
+                  for (int sy = y - radius; sy <= y + radius; sy++) {
+                    for (int sx = x - radius; sx <= x + radius; sx++) {
+                      int cx = Math.max(0, Math.min(size[0] - 1, sx));
+                      int cy = Math.max(0, Math.min(size[1] - 1, sy));
+                      if (border == Convolution.Border.ZERO && (cx != sx || cy != sy)) {
+                        continue;
+                      }
+                      for (int c = 0; c < 3; c++) {
+                        sums[c] += source.getData()[(cy * size[0] + cx) * 3 + c] & 0xFF;
+                      }
+                    }
+                  }
+                  for (int c = 0; c < 3; c++) {
+                    Assert.assertEquals(sums[c] / area,
+                        result[(y * size[0] + x) * 3 + c] & 0xFF);
+                  }
+                }
+              }
+            }
+          }
+        }
+      }
+    } finally {
+      TileScheduler.setParallelism(before);
+    }
+    try {
+      new BoxBlur(-1, Convolution.Border.ZERO);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      Assert.assertEquals("The radius must be between 0 and 1048576, not -1", e.getMessage());
+    }
+  }
+  /**
+   * Tests the Gaussian blur against weighting every pixel of the square one at a time, exactly
+   * enough for the sampled taps and within a few levels for the recursive filter, and that a flat
+   * image stays flat and the result is the same on several threads.
+   */
+  @Test
+  public void test_GaussianBlur() {
+    int width = 30;
+    int height = 20;
+    PixelBuffer source = new PixelBuffer(width, height);
+    new Random(21).nextBytes(source.getData());
+    byte[] data = source.getData();
+    for (double sigma : new double[]{.5, 1.5, 2, 3, 6}) {
+      int radius = (int) Math.ceil(3 * sigma);
+      double[] taps = new double[2 * radius + 1];
+      double total = 0;
+      for (int i = 0; i < taps.length; i++) {
+        taps[i] = Math.exp(-(i - radius) * (i - radius) / (2 * sigma * sigma));
+        total = total + taps[i];
+      }
+      for (Convolution.Border border : Convolution.Border.values()) {
+        byte[] result = new GaussianBlur(sigma, border).apply(source).getData();
+        for (int y = 0; y < height; y++) {
+          for (int x = 0; x < width; x++) {
+            for (int c = 0; c < 3; c++) {
+              double sum = 0;
+              for (int sy = y - radius; sy <= y + radius; sy++) {
+                for (int sx = x - radius; sx <= x + radius; sx++) {
+                  int cx = Math.max(0, Math.min(width - 1, sx));
+                  int cy = Math.max(0, Math.min(height - 1, sy));
+                  if (border == Convolution.Border.ZERO && (cx != sx || cy != sy)) {
+                    continue;
+                  }
+                  sum += taps[sx - x + radius] * taps[sy - y + radius] / total / total
+                      * (data[(cy * width + cx) * 3 + c] & 0xFF);
+                }
+              }
+              int difference = Math.abs((int) Math.round(sum)
+                  - (result[(y * width + x) * 3 + c] & 0xFF));
+              Assert.assertTrue(difference <= (sigma <= GaussianBlur.RECURSIVE_SIGMA ? 1 : 6));
+            }
+          }
+        }
+      }
+    }
+
+    PixelBuffer flat = new PixelBuffer(width, height);
+    Arrays.fill(flat.getData(), (byte) 173);
+    for (double sigma : new double[]{1, 40}) {
+      Assert.assertArrayEquals(flat.getData(),
+          new GaussianBlur(sigma, Convolution.Border.CLAMP).apply(flat).getData());
+    }
+    PixelBuffer big = new PixelBuffer(700, 90);
+    new Random(3).nextBytes(big.getData());
+    int before = TileScheduler.getParallelism();
+    try {
+      for (double sigma : new double[]{1.2, 7}) {
+        TileScheduler.setParallelism(1);
+        byte[] one = new GaussianBlur(sigma, Convolution.Border.ZERO).apply(big).getData();
+        TileScheduler.setParallelism(3);
+        Assert.assertArrayEquals(one,
+            new GaussianBlur(sigma, Convolution.Border.ZERO).apply(big).getData());
+      }
+    } finally {
+      TileScheduler.setParallelism(before);
+    }
+    try {
+      new GaussianBlur(0, Convolution.Border.ZERO);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      Assert.assertEquals("The sigma must be more than 0 and at most 1000, not 0.0",
+          e.getMessage());
+    }
+  }
+
+
+
+  /**
+   * Tests the histogram percentile filter against sorting every square one at a time, with both
+   * kinds of border, radii wider than the image and several threads.
+   */
+  @Test
+  public void test_PercentileFilter() {
+    Random rand = new Random(21);
+    int before = TileScheduler.getParallelism();
+    try {
+      for (int threads : new int[]{1, 3}) {
+        TileScheduler.setParallelism(threads);
+        for (int[] size : new int[][]{{7, 5}, {2, 3}, {1, 1}, {40, 11}}) {
+          PixelBuffer source = new PixelBuffer(size[0], size[1]);
+          byte[] data = source.getData();
+          for (int i = 0; i < data.length; i++) {
+            // few levels, so the squares have plenty of ties
+            data[i] = (byte) (rand.nextInt(6) * 50);
+          }
+          for (int radius : new int[]{0, 1, 2, 6}) {
+            for (double percentile : new double[]{0, 25, PercentileFilter.MEDIAN, 90, 100}) {
+              for (Convolution.Border border : Convolution.Border.values()) {
+                byte[] result = new PercentileFilter(radius, percentile, border).apply(source)
+                    .getData();
+                int side = 2 * radius + 1;
+                int rank = (int) Math.round(percentile / 100 * (side * side - 1));
+                for (int y = 0; y < size[1]; y++) {
+                  for (int x = 0; x < size[0]; x++) {
+                    for (int c = 0; c < 3; c++) {
+                      int[] square = new int[side * side];
+                      int n = 0;
+                      for (int sy = y - radius; sy <= y + radius; sy++) {
+                        for (int sx = x - radius; sx <= x + radius; sx++) {
+                          int cy = Math.max(0, Math.min(size[1] - 1, sy));
+                          int cx = Math.max(0, Math.min(size[0] - 1, sx));
+                          boolean outside = cy != sy || cx != sx;
+                          square[n++] = outside && border == Convolution.Border.ZERO ? 0
+                              : data[(cy * size[0] + cx) * 3 + c] & 0xFF;
+                        }
+                      }
+                      Arrays.sort(square);
+                      Assert.assertEquals(square[rank],
+                          result[(y * size[0] + x) * 3 + c] & 0xFF);
+                    }
+                  }
+                }
+              }
+            }
+          }
+        }
+      }
+    } finally {
+      TileScheduler.setParallelism(before);
+    }
+    try {
+      new PercentileFilter(2, 101, Convolution.Border.ZERO);
+      Assert.fail("expected an error");
+    } catch (IllegalArgumentException e) {
+      Assert.assertEquals("The percentile must be between 0 and 100, not 101.0", e.getMessage());
+    }
+  }
+
+  /**
+   * Tests that the one pass histograms count the same as counting every level on its own, on any
+   * number of threads, and that they agree with the component lists of a model.
+   */
+  @Test
+  public void test_Histograms() throws IOException {
+    Random rand = new Random(22);
+    int before = TileScheduler.getParallelism();
+    try {
+      for (int threads : new int[]{1, 3}) {
+        TileScheduler.setParallelism(threads);
+        for (int[] size : new int[][]{{7, 5}, {1, 1}, {300, 70}}) {
+          PixelBuffer source = new PixelBuffer(size[0], size[1]);
+          rand.nextBytes(source.getData());
+          Histograms histograms = new Histograms(source);
+          int[][] expected = new int[4][256];
+          for (int p = 0; p < size[0] * size[1]; p++) {
+            int r = source.getRed(p);
+            int g = source.getGreen(p);
+            int b = source.getBlue(p);
+            expected[0][r]++;
+            expected[1][g]++;
+            expected[2][b]++;
+            expected[3][(r + g + b) / 3]++;
+          }
+          Assert.assertArrayEquals(expected[0], histograms.getRed());
+          Assert.assertArrayEquals(expected[1], histograms.getGreen());
+          Assert.assertArrayEquals(expected[2], histograms.getBlue());
+          Assert.assertArrayEquals(expected[3], histograms.getIntensity());
+        }
+      }
+    } finally {
+      TileScheduler.setParallelism(before);
+    }
+
+    ImageModel model = new PPMImageModel("images/testing.ppm", "bruh");
+    Histograms histograms = model.histograms();
+    String[] components = {"red", "green", "blue", "intensity"};
+    int[][] counts = {histograms.getRed(), histograms.getGreen(), histograms.getBlue(),
+        histograms.getIntensity()};
+    for (int c = 0; c < components.length; c++) {
+      int[] expected = new int[256];
+      for (int level : model.makeComponentList(components[c])) {
+        expected[level]++;
+      }
+      Assert.assertArrayEquals(expected, counts[c]);
+    }
+  }
+
+  /**
+   * Tests that splitting the operations into tiles over several threads gives exactly the same
+   * pixels as running them on one thread, for an image several tiles wide and tall.
+   */
+  @Test
+  public void test_TiledOperations() throws IOException {
+    PixelBuffer source = new PixelBuffer(1100, 150);
+    new Random(3).nextBytes(source.getData());
+    ImageModel model = new FileModel(source);
+    Kernel wide = new Kernel(new double[]{.5, -.25, .125, 0, .75, 1, .25, -.5, .375});
+    int before = TileScheduler.getParallelism();
+    List<List<Integer>> results = new ArrayList<>();
+    try {
+      for (int threads : new int[]{1, 4}) {
+        TileScheduler.setParallelism(threads);
+        ImageModel[] outputs = new ImageModel[]{model.brighten(-40), model.horizontalFlip(),
+            model.verticalFlip(), model.rotate(90), model.transpose(), model.compGrey("luna"),
+            model.colorTransform("sepia"),
+            model.filterImage("sharpen"), model.convolve(wide, Convolution.Border.CLAMP),
+            model.boxBlur(3, Convolution.Border.ZERO),
+            model.boxBlur(40, Convolution.Border.CLAMP),
+            model.gaussianBlur(1.5, Convolution.Border.ZERO),
+            model.gaussianBlur(9, Convolution.Border.CLAMP)};
+        for (ImageModel output : outputs) {
+          results.add(new ArrayList<>(output.getImage()));
+        }
+      }
+    } finally {
+      TileScheduler.setParallelism(before);
+    }
+    for (int i = 0; i < results.size() / 2; i++) {
+      Assert.assertEquals(results.get(i), results.get(i + results.size() / 2));
+    }
+    Assert.assertEquals(model.getPixels().getRed(1099), results.get(1).get(0).intValue());
+  }
+
+  /**
+   * Tests that flips, rotations and transposes are views that only move the pixels when they are
+   * needed, that chains of them compose, and that they give the right pixels for all eight
+   * orientations of an image bigger than one tile.
+   */
+  @Test
+  public void test_GeometricViews() throws IOException {
+    int width = 700;
+    int height = 90;
+    PixelBuffer source = new PixelBuffer(width, height);
+    new Random(6).nextBytes(source.getData());
+    ImageModel model = new FileModel(source);
+
+    ImageModel rotated = new RotateImage(model, 90).command();
+    Assert.assertTrue(rotated instanceof OrientedImageModel);
+    Assert.assertFalse(((OrientedImageModel) rotated).isApplied());
+    Assert.assertEquals(height, rotated.getWidth());
+    Assert.assertEquals(width, rotated.getHeight());
+    Assert.assertSame(model, rotated.rotate(270));
+    Assert.assertSame(model, model.horizontalFlip().horizontalFlip());
+    Assert.assertSame(model, model.transpose().rotate(90).horizontalFlip());
+
+    ImageModel[] views = new ImageModel[]{model.horizontalFlip(), model.verticalFlip(), rotated,
+        model.rotate(180), model.rotate(270), new TransposeImage(model).command(),
+        model.transpose().rotate(180), model.rotate(90).verticalFlip().verticalFlip()};
+    int[][] expected = new int[views.length][];
+    for (int v = 0; v < views.length; v++) {
+      boolean turned = views[v].getWidth() == height;
+      int outWidth = turned ? height : width;
+      expected[v] = new int[width * height * 3];
+      for (int y = 0; y < (turned ? width : height); y++) {
+        for (int x = 0; x < outWidth; x++) {
+          int[] from = new int[][]{{width - 1 - x, y}, {x, height - 1 - y}, {y, height - 1 - x},
+              {width - 1 - x, height - 1 - y}, {width - 1 - y, x}, {y, x},
+              {width - 1 - y, height - 1 - x}, {y, height - 1 - x}}[v];
+          int p = from[1] * width + from[0];
+          int at = (y * outWidth + x) * 3;
+          expected[v][at] = source.getRed(p);
+          expected[v][at + 1] = source.getGreen(p);
+          expected[v][at + 2] = source.getBlue(p);
+        }
+      }
+    }
+    for (int v = 0; v < views.length; v++) {
+      List<Integer> image = views[v].getImage();
+      for (int i = 0; i < expected[v].length; i++) {
+        Assert.assertEquals(expected[v][i], image.get(i).intValue());
+      }
+    }
+    try {
+      model.rotate(45);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      Assert.assertEquals("The rotation must be 90, 180 or 270 degrees, not 45", e.getMessage());
+    }
+  }
+
+  /**
+   * Tests that the optimizer shortens chains of steps, and that random chains give exactly the
+   * same pixels before and after they are rewritten.
+   */
+  @Test
+  public void test_PlanOptimizer() throws IOException {
+    Assert.assertEquals("brighten 15, vertical-flip", new PlanImage(new FileModel(
+        new PixelBuffer(1, 1)), Arrays.asList(Step.horizontalFlip(), Step.brighten(10),
+        Step.rotate(180), Step.brighten(5))).then(Step.brighten(0)).toString());
+    Assert.assertEquals(Arrays.asList(Step.brighten(10), Step.brighten(-10)),
+        PlanOptimizer.optimize(Arrays.asList(Step.brighten(10), Step.brighten(-10))));
+    Assert.assertEquals(Arrays.asList(Step.brighten(255)),
+        PlanOptimizer.optimize(Arrays.asList(Step.brighten(200), Step.brighten(200))));
+    Assert.assertEquals(Arrays.asList(Step.component("red"), Step.brighten(4)),
+        PlanOptimizer.optimize(Arrays.asList(Step.component("red"), Step.transpose(),
+            Step.brighten(4), Step.component("value"), Step.transpose())));
+    Assert.assertEquals(Arrays.asList(Step.transpose(), Step.rotate(180)),
+        PlanOptimizer.optimize(Arrays.asList(Step.rotate(90), Step.verticalFlip())));
+    Assert.assertEquals(Arrays.asList(Step.transpose()), PlanOptimizer.optimize(
+        Arrays.asList(Step.rotate(90), Step.verticalFlip(), Step.rotate(180))));
+
+    PixelBuffer source = new PixelBuffer(7, 5);
+    new Random(18).nextBytes(source.getData());
+    source.getData()[0] = (byte) 255;
+    source.getData()[1] = (byte) 255;
+    source.getData()[2] = (byte) 255;
+    ImageModel model = new FileModel(source);
+    Step[] choices = new Step[]{Step.brighten(30), Step.brighten(-30), Step.brighten(250),
+        Step.brighten(-7), Step.component("red"), Step.component("luna"),
+        Step.component("intensity"), Step.component("value"), Step.greyscale(),
+        Step.horizontalFlip(), Step.verticalFlip(), Step.rotate(90), Step.rotate(180),
+        Step.rotate(270), Step.transpose()};
+    Random random = new Random(1018);
+    for (int i = 0; i < 3000; i++) {
+      List<Step> steps = new ArrayList<>();
+      for (int n = random.nextInt(7); n > 0; n--) {
+        steps.add(choices[random.nextInt(choices.length)]);
+      }
+      List<Step> optimized = PlanOptimizer.optimize(steps);
+      Assert.assertTrue(optimized.size() <= steps.size());
+      ImageModel expected = new PlanImage(model, steps).command();
+      ImageModel actual = new PlanImage(model, optimized).command();
+      Assert.assertEquals(steps.toString(), expected.getWidth(), actual.getWidth());
+      Assert.assertEquals(steps.toString(), expected.getImage(), actual.getImage());
+    }
+  }
+
+  /**
+   * Tests that a chain of point operations is only run once, when its pixels are needed, and gives
+   * exactly the same image as running each operation on its own.
+   */
+  @Test
+  public void test_FusedPointOperations() throws IOException {
+    PixelBuffer source = new PixelBuffer(40, 30);
+    new Random(5).nextBytes(source.getData());
+    String[] steps = new String[]{"brighten 35", "brighten -60", "red", "green", "blue", "value",
+        "intensity", "luna", "greyscale", "nothing"};
+    Random rand = new Random(8);
+    for (int chain = 0; chain < 200; chain++) {
+      ImageModel fused = new FileModel(source);
+      ImageModel stepped = new FileModel(source);
+      for (int i = 0; i < 4; i++) {
+        String[] step = steps[rand.nextInt(steps.length)].split(" ");
+        fused = this.pointStep(fused, step);
+        stepped = this.pointStep(new FileModel(stepped.getPixels().copy()), step);
+      }
+      Assert.assertTrue(fused instanceof FusedImageModel);
+      Assert.assertFalse(((FusedImageModel) fused).isApplied());
+      Assert.assertEquals(stepped.getImage(), fused.getImage());
+      Assert.assertTrue(((FusedImageModel) fused).isApplied());
+    }
+  }
+
+  private ImageModel pointStep(ImageModel model, String[] step) throws IOException {
+    switch (step[0]) {
+      case "brighten":
+        return new BrightenImage(model, Integer.parseInt(step[1])).command();
+      case "greyscale":
+        return new ColorTransformImage(model, "greyscale").command();
+      default:
+        return new GreyImage(model, step[0]).command();
+    }
+  }
+
+  /**
+   * Tests that the fixed point ColorMatrix gives exactly what the double arithmetic gives, for the
+   * sepia and greyscale presets over every possible color and for random matrices with negative
+   * weights and offsets.
+   */
+  @Test
+  public void test_ColorMatrix() {
+    double[] sepia = new double[]{0.393, 0.769, 0.189, 0.349, 0.686, 0.168, 0.272, 0.534, 0.131};
+    double[] grey = new double[]{0.2126, 0.7152, 0.0722, 0.2126, 0.7152, 0.0722,
+        0.2126, 0.7152, 0.0722};
+    byte[] bgr = new byte[256 * 256 * 3];
+    for (int b = 0; b < 256; b++) {
+      this.checkMatrix(ColorMatrix.SEPIA, sepia, new double[3], bgr, b);
+      this.checkMatrix(ColorMatrix.GREYSCALE, grey, new double[3], bgr, b);
+    }
+    Random rand = new Random(13);
+    for (int m = 0; m < 20; m++) {
+      double[] weights = new double[9];
+      double[] offsets = new double[3];
+      for (int i = 0; i < 9; i++) {
+        weights[i] = (rand.nextInt(4001) - 2000) / 1000.0;
+      }
+      for (int i = 0; i < 3; i++) {
+        offsets[i] = rand.nextInt(201) - 100;
+      }
+      ColorMatrix matrix = new ColorMatrix(weights, offsets);
+      for (int b = 0; b < 256; b = b + 15) {
+        this.checkMatrix(matrix, weights, offsets, bgr, b);
+      }
+    }
+    try {
+      new ColorMatrix(new double[]{1, 0, 0, 0, 1, 0, 0, 0});
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      Assert.assertEquals("A color matrix needs 9 weights and 3 offsets", e.getMessage());
+    }
+  }
+  /**
+   * Tests that the saturating adds and fixed point sums in Lanes give exactly the same bytes as
+   * the scalar loops, for every byte and brighten amount and for filters with and without a
+   * fixed point form.
+   */
+  @Test
+  public void test_Lanes() {
+    byte[] every = new byte[256 * 3 + 5];
+    for (int i = 0; i < every.length; i++) {
+      every[i] = (byte) i;
+    }
+    for (int value = -300; value <= 300; value++) {
+      byte[] lanes = every.clone();
+      PointOp.brighten(value).apply(lanes, 1, every.length - 1);
+      for (int i = 0; i < every.length; i++) {
+        int expected = i == 0 || i == every.length - 1 ? i & 0xFF
+            : Math.max(0, Math.min(255, (i & 0xFF) + value));
+        Assert.assertEquals(expected, lanes[i] & 0xFF);
+      }
+    }
+    Assert.assertNull(Lanes.fixedPoint(new double[]{1 / 9.0, 1 / 9.0}));
+    Assert.assertNull(Lanes.fixedPoint(new double[]{0.1}));
+    Assert.assertNull(Lanes.fixedPoint(new double[]{1 << 24}));
+    Assert.assertArrayEquals(new int[]{1, 2, -16, 4}, Lanes.fixedPoint(
+        new double[]{.0625, .125, -1}));
+
+    PixelBuffer source = new PixelBuffer(300, 40);
+    new Random(19).nextBytes(source.getData());
+    Kernel[] kernels = new Kernel[]{Kernel.BLUR, Kernel.SHARPEN, new Kernel(new double[]{.5,
+        -.25, .125, 0, .75, 1, .25, -.5, .375}), new Kernel(new double[]{1 / 9.0, .1, 1 / 3.0,
+        -.2, 1, .7, 1 / 9.0, 0, .3})};
+    try {
+      for (Kernel kernel : kernels) {
+        for (Convolution.Border border : Convolution.Border.values()) {
+          Lanes.setEnabled(true);
+          PixelBuffer withLanes = new Convolution(kernel, border).apply(source);
+          Lanes.setEnabled(false);
+          PixelBuffer scalar = new Convolution(kernel, border).apply(source);
+          Assert.assertArrayEquals(scalar.getData(), withLanes.getData());
+        }
+      }
+      PointOp op = PointOp.brighten(40).then(PointOp.brighten(-90));
+      PixelBuffer scalar = op.apply(source);
+      Lanes.setEnabled(true);
+      Assert.assertArrayEquals(scalar.getData(), op.apply(source).getData());
+      op = PointOp.brighten(70).then(PointOp.brighten(30));
+      Assert.assertArrayEquals(op.apply(source).getData(),
+          PointOp.brighten(100).apply(source).getData());
+    } finally {
+      Lanes.setEnabled(true);
+    }
+  }
+
+
+  private void checkMatrix(ColorMatrix matrix, double[] weights, double[] offsets, byte[] bgr,
+                           int blue) {
+    for (int i = 0; i < 256 * 256; i++) {
+      bgr[i * 3] = (byte) blue;
+      bgr[i * 3 + 1] = (byte) (i >> 8);
+      bgr[i * 3 + 2] = (byte) i;
+    }
+    matrix.apply(bgr, 0, bgr.length);
+    for (int i = 0; i < 256 * 256; i++) {
+      int r = i & 0xFF;
+      int g = i >> 8;
+      for (int row = 0; row < 3; row++) {
+        double value = (weights[row * 3] * r) + (weights[row * 3 + 1] * g)
+            + (weights[row * 3 + 2] * blue) + offsets[row];
+        int expected = (int) Math.max(0, Math.min(255, value));
+        Assert.assertEquals(expected, bgr[i * 3 + 2 - row] & 0xFF);
+      }
+    }
+  }
+
   /**
    * Tests for the Position class.
    */
@@ -163,8 +1103,10 @@ public class ImageCommandTest {
     List<Integer> mosaic = cmd_mosaic.command().getImage();
     List<Integer> expected = new ArrayList<Integer>();
 
-    int[] sample = new int[]{81, 81, 81, 81, 81, 81, 81, 81, 81, 210, 215, 205, 106, 141, 71,
-        81, 81, 81, 210, 215, 205, 106, 141, 71, 106, 141, 71};
+    // each region is the average of its own pixels, (0 + 255 + 0 + 70) / 4, (255 + 85) / 2 and
+    // (10 + 0 + 100) / 3 for red
+    int[] sample = new int[]{81, 81, 81, 81, 81, 81, 81, 81, 81, 170, 175, 165, 36, 70, 3,
+        81, 81, 81, 170, 175, 165, 36, 70, 3, 36, 70, 3};
 
     for (int i : sample) {
       expected.add(i);
@@ -174,6 +1116,79 @@ public class ImageCommandTest {
     }
   }
 
+  /**
+   * Tests that the grid search in Mosaic finds the same seed as checking every seed, including
+   * which seed wins a tie, on images of many shapes.
+   */
+  @Test
+  public void test_MosaicNearestSeed() {
+    Random rand = new Random(3);
+    for (int t = 0; t < 100; t++) {
+      int width = 1 + rand.nextInt(40);
+      int height = 1 + rand.nextInt(40);
+      int count = 1 + rand.nextInt(Math.min(width * height, 60));
+      int[] seeds = Mosaic.sample(width, height, count, new Random(t), new Random(t + 1));
+      Mosaic mosaic = new Mosaic(width, height, seeds);
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          int best = -1;
+          int min = Integer.MAX_VALUE;
+          for (int s = 0; s < count; s++) {
+            int dx = seeds[s] % width - x;
+            int dy = seeds[s] / width - y;
+            if (dx * dx + dy * dy <= min) {
+              best = s;
+              min = dx * dx + dy * dy;
+            }
+          }
+          Assert.assertEquals(best, mosaic.nearest(x, y));
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests that a mosaic from a single seed is the same every time and on any number of threads,
+   * and that a different seed gives a different one.
+   */
+  @Test
+  public void test_SeededMosaic() throws IOException {
+    PixelBuffer source = new PixelBuffer(300, 200);
+    new Random(4).nextBytes(source.getData());
+    ImageModel model = new FileModel(source);
+    int before = TileScheduler.getParallelism();
+    List<List<Integer>> results = new ArrayList<>();
+    try {
+      for (int threads : new int[]{1, 3, 8}) {
+        TileScheduler.setParallelism(threads);
+        results.add(new MosaicImage(model, 500, 42L).command().getImage());
+      }
+    } finally {
+      TileScheduler.setParallelism(before);
+    }
+    Assert.assertEquals(results.get(0), results.get(1));
+    Assert.assertEquals(results.get(0), results.get(2));
+    Assert.assertNotEquals(results.get(0), model.mosaic(500, 43L).getImage());
+    Assert.assertArrayEquals(Mosaic.sample(300, 200, 500, 42L), Mosaic.sample(300, 200, 500, 42L));
+  }
+
+  /**
+   * Tests that seeds picked from a single seed are distinct pixels of the image, whether a few
+   * pixels are picked or every one of them.
+   */
+  @Test
+  public void test_SeededSampleDistinct() {
+    for (int count : new int[]{0, 1, 37, 1500, 59999, 60000}) {
+      int[] seeds = Mosaic.sample(300, 200, count, 7L);
+      Assert.assertEquals(count, seeds.length);
+      boolean[] picked = new boolean[300 * 200];
+      for (int seed : seeds) {
+        Assert.assertFalse(picked[seed]);
+        picked[seed] = true;
+      }
+    }
+  }
+
   /**
    * Tests when we mosaic by 0, we expect to get the same image.
    *
@@ -4,13 +4,23 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Scanner;
 
 import controller.ImageController;
+import model.Convolution;
+import model.DeferredImageModel;
 import model.FileModel;
 import model.ImageModel;
 import model.PPMImageModel;
+import model.TileScheduler;
+import operations.FilterImage;
+import operations.PlanImage;
 
 import static org.junit.Assert.assertEquals;
 
@@ -36,6 +46,8 @@ public class ImageControllerTest {
         + "henceforth in the program by the given image name.\n" +
         "save image-path image-name: Save the image with the given name to the specified path "
         + "which should include the name of the file.\n" +
+        "save -p6 image-path image-name: Save the image as a binary (P6) ppm file instead " +
+        "of a plain text (P3) one.\n" +
         "blur image-name dest-image-name: Blur the image with the given name and save it as " +
         "the " + "designated name\n" +
         "sharpen image-name dest-image-name: Sharpen the image with the given name and save " +
@@ -55,6 +67,46 @@ public class ImageControllerTest {
         "brighten increment image-name dest-image-name: brighten the image by the given " +
         "increment to create a new image, referred to henceforth by the given destination " +
         "name. The increment may be positive (brightening) or negative (darkening)\n" +
+        "mosaic seed-no image-name dest-image-name: mosaics the image by the given number " +
+        "of seeds to create a new image, referred to henceforth by the given destination " +
+        "name. The seed number must be positive (brightening). Add -seed and a number first " +
+        "to get the same mosaic every time.\n" +
+        "filter kernel image-name dest-image-name: Filter the image with the given name " +
+        "using blur, sharpen, a kernel file, or an odd size n followed by n*n weights, and " +
+        "save it as the designated name. Add -clamp before the kernel to repeat the edge " +
+        "pixels instead of treating the outside of the image as black.\n" +
+        "threads count: Run the operations on the given number of threads, 1 runs them one " +
+        "pixel at a time on the main thread.\n" +
+        "color-matrix weights image-name dest-image-name: Transform the image with the given " +
+        "name using sepia, greyscale, or nine weights, one row each for red, green and blue, " +
+        "and save it as the designated name. Add -offset r g b before the weights to add an " +
+        "offset to each channel.\n" +
+        "rotate degrees image-name dest-image-name: Rotate an image clockwise by 90, 180 or " +
+        "270 degrees to create a new image, referred to henceforth by the given destination " +
+        "name.\n" +
+        "transpose image-name dest-image-name: Swap the rows and columns of an image to create " +
+        "a new image, referred to henceforth by the given destination name.\n" +
+        "lazy on|off: With lazy on, commands only record what to do and run when an image " +
+        "that needs them is saved, so images that are never saved are never made.\n" +
+        "optimize on|off|show: With optimize on, chains of brightens, components, greyscales, " +
+        "flips, rotations and transposes are rewritten into the shortest plan that makes the " +
+        "same image, run when it is needed. Show also prints each plan.\n" +
+        "box-blur radius image-name dest-image-name: Blur the image with the given name by " +
+        "averaging the square of pixels within the radius of each pixel, and save it as the " +
+        "designated name. Add -clamp before the radius to repeat the edge pixels instead of " +
+        "treating the outside of the image as black.\n" +
+        "gaussian sigma image-name dest-image-name: Blur the image with the given name with a " +
+        "Gaussian whose standard deviation is sigma pixels, and save it as the designated name. " +
+        "Add -clamp before sigma to repeat the edge pixels instead of treating the outside of " +
+        "the image as black.\n" +
+        "median radius image-name dest-image-name: Set each pixel of the image with the given " +
+        "name to the median of the square of pixels within the radius of it, which takes out " +
+        "specks of noise without blurring edges, and save it as the designated name. Add " +
+        "-clamp before the radius to repeat the edge pixels instead of treating the outside of " +
+        "the image as black.\n" +
+        "percentile p radius image-name dest-image-name: Like median, but take the p " +
+        "percentile of the square, from 0 for the darkest to 100 for the brightest. Add -clamp " +
+        "before p to repeat the edge pixels.\n" +
         "menu (Print supported instruction list)\n" +
         "q or quit (quit the program) \n" +
         "Thank you for using this program!";
@@ -79,6 +131,8 @@ public class ImageControllerTest {
         "henceforth in the program by the given image name.\n" +
         "save image-path image-name: Save the image with the given name to the specified path "
         + "which should include the name of the file.\n" +
+        "save -p6 image-path image-name: Save the image as a binary (P6) ppm file instead " +
+        "of a plain text (P3) one.\n" +
         "blur image-name dest-image-name: Blur the image with the given name and save it as " +
         "the designated name\n" + "sharpen image-name dest-image-name: Sharpen " +
         "the image with the given name and save it as the designated name\n" +
@@ -97,6 +151,46 @@ public class ImageControllerTest {
         "brighten increment image-name dest-image-name: brighten the image by the given " +
         "increment to create a new image, referred to henceforth by the given destination " +
         "name. The increment may be positive (brightening) or negative (darkening)\n" +
+        "mosaic seed-no image-name dest-image-name: mosaics the image by the given number " +
+        "of seeds to create a new image, referred to henceforth by the given destination " +
+        "name. The seed number must be positive (brightening). Add -seed and a number first " +
+        "to get the same mosaic every time.\n" +
+        "filter kernel image-name dest-image-name: Filter the image with the given name " +
+        "using blur, sharpen, a kernel file, or an odd size n followed by n*n weights, and " +
+        "save it as the designated name. Add -clamp before the kernel to repeat the edge " +
+        "pixels instead of treating the outside of the image as black.\n" +
+        "threads count: Run the operations on the given number of threads, 1 runs them one " +
+        "pixel at a time on the main thread.\n" +
+        "color-matrix weights image-name dest-image-name: Transform the image with the given " +
+        "name using sepia, greyscale, or nine weights, one row each for red, green and blue, " +
+        "and save it as the designated name. Add -offset r g b before the weights to add an " +
+        "offset to each channel.\n" +
+        "rotate degrees image-name dest-image-name: Rotate an image clockwise by 90, 180 or " +
+        "270 degrees to create a new image, referred to henceforth by the given destination " +
+        "name.\n" +
+        "transpose image-name dest-image-name: Swap the rows and columns of an image to create " +
+        "a new image, referred to henceforth by the given destination name.\n" +
+        "lazy on|off: With lazy on, commands only record what to do and run when an image " +
+        "that needs them is saved, so images that are never saved are never made.\n" +
+        "optimize on|off|show: With optimize on, chains of brightens, components, greyscales, " +
+        "flips, rotations and transposes are rewritten into the shortest plan that makes the " +
+        "same image, run when it is needed. Show also prints each plan.\n" +
+        "box-blur radius image-name dest-image-name: Blur the image with the given name by " +
+        "averaging the square of pixels within the radius of each pixel, and save it as the " +
+        "designated name. Add -clamp before the radius to repeat the edge pixels instead of " +
+        "treating the outside of the image as black.\n" +
+        "gaussian sigma image-name dest-image-name: Blur the image with the given name with a " +
+        "Gaussian whose standard deviation is sigma pixels, and save it as the designated name. " +
+        "Add -clamp before sigma to repeat the edge pixels instead of treating the outside of " +
+        "the image as black.\n" +
+        "median radius image-name dest-image-name: Set each pixel of the image with the given " +
+        "name to the median of the square of pixels within the radius of it, which takes out " +
+        "specks of noise without blurring edges, and save it as the designated name. Add " +
+        "-clamp before the radius to repeat the edge pixels instead of treating the outside of " +
+        "the image as black.\n" +
+        "percentile p radius image-name dest-image-name: Like median, but take the p " +
+        "percentile of the square, from 0 for the darkest to 100 for the brightest. Add -clamp " +
+        "before p to repeat the edge pixels.\n" +
         "menu (Print supported instruction list)\n" +
         "q or quit (quit the program) \n" +
         "Undefined instruction: loab\n" +
@@ -139,6 +233,208 @@ public class ImageControllerTest {
         cont.getBank().get("ppm").getImage());
   }
 
+  /**
+   * Tests that ppm files with comments anywhere in them are read, and that a malformed file is
+   * reported with the line and column of the problem instead of crashing the program.
+   *
+   * @throws IOException if the temporary files can't be written.
+   */
+  @Test
+  public void testLoadPPMParsing() throws IOException {
+    File good = File.createTempFile("comments", ".ppm");
+    Files.write(good.toPath(), ("P3 # magic\n# size\n2 1\n255\n"
+        + "1 2 3 # first pixel\n4 5 6\n").getBytes(StandardCharsets.US_ASCII));
+    File bad = File.createTempFile("bad", ".ppm");
+    Files.write(bad.toPath(), "P3\n2 1\n255\n1 2 3\n4 x 6\n"
+        .getBytes(StandardCharsets.US_ASCII));
+    good.deleteOnExit();
+    bad.deleteOnExit();
+
+    Readable read = new StringReader("load " + good.getPath() + " good "
+        + "load " + bad.getPath() + " bad brighten 10 bad worse q");
+    Appendable app = new StringBuffer();
+    ImageController cont = new ImageController(read, app);
+    cont.runProgram();
+
+    List<Integer> expected = new ArrayList<Integer>();
+    int[] intArray = new int[]{1, 2, 3, 4, 5, 6};
+    for (int i : intArray) {
+      expected.add(i);
+    }
+    assertEquals(expected, cont.getBank().get("good").getImage());
+    Assert.assertEquals(2, cont.getBank().get("bad").getWidth());
+    Assert.assertFalse(cont.getBank().containsKey("worse"));
+    Assert.assertTrue(app.toString().contains("Error: Expected a number but found 'x' "
+        + "at line 5, column 3"));
+  }
+
+  /**
+   * Tests the filter command with a kernel typed in, a kernel file, and the clamped border.
+   */
+  @Test
+  public void testFilterCommandLine() throws IOException {
+    File kernel = File.createTempFile("identity", ".txt");
+    kernel.deleteOnExit();
+    Files.write(kernel.toPath(), "# identity\n0 0 0\n0 1 0\n0 0 0\n"
+        .getBytes(StandardCharsets.US_ASCII));
+    Readable read = new StringReader("load images/testing.ppm tester "
+        + "filter 3 0 0 0 0 1 0 0 0 0 tester typed "
+        + "filter " + kernel.getPath() + " tester file "
+        + "filter -clamp 1 2 tester double "
+        + "filter blur tester blurred "
+        + "filter 2 1 1 1 1 tester even q");
+    Appendable app = new StringBuffer();
+    ImageController cont = new ImageController(read, app);
+    cont.runProgram();
+
+    List<Integer> original = cont.getBank().get("tester").getImage();
+    assertEquals(original, cont.getBank().get("typed").getImage());
+    assertEquals(original, cont.getBank().get("file").getImage());
+    assertEquals(new FilterImage(cont.getBank().get("tester"), "blur").command().getImage(),
+        cont.getBank().get("blurred").getImage());
+    List<Integer> expected = new ArrayList<Integer>();
+    int[] intArray = new int[]{0, 0, 0, 255, 255, 255, 0, 0, 0, 255, 255, 255, 20, 20, 20, 140,
+        140, 140, 170, 190, 150, 0, 0, 0, 200, 255, 0};
+    for (int i : intArray) {
+      expected.add(i);
+    }
+    assertEquals(expected, cont.getBank().get("double").getImage());
+    Assert.assertFalse(cont.getBank().containsKey("even"));
+    Assert.assertTrue(app.toString().contains("Filtered tester with a 1x1 kernel and named it "
+        + "double"));
+    Assert.assertTrue(app.toString().contains("Error: The kernel size must be odd, not 2"));
+  }
+
+  /**
+   * Tests the threads command, and that a count below 1 is an error.
+   */
+  @Test
+  public void testThreadsCommandLine() {
+    int before = TileScheduler.getParallelism();
+    Readable read = new StringReader("threads 3 threads 0 q");
+    Appendable app = new StringBuffer();
+    ImageController cont = new ImageController(read, app);
+    try {
+      cont.runProgram();
+      assertEquals(3, TileScheduler.getParallelism());
+    } finally {
+      TileScheduler.setParallelism(before);
+    }
+    Assert.assertTrue(app.toString().contains("Operations will run on 3 threads\n"
+        + "Error: The number of threads must be at least 1, not 0"));
+  }
+
+  /**
+   * tests the command line to transform an image with a color matrix, that the presets match the
+   * sepia command and that weights and offsets are read in order.
+   */
+  @Test
+  public void testColorMatrixCommandLine() {
+    Readable read = new StringReader("load images/testing.ppm tester "
+        + "color-matrix sepia tester tester-matrix sepia tester tester-sepia "
+        + "color-matrix -offset 5 0 -5 0 0 1 0 1 0 1/2 0 0 tester tester-swap "
+        + "color-matrix 1 0 0 0 1 0 0 0 tester tester-bad");
+    Appendable app = new StringBuffer();
+    ImageController cont = new ImageController(read, app);
+
+    cont.runProgram();
+
+    assertEquals(cont.getBank().get("tester-sepia").getImage(),
+        cont.getBank().get("tester-matrix").getImage());
+    List<Integer> expected = new ArrayList<Integer>();
+    int[] intArray = new int[]{5, 0, 0, 255, 255, 122, 5, 0, 0,
+        255, 255, 122, 15, 10, 0, 75, 70, 30, 80, 95, 37, 5, 0, 0,
+        5, 200, 45};
+    for (int i : intArray) {
+      expected.add(i);
+    }
+    assertEquals(expected, cont.getBank().get("tester-swap").getImage());
+    Assert.assertTrue(app.toString().contains("Transformed tester with a color matrix and named "
+        + "it tester-swap\n"));
+    Assert.assertTrue(app.toString().contains("Error: Invalid weight tester"));
+  }
+  /**
+   * tests the command line to box blur an image with a radius.
+   */
+  @Test
+  public void testBoxBlurCommandLine() {
+    Readable read = new StringReader("load images/testing.ppm tester "
+        + "box-blur -clamp 1 tester tester-box box-blur 0 tester tester-same "
+        + "box-blur -2 tester tester-bad");
+    Appendable app = new StringBuffer();
+    ImageController cont = new ImageController(read, app);
+
+    cont.runProgram();
+
+    List<Integer> expected = new ArrayList<Integer>();
+    int[] intArray = new int[]{114, 114, 114, 93, 93, 93, 73, 73, 73, 105, 107, 102, 86, 98, 73,
+        67, 89, 45, 95, 100, 91, 78, 102, 53, 61, 105, 16};
+    for (int i : intArray) {
+      expected.add(i);
+    }
+    assertEquals(expected, cont.getBank().get("tester-box").getImage());
+    assertEquals(cont.getBank().get("tester").getImage(),
+        cont.getBank().get("tester-same").getImage());
+    Assert.assertTrue(app.toString().contains("Box blurred tester with radius 1 and named it "
+        + "tester-box\n"));
+    Assert.assertTrue(app.toString().contains("Error: The radius must be between 0 and 1048576, "
+        + "not -2\n"));
+  }
+  /**
+   * tests the command line to blur an image with a Gaussian.
+   */
+  @Test
+  public void testGaussianCommandLine() throws IOException {
+    Readable read = new StringReader("load images/testing.ppm tester "
+        + "gaussian -clamp 1 tester tester-soft gaussian 12.5 tester tester-softer "
+        + "gaussian 0 tester tester-bad");
+    Appendable app = new StringBuffer();
+    ImageController cont = new ImageController(read, app);
+
+    cont.runProgram();
+
+    ImageModel tester = cont.getBank().get("tester");
+    assertEquals(tester.gaussianBlur(1, Convolution.Border.CLAMP).getImage(),
+        cont.getBank().get("tester-soft").getImage());
+    assertEquals(tester.gaussianBlur(12.5, Convolution.Border.ZERO).getImage(),
+        cont.getBank().get("tester-softer").getImage());
+    Assert.assertTrue(app.toString().contains("Gaussian blurred tester with sigma 1.0 and named "
+        + "it tester-soft\n"));
+    Assert.assertTrue(app.toString().contains("Error: The sigma must be more than 0 and at most "
+        + "1000, not 0.0\n"));
+  }
+
+  /**
+   * tests the command line to take the median and other percentiles of an image.
+   */
+  @Test
+  public void testMedianCommandLine() throws IOException {
+    Readable read = new StringReader("load images/testing.ppm tester "
+        + "median 1 tester tester-median percentile -clamp 90 2 tester tester-bright "
+        + "median -1 tester tester-bad percentile 120 1 tester tester-bad");
+    Appendable app = new StringBuffer();
+    ImageController cont = new ImageController(read, app);
+
+    cont.runProgram();
+
+    ImageModel tester = cont.getBank().get("tester");
+    assertEquals(tester.percentileFilter(1, 50, Convolution.Border.ZERO).getImage(),
+        cont.getBank().get("tester-median").getImage());
+    assertEquals(tester.percentileFilter(2, 90, Convolution.Border.CLAMP).getImage(),
+        cont.getBank().get("tester-bright").getImage());
+    Assert.assertNull(cont.getBank().get("tester-bad"));
+    Assert.assertTrue(app.toString().contains("Median filtered tester with radius 1 and named "
+        + "it tester-median\n"));
+    Assert.assertTrue(app.toString().contains("Took the 90.0 percentile of tester with radius 2 "
+        + "and named it tester-bright\n"));
+    Assert.assertTrue(app.toString().contains("Error: The radius must be between 0 and 16384, "
+        + "not -1\n"));
+    Assert.assertTrue(app.toString().contains("Error: The percentile must be between 0 and 100, "
+        + "not 120.0\n"));
+  }
+
+
+
   /**
    * tests the command line to brighten an image, that controller properly parses input and creates
    * the expected image.
@@ -208,6 +504,171 @@ public class ImageControllerTest {
     Assert.assertTrue(cont.getBank().containsKey("tester-mosaic"));
   }
 
+  /**
+   * tests the command line to mosaic an image from a seed, that the same seed gives the same
+   * image.
+   */
+  @Test
+  public void testSeededMosaicCLI() {
+    Readable read = new StringReader("load images/testing.ppm tester "
+        + "mosaic -seed 7 4 tester first mosaic -seed 7 4 tester second");
+    Appendable app = new StringBuffer();
+    ImageController cont = new ImageController(read, app);
+
+    cont.runProgram();
+
+    assertEquals(cont.getBank().get("first").getImage(), cont.getBank().get("second").getImage());
+    Assert.assertTrue(app.toString().contains("Mosaic'd image tester with 4 seeds and named it "
+        + "second"));
+  }
+
+  /**
+   * tests the command line to rotate and transpose an image, that the controller parses the
+   * degrees and reports a rotation that is not allowed.
+   */
+  @Test
+  public void testRotateCommandLine() {
+    Readable read = new StringReader("load images/testing.ppm tester "
+        + "rotate 90 tester turned transpose tester swapped rotate 45 tester bad");
+    Appendable app = new StringBuffer();
+    ImageController cont = new ImageController(read, app);
+
+    cont.runProgram();
+
+    List<Integer> expected = new ArrayList<Integer>();
+    for (int i : new int[]{85, 95, 75, 255, 255, 255, 0, 0, 0, 0, 0, 0, 10, 10, 10,
+        255, 255, 255, 100, 200, 0, 70, 70, 70, 0, 0, 0}) {
+      expected.add(i);
+    }
+    assertEquals(expected, cont.getBank().get("turned").getImage());
+    expected.clear();
+    for (int i : new int[]{0, 0, 0, 255, 255, 255, 85, 95, 75, 255, 255, 255, 10, 10, 10,
+        0, 0, 0, 0, 0, 0, 70, 70, 70, 100, 200, 0}) {
+      expected.add(i);
+    }
+    assertEquals(expected, cont.getBank().get("swapped").getImage());
+    Assert.assertTrue(app.toString().contains("Rotated image tester 90 degrees and named it "
+        + "turned\nTransposed image tester and named it swapped\n"
+        + "Error: The rotation must be 90, 180 or 270 degrees, not 45"));
+  }
+
+  /**
+   * tests lazy mode, that commands only run when an image that needs them is used, that images
+   * nothing needs are never made, that the images come out the same as running right away, and
+   * that a command with bad arguments is refused straight away instead of being put off.
+   */
+  @Test
+  public void testLazyCommandLine() {
+    String script = "load images/testing.ppm tester brighten 10 tester a blur a b "
+        + "sepia tester c ";
+    Readable read = new StringReader("lazy on " + script + "rotate 45 tester d "
+        + "box-blur -3 tester e gaussian -1 tester f median -1 tester g lazy maybe");
+    Appendable app = new StringBuffer();
+    ImageController cont = new ImageController(read, app);
+    cont.runProgram();
+
+    ImageController eager = new ImageController(new StringReader(script), new StringBuffer());
+    eager.runProgram();
+
+    for (String name : new String[]{"a", "b", "c"}) {
+      Assert.assertFalse(((DeferredImageModel) cont.getBank().get(name)).isEvaluated());
+    }
+    for (String name : new String[]{"d", "e", "f", "g"}) {
+      Assert.assertFalse(cont.getBank().containsKey(name));
+    }
+    assertEquals(eager.getBank().get("b").getImage(), cont.getBank().get("b").getImage());
+    Assert.assertTrue(((DeferredImageModel) cont.getBank().get("a")).isEvaluated());
+    Assert.assertFalse(((DeferredImageModel) cont.getBank().get("c")).isEvaluated());
+    String output = app.toString();
+    Assert.assertTrue(output.contains("Commands will run when an image that needs them "
+        + "is saved\n"));
+    Assert.assertTrue(output.contains("Error: The rotation must be 90, 180 or 270 degrees, not 45\n"
+        + "Error: The radius must be between 0 and "));
+    Assert.assertTrue(output.contains("Error: The sigma must be more than 0"));
+    Assert.assertFalse(output.contains("Rotated image tester 45"));
+    Assert.assertTrue(output.contains("Lazy mode is either on or off\n"));
+  }
+
+  /**
+   * tests that in lazy mode the size of an image is known without running the commands that make
+   * it, so checking a mosaic's seeds runs nothing, and that a file that fails to read when a node
+   * runs is reported instead of stopping the program.
+   *
+   * @throws IOException if the temporary file can't be written.
+   */
+  @Test
+  public void testLazySizes() throws IOException {
+    File wide = File.createTempFile("wide", ".ppm");
+    wide.deleteOnExit();
+    Files.write(wide.toPath(), "P3\n3 2\n255\n1 2 3 4 5 6 7 8 9 1 2 3 4 5 6 7 8 9\n"
+        .getBytes(StandardCharsets.US_ASCII));
+    String script = "load " + wide.getPath() + " w brighten 10 w a rotate 90 a b "
+        + "transpose b c rotate 180 c d horizontal-flip b e mosaic -seed 3 6 b f "
+        + "mosaic -seed 3 7 b g ";
+    for (String mode : new String[]{"off", "on"}) {
+      Readable read = new StringReader("lazy on optimize " + mode + " " + script + "q");
+      Appendable app = new StringBuffer();
+      ImageController cont = new ImageController(read, app);
+      cont.runProgram();
+
+      String[] names = new String[]{"a", "b", "c", "d", "e", "f"};
+      int[] widths = new int[]{3, 2, 3, 3, 2, 2};
+      for (int i = 0; i < names.length; i++) {
+        DeferredImageModel node = (DeferredImageModel) cont.getBank().get(names[i]);
+        assertEquals(widths[i], node.getWidth());
+        assertEquals(5 - widths[i], node.getHeight());
+        Assert.assertFalse(node.isEvaluated());
+        assertEquals(widths[i], node.getPixels().getWidth());
+        assertEquals(5 - widths[i], node.getPixels().getHeight());
+      }
+      Assert.assertFalse(cont.getBank().containsKey("g"));
+      Assert.assertTrue(app.toString().contains("Invalid seed number, please try again!\n"));
+    }
+
+    Appendable app = new StringBuffer();
+    ImageController failing = new ImageController(new StringReader("save out.ppm a q"), app) {
+      @Override
+      protected void processCommand(String userCommand, Scanner sc) {
+        sc.nextLine();
+        throw new UncheckedIOException(new IOException("Disk is gone"));
+      }
+    };
+    failing.runProgram();
+    Assert.assertTrue(app.toString().contains("Error: Disk is gone\n"));
+  }
+
+  /**
+   * tests the command line to rewrite and print plans, which must make the same images as
+   * running every command as it is written.
+   */
+  @Test
+  public void testOptimizeCommandLine() {
+    String script = "load images/testing.ppm tester brighten 10 tester a horizontal-flip a b "
+        + "brighten 5 b c horizontal-flip c d component red d e component luna e f "
+        + "blur f g rotate 90 g h transpose h i ";
+    Readable read = new StringReader("optimize show " + script + "rotate 45 i j optimize maybe");
+    Appendable app = new StringBuffer();
+    ImageController cont = new ImageController(read, app);
+    cont.runProgram();
+
+    ImageController eager = new ImageController(new StringReader(script), new StringBuffer());
+    eager.runProgram();
+
+    for (String name : new String[]{"a", "b", "c", "d", "e", "f", "g", "h", "i"}) {
+      assertEquals(eager.getBank().get(name).getImage(), cont.getBank().get(name).getImage());
+    }
+    Assert.assertSame(cont.getBank().get("tester"),
+        ((PlanImage) ((DeferredImageModel) cont.getBank().get("c")).getCommand()).getRoot());
+    String output = app.toString();
+    Assert.assertTrue(output.contains("Chains of commands will be rewritten before they run\n"));
+    Assert.assertTrue(output.contains("Plan for c: brighten 15, horizontal-flip\n"));
+    Assert.assertTrue(output.contains("Plan for d: brighten 15\n"));
+    Assert.assertTrue(output.contains("Plan for f: brighten 15, component red\n"));
+    Assert.assertTrue(output.contains("Plan for i: vertical-flip\n"));
+    Assert.assertTrue(output.contains("Error: The rotation must be 90, 180 or 270 degrees, "
+        + "not 45\nOptimize is either on, off or show\n"));
+  }
+
   /**
    * tests the command line to vertically flip an image.
    */
@@ -302,6 +763,166 @@ public class ImageControllerTest {
 
   }
 
+  /**
+   * Tests the exact text of a saved P3 file, which has one row of the image per line.
+   *
+   * @throws IOException if the temporary file can't be written.
+   */
+  @Test
+  public void test_savePlainPPM() throws IOException {
+    File plain = File.createTempFile("plain", ".ppm");
+    plain.deleteOnExit();
+    Readable read = new StringReader("load images/testing.png tester "
+        + "save " + plain.getPath() + " tester q");
+    Appendable app = new StringBuffer();
+    ImageController cont = new ImageController(read, app);
+    cont.runProgram();
+
+    String expected = "P3\n3 3\n255\n"
+        + "0 0 0 255 255 255 0 0 0 \n"
+        + "255 255 255 10 10 10 70 70 70 \n"
+        + "85 95 75 0 0 0 100 200 0 \n";
+    Assert.assertEquals(expected, new String(Files.readAllBytes(plain.toPath()),
+        StandardCharsets.US_ASCII));
+  }
+
+  /**
+   * Tests that images can be saved as binary P6 ppms with the -p6 option and loaded back the same,
+   * including 16 bit files, whose depth is kept when they are saved again.
+   *
+   * @throws IOException if the temporary files can't be written.
+   */
+  @Test
+  public void test_saveBinaryPPM() throws IOException {
+    File wide = File.createTempFile("wide", ".ppm");
+    byte[] header = "P6\n2 1\n65535\n".getBytes(StandardCharsets.US_ASCII);
+    byte[] body = new byte[]{(byte) 0xFF, (byte) 0xFF, 0, 0, (byte) 0x80, (byte) 0x80,
+        0, 0, 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+    byte[] file = new byte[header.length + body.length];
+    System.arraycopy(header, 0, file, 0, header.length);
+    System.arraycopy(body, 0, file, header.length, body.length);
+    Files.write(wide.toPath(), file);
+    File binary = File.createTempFile("binary", ".ppm");
+    File wideCopy = File.createTempFile("widecopy", ".ppm");
+    wide.deleteOnExit();
+    binary.deleteOnExit();
+    wideCopy.deleteOnExit();
+
+    Readable read = new StringReader("load images/testing.ppm tester "
+        + "save -p6 " + binary.getPath() + " tester load " + binary.getPath() + " again "
+        + "load " + wide.getPath() + " wide save -p6 " + wideCopy.getPath() + " wide "
+        + "load " + wideCopy.getPath() + " wideagain q");
+    Appendable app = new StringBuffer();
+    ImageController cont = new ImageController(read, app);
+    cont.runProgram();
+
+    Assert.assertEquals(cont.getBank().get("tester").getImage(),
+        cont.getBank().get("again").getImage());
+    Assert.assertEquals("P6\n3 3\n255\n", new String(Files.readAllBytes(binary.toPath()),
+        StandardCharsets.US_ASCII).substring(0, 11));
+
+    List<Integer> expected = new ArrayList<Integer>();
+    int[] intArray = new int[]{255, 0, 128, 0, 127, 255};
+    for (int i : intArray) {
+      expected.add(i);
+    }
+    Assert.assertEquals(expected, cont.getBank().get("wide").getImage());
+    Assert.assertEquals(expected, cont.getBank().get("wideagain").getImage());
+    Assert.assertEquals(65535, cont.getBank().get("wideagain").getMaxValue());
+    Assert.assertEquals(header.length + body.length, wideCopy.length());
+  }
+
+  /**
+   * Tests that a 16 bit ppm is saved again with exactly the samples it was loaded with, as either
+   * kind of ppm, that its 8 bit channels are rounded to the nearest level, and that an edited
+   * one is saved as the 8 bit image it is, with a warning.
+   *
+   * @throws IOException if the temporary files can't be written.
+   */
+  @Test
+  public void testSixteenBitRoundTrip() throws IOException {
+    File wide = File.createTempFile("wide", ".ppm");
+    byte[] header = "P6\n1 1\n65535\n".getBytes(StandardCharsets.US_ASCII);
+    byte[] file = Arrays.copyOf(header, header.length + 6);
+    file[header.length] = 0x03;
+    file[header.length + 1] = (byte) 0xE8;
+    file[header.length + 2] = 0x03;
+    file[header.length + 3] = (byte) 0xE9;
+    file[header.length + 4] = 0x03;
+    file[header.length + 5] = (byte) 0xEA;
+    Files.write(wide.toPath(), file);
+    File binary = File.createTempFile("binary", ".ppm");
+    File plain = File.createTempFile("plain", ".ppm");
+    File edited = File.createTempFile("edited", ".ppm");
+    wide.deleteOnExit();
+    binary.deleteOnExit();
+    plain.deleteOnExit();
+    edited.deleteOnExit();
+
+    Readable read = new StringReader("load " + wide.getPath() + " wide "
+        + "save -p6 " + binary.getPath() + " wide save " + plain.getPath() + " wide "
+        + "brighten 10 wide bright save -p6 " + edited.getPath() + " bright "
+        + "load " + plain.getPath() + " again q");
+    Appendable app = new StringBuffer();
+    ImageController cont = new ImageController(read, app);
+    cont.runProgram();
+
+    Assert.assertArrayEquals(file, Files.readAllBytes(binary.toPath()));
+    assertEquals("P3\n1 1\n65535\n1000 1001 1002 \n", new String(
+        Files.readAllBytes(plain.toPath()), StandardCharsets.US_ASCII));
+    Assert.assertEquals(Arrays.asList(4, 4, 4), cont.getBank().get("wide").getImage());
+    Assert.assertEquals(Arrays.asList(4, 4, 4), cont.getBank().get("again").getImage());
+    assertEquals("P6\n1 1\n255\n\u000e\u000e\u000e", new String(
+        Files.readAllBytes(edited.toPath()), StandardCharsets.ISO_8859_1));
+    Assert.assertTrue(app.toString().contains("Warning: edits are made at 8 bits per channel, so "
+        + "this image is saved with a maxValue of 255 instead of 65535\n"));
+  }
+
+  /**
+   * Tests that saving over the file an image was loaded from, before that image has been used,
+   * does not change the image, and that a file changed behind the program's back is reported
+   * instead of being read as the image that was loaded.
+   *
+   * @throws IOException if the temporary files can't be written.
+   */
+  @Test
+  public void testSaveOverUnreadImage() throws IOException {
+    File f = File.createTempFile("first", ".ppm");
+    File g = File.createTempFile("second", ".ppm");
+    File out = File.createTempFile("out", ".ppm");
+    f.deleteOnExit();
+    g.deleteOnExit();
+    out.deleteOnExit();
+    Files.write(f.toPath(), "P3\n2 1\n255\n1 2 3 4 5 6\n".getBytes(StandardCharsets.US_ASCII));
+    Files.write(g.toPath(), "P3\n2 1\n255\n9 9 9 8 8 8\n".getBytes(StandardCharsets.US_ASCII));
+
+    Readable read = new StringReader("load " + f.getPath() + " a load " + g.getPath() + " b "
+        + "save " + f.getPath() + " b save " + out.getPath() + " a "
+        + "load " + out.getPath() + " copy q");
+    Appendable app = new StringBuffer();
+    ImageController cont = new ImageController(read, app);
+    cont.runProgram();
+
+    List<Integer> expected = new ArrayList<Integer>();
+    int[] intArray = new int[]{1, 2, 3, 4, 5, 6};
+    for (int i : intArray) {
+      expected.add(i);
+    }
+    Assert.assertEquals(expected, cont.getBank().get("copy").getImage());
+    Assert.assertEquals(expected, cont.getBank().get("a").getImage());
+    Assert.assertEquals(cont.getBank().get("b").getImage(),
+        new PPMImageModel(f.getPath(), "f").getImage());
+
+    read = new StringReader("load " + g.getPath() + " b q");
+    cont = new ImageController(read, new StringBuffer());
+    cont.runProgram();
+    Files.write(g.toPath(), "P3\n2 1\n255\n0 0 0 0 0 0 0\n".getBytes(StandardCharsets.US_ASCII));
+    ImageModel changed = cont.getBank().get("b");
+    IllegalArgumentException e = Assert.assertThrows(IllegalArgumentException.class,
+        changed::getImage);
+    Assert.assertTrue(e.getMessage().contains("has changed since b was loaded"));
+  }
+
   @Test
   public void test_nullThrows() {
     Readable read = new StringReader("load images/sample.png bruh save images/sample.bmp bruh " +